@@ -0,0 +1,51 @@
+package matrix;
+
+import java.util.Random;
+
+/** The operands of the benchmarks: random square matrices stored the
+ *  way the calculator would store them, or in a given storage.
+ *  @author Christian Choi */
+
+final class BenchMatrices {
+
+    /** Ways of storing an operand: as the calculator would, as floats,
+     *  in tiles on disk, or as doubles off the heap. */
+    enum Storage {
+        DOUBLE, FLOAT, TILED, OFF_HEAP
+    }
+
+    /** Not instantiable. */
+    private BenchMatrices() {
+    }
+
+    /** A random SIZE x SIZE matrix of small whole numbers with DENSITY
+     *  of its off-diagonal elements nonzero, drawn from RANDOM and held
+     *  in STORAGE. It is strictly diagonally dominant, so that it is
+     *  nonsingular and its iterative solves converge. */
+    static MatrixObj random(Random random, int size, double density,
+                            Storage storage) {
+        double[] data = new double[size * size];
+        for (int i = 0; i < size; i += 1) {
+            double offDiagonal = 0;
+            for (int j = 0; j < size; j += 1) {
+                if (i != j && random.nextDouble() < density) {
+                    data[i * size + j] = random.nextInt(19) - 9;
+                    offDiagonal += Math.abs(data[i * size + j]);
+                }
+            }
+            data[i * size + i] = offDiagonal + 1 + random.nextInt(9);
+        }
+        MatrixObj m = new MatrixObj(size, size, data);
+        switch (storage) {
+        case FLOAT:
+            return FloatMatrixObj.of(size, size, data);
+        case TILED:
+            return TiledMatrixObj.of(m);
+        case OFF_HEAP:
+            return OffHeapMatrixObj.of(m);
+        default:
+            return SparseMatrixObj.choose(m);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package matrix;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of the commands that take time cubic in the order of
+ *  their operands, up to order 1024. Commands that would use the
+ *  factorizations cached by a calculator get a new one each time.
+ *  @author Christian Choi */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CubicBenchmark {
+
+    /** Order of the operands. */
+    @Param({"4", "16", "64", "256", "1024"})
+    int size;
+
+    /** Fraction of the off-diagonal elements that are nonzero. */
+    @Param({"1", "0.01"})
+    double density;
+
+    /** Operands, and a col of B. */
+    MatrixObj a, b, col;
+
+    /** Calculator running the commands that cache nothing. */
+    Calculator calc;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(size);
+        a = BenchMatrices.random(random, size, density,
+            BenchMatrices.Storage.DOUBLE);
+        b = BenchMatrices.random(random, size, density,
+            BenchMatrices.Storage.DOUBLE);
+        col = new MatrixObj(size, 1, b.row(0));
+        calc = new Calculator(null);
+    }
+
+    @Benchmark
+    public MatrixObj multiply() {
+        return MultiplierGEMM.multiply(a, b);
+    }
+
+    @Benchmark
+    public double det() {
+        return calc.determinant(a);
+    }
+
+    @Benchmark
+    public DecompositionLU lu() {
+        return new DecompositionLU(a);
+    }
+
+    @Benchmark
+    public MatrixObj cofactor() {
+        return new Calculator(null).cofactor(a);
+    }
+
+    @Benchmark
+    public MatrixObj inverse() {
+        return calc.inverse(a);
+    }
+
+    @Benchmark
+    public DecompositionQR qr() {
+        return new DecompositionQR(a);
+    }
+
+    @Benchmark
+    public MatrixObj lstsq() {
+        return new Calculator(null).leastSquares(a, b);
+    }
+
+    @Benchmark
+    public DecompositionEigen eig() {
+        return new DecompositionEigen(a);
+    }
+
+    @Benchmark
+    public DecompositionSVD svd() {
+        return new DecompositionSVD(a);
+    }
+
+    @Benchmark
+    public MatrixObj solve() {
+        return new Calculator(null).solve(a, b);
+    }
+
+    @Benchmark
+    public MatrixObj solve1() {
+        return new Calculator(null).solve(a, col);
+    }
+
+    @Benchmark
+    public MatrixObj rref() {
+        return ReducerRREF.rref(a);
+    }
+
+}
@@ -0,0 +1,74 @@
+package matrix;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of the commands that take time linear in the number of
+ *  elements, up to order 4096.
+ *  @author Christian Choi */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElementwiseBenchmark {
+
+    /** Order of the operands. */
+    @Param({"4", "16", "64", "256", "1024", "4096"})
+    int size;
+
+    /** Fraction of the off-diagonal elements that are nonzero. */
+    @Param({"1", "0.01"})
+    double density;
+
+    /** Operands. */
+    MatrixObj a, b;
+
+    /** Calculator running the commands. */
+    Calculator calc;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(size);
+        a = BenchMatrices.random(random, size, density,
+            BenchMatrices.Storage.DOUBLE);
+        b = BenchMatrices.random(random, size, density,
+            BenchMatrices.Storage.DOUBLE);
+        calc = new Calculator(null);
+    }
+
+    @Benchmark
+    public MatrixObj add() {
+        return calc.add(a, b, 1);
+    }
+
+    @Benchmark
+    public MatrixObj scale() {
+        return MultiplierGEMM.scale(a, 2);
+    }
+
+    @Benchmark
+    public double dot() {
+        return Kernels.INSTANCE.dot(a.elems(), b.elems(), 0, a.size());
+    }
+
+    @Benchmark
+    public MatrixObj transpose() {
+        return calc.transpose(a);
+    }
+
+}
@@ -0,0 +1,52 @@
+package matrix;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of rref with its steps rendered as printed, which is
+ *  only shown for small matrices.
+ *  @author Christian Choi */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepsBenchmark {
+
+    /** Order of the operand. */
+    @Param({"4", "16"})
+    int size;
+
+    /** Fraction of the off-diagonal elements that are nonzero. */
+    @Param({"1", "0.01"})
+    double density;
+
+    /** Operand. */
+    MatrixObj a;
+
+    @Setup
+    public void setup() {
+        a = BenchMatrices.random(new Random(size), size, density,
+            BenchMatrices.Storage.DOUBLE);
+    }
+
+    @Benchmark
+    public String rrefSteps() {
+        return ReducerRREF.traceRREF(a).toString();
+    }
+
+}
@@ -0,0 +1,70 @@
+package matrix;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of sums, products and solves of dense operands held as
+ *  doubles, as floats, in tiles on disk or off the heap. Solves of
+ *  floats are mixed precision and those of tiles use the tiled LU.
+ *  @author Christian Choi */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+
+    /** Order of the operands. */
+    @Param({"256", "1024"})
+    int size;
+
+    /** How the operands are stored. */
+    @Param({"DOUBLE", "FLOAT", "TILED", "OFF_HEAP"})
+    String storage;
+
+    /** Operands, and a col of B. */
+    MatrixObj a, b, col;
+
+    /** Calculator running sums. */
+    Calculator calc;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(size);
+        BenchMatrices.Storage held = BenchMatrices.Storage.valueOf(storage);
+        a = BenchMatrices.random(random, size, 1, held);
+        b = BenchMatrices.random(random, size, 1, held);
+        col = new MatrixObj(size, 1, b.row(0));
+        calc = new Calculator(null);
+    }
+
+    @Benchmark
+    public MatrixObj add() {
+        return calc.add(a, b, 1);
+    }
+
+    @Benchmark
+    public MatrixObj multiply() {
+        return MultiplierGEMM.multiply(a, b);
+    }
+
+    @Benchmark
+    public MatrixObj solve1() {
+        return new Calculator(null).solve(a, col);
+    }
+
+}
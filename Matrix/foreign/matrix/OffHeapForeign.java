@@ -0,0 +1,103 @@
+package matrix;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.Cleaner;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/** A block of doubles in a memory segment of its own shared arena,
+ *  which is closed, giving the memory back at once, when the block is
+ *  freed, or failing that when the block is collected. Blocks are
+ *  copied to and from matrix files in one copy between the segment and
+ *  a mapping of the file. Compiled and run on java 22 or later, or on
+ *  java 21 with --enable-preview.
+ *  @author Christian Choi */
+
+class OffHeapForeign extends OffHeap {
+
+    /** Layout of each double, little-endian as in matrix files. */
+    private static final ValueLayout.OfDouble DOUBLE =
+        ValueLayout.JAVA_DOUBLE.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    /** Closes the arenas of blocks collected without being freed. */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /** Holds the doubles of this block. */
+    private final MemorySegment _segment;
+
+    /** Closes the arena of _segment, at most once. */
+    private final Cleaner.Cleanable _close;
+
+    /** An empty block. */
+    OffHeapForeign() {
+        _segment = MemorySegment.NULL;
+        _close = null;
+    }
+
+    /** A block of LENGTH zeros. */
+    private OffHeapForeign(long length) {
+        Arena arena = Arena.ofShared();
+        _segment = arena.allocate(length * Double.BYTES, Double.BYTES);
+        _close = CLEANER.register(this, arena::close);
+    }
+
+    @Override
+    OffHeap allocate(long length) {
+        return new OffHeapForeign(length);
+    }
+
+    @Override
+    String name() {
+        return "foreign memory";
+    }
+
+    @Override
+    long length() {
+        return _segment.byteSize() / Double.BYTES;
+    }
+
+    @Override
+    double get(long k) {
+        return _segment.getAtIndex(DOUBLE, k);
+    }
+
+    @Override
+    void get(long k, double[] dst, int off, int len) {
+        MemorySegment.copy(_segment, DOUBLE, k * Double.BYTES, dst, off,
+            len);
+    }
+
+    @Override
+    void put(long k, double[] src, int off, int len) {
+        MemorySegment.copy(src, off, _segment, DOUBLE, k * Double.BYTES,
+            len);
+    }
+
+    @Override
+    void write(FileChannel ch, long pos) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment file = ch.map(FileChannel.MapMode.READ_WRITE,
+                pos, _segment.byteSize(), arena);
+            MemorySegment.copy(_segment, 0, file, 0, _segment.byteSize());
+        }
+    }
+
+    @Override
+    void read(FileChannel ch, long pos) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment file = ch.map(FileChannel.MapMode.READ_ONLY,
+                pos, _segment.byteSize(), arena);
+            MemorySegment.copy(file, 0, _segment, 0, _segment.byteSize());
+        }
+    }
+
+    /** Closes the arena of this block at once. */
+    @Override
+    void free() {
+        _close.clean();
+    }
+
+}
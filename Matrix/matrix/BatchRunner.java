@@ -0,0 +1,115 @@
+package matrix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Runs every script in a directory without interaction. Scripts run
+ *  at once on a pool of worker threads, each in its own Calculator so
+ *  that no two share saved matrices. The output of each script is
+ *  buffered and printed whole, in the order of the script names,
+ *  after a line giving the time it took to run.
+ *  @author Christian Choi */
+
+class BatchRunner {
+
+    /** A runner printing to OUT, which prints only the times of
+     *  scripts and not their output if QUIET, with THREADS workers. */
+    BatchRunner(PrintStream out, boolean quiet, int threads) {
+        _out = out;
+        _quiet = quiet;
+        _threads = threads;
+    }
+
+    /** Runs every file in DIR, returning whether all of them could be
+     *  run to the end. */
+    boolean run(File dir) {
+        File[] scripts = dir.listFiles(File::isFile);
+        if (scripts == null) {
+            _out.println("Cannot open this directory");
+            return false;
+        }
+        Arrays.sort(scripts);
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        long start = System.nanoTime();
+        boolean ok = true;
+        try {
+            ArrayList<Future<Result>> results = new ArrayList<>();
+            for (File script : scripts) {
+                results.add(pool.submit(() -> runScript(script)));
+            }
+            for (int i = 0; i < scripts.length; i += 1) {
+                Result result = results.get(i).get();
+                _out.printf("%s: %.3f ms%s%n", scripts[i].getName(),
+                    result._nanos / 1E6,
+                    result._failure == null ? "" : ", " + result._failure);
+                if (result._output != null) {
+                    result._output.writeTo(_out);
+                }
+                ok &= result._failure == null;
+            }
+        } catch (InterruptedException | ExecutionException
+                 | IOException excp) {
+            _out.println("batch interrupted: " + excp);
+            ok = false;
+        } finally {
+            pool.shutdownNow();
+        }
+        _out.printf("%d scripts: %.3f ms%n", scripts.length,
+            (System.nanoTime() - start) / 1E6);
+        _out.flush();
+        return ok;
+    }
+
+    /** Runs SCRIPT in a new Calculator. */
+    private Result runScript(File script) {
+        Result result = new Result();
+        OutputStream sink = OutputStream.nullOutputStream();
+        if (!_quiet) {
+            result._output = new ByteArrayOutputStream();
+            sink = result._output;
+        }
+        long start = System.nanoTime();
+        try (PrintStream out = new PrintStream(sink)) {
+            ReaderSource input =
+                new ReaderSource(new FileReader(script));
+            new Calculator(null, out).run(input);
+        } catch (IOException excp) {
+            result._failure = "cannot open this file";
+        } catch (RuntimeException | StackOverflowError
+                 | OutOfMemoryError excp) {
+            result._failure = "failed with " + excp;
+        }
+        result._nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /** The outcome of running one script. */
+    private static class Result {
+        /** Wall time taken. */
+        private long _nanos;
+        /** Buffered output, or null if it was discarded. */
+        private ByteArrayOutputStream _output;
+        /** Why the script did not run to the end, or null. */
+        private String _failure;
+    }
+
+    /** Where times and output are printed. */
+    private final PrintStream _out;
+
+    /** Whether the output of scripts is discarded. */
+    private final boolean _quiet;
+
+    /** Number of scripts run at once. */
+    private final int _threads;
+
+}
@@ -1,16 +1,21 @@
 package matrix;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.File;
+import java.io.FileReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
 import static matrix.Command.Type.*;
 import static matrix.MatrixException.error;
 
@@ -20,48 +25,189 @@ import static matrix.MatrixException.error;
 
 class Calculator {
 
+    /** Sparse matrices of at least this order are solved by
+     *  iteration. */
+    static final int ITERATIVE_ORDER = 1000;
+
     /** Input source. */
     private final ReaderSource _input;
 
+    /** Results and errors are printed here. */
+    private final PrintStream _out;
+
+    /** Where the command being run on each thread of a script
+     *  prints, if not to _out. */
+    private final ThreadLocal<PrintStream> _captured = new ThreadLocal<>();
+
+    /** Whether the session has been ended by a quit. */
+    private volatile boolean _done;
+
     /** Reading initially from baseSource. */
     Calculator(ReaderSource baseSource) {
+        this(baseSource, System.out);
+    }
+
+    /** Reading initially from baseSource and printing to OUT. */
+    Calculator(ReaderSource baseSource, PrintStream out) {
         _input = baseSource;
+        _out = out;
     }
 
-    /** Run a session of Matrix Calculator. */
+    /** Run a session of Matrix Calculator, until a quit or the end of
+     *  input. */
     void process() {
-        while (true) {
+        while (!_done) {
             doCommand();
         }
     }
 
+    /** Perform every command from INPUT without prompting, until its
+     *  end or a quit. The commands are read first, and each is run on
+     *  the common fork-join pool as soon as the commands it depends
+     *  on, as given by a ScriptGraph, have finished. The output of
+     *  each command is buffered and printed in the order of the
+     *  commands. If a command fails with anything but a MatrixException,
+     *  no command after it starts, those before it still run, and the
+     *  failure is rethrown once they have finished. */
+    void run(ReaderSource input) {
+        ArrayList<Runnable> steps = new ArrayList<>();
+        ScriptGraph graph = new ScriptGraph();
+        while (true) {
+            Command cmnd;
+            try {
+                cmnd = Command.readCommand(input, "");
+            } catch (MatrixException excp) {
+                steps.add(() -> out().println(excp.getMessage()));
+                graph.add(new Command(ERROR));
+                continue;
+            }
+            if (cmnd.commandType() == EOF) {
+                break;
+            }
+            steps.add(() -> execute(cmnd));
+            graph.add(cmnd);
+            if (cmnd.commandType() == QUIT) {
+                break;
+            }
+        }
+        int n = steps.size();
+        AtomicInteger failed = new AtomicInteger(Integer.MAX_VALUE);
+        ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[n];
+        CompletableFuture<?>[] done = new CompletableFuture<?>[n];
+        for (int i = 0; i < n; i += 1) {
+            int[] deps = graph.dependencies(i);
+            CompletableFuture<?>[] before =
+                new CompletableFuture<?>[deps.length];
+            for (int k = 0; k < deps.length; k += 1) {
+                before[k] = done[deps[k]];
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            Runnable step = steps.get(i);
+            int index = i;
+            outputs[i] = output;
+            done[i] = CompletableFuture.allOf(before).thenRunAsync(() -> {
+                if (index > failed.get()) {
+                    return;
+                }
+                try {
+                    capture(step, output);
+                } catch (RuntimeException | Error excp) {
+                    failed.accumulateAndGet(index, Math::min);
+                    throw excp;
+                }
+            }, ForkJoinPool.commonPool());
+        }
+        for (int i = 0; i < n; i += 1) {
+            try {
+                done[i].join();
+            } catch (CompletionException excp) {
+                await(done);
+                if (excp.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) excp.getCause();
+                } else if (excp.getCause() instanceof Error) {
+                    throw (Error) excp.getCause();
+                }
+                throw excp;
+            }
+            byte[] printed = outputs[i].toByteArray();
+            outputs[i] = null;
+            out().write(printed, 0, printed.length);
+        }
+        out().flush();
+    }
+
+    /** Waits until every step in DONE has finished, been skipped or
+     *  failed. */
+    private static void await(CompletableFuture<?>[] done) {
+        for (CompletableFuture<?> step : done) {
+            try {
+                step.join();
+            } catch (CompletionException excp) {
+                /* Only the first failure is rethrown. */
+            }
+        }
+    }
+
+    /** Runs STEP, with everything it prints going to OUTPUT. */
+    private void capture(Runnable step, ByteArrayOutputStream output) {
+        PrintStream previous = _captured.get();
+        try (PrintStream out = new PrintStream(output)) {
+            _captured.set(out);
+            try {
+                step.run();
+            } catch (MatrixException excp) {
+                out.println(excp.getMessage());
+            }
+        } finally {
+            _captured.set(previous);
+        }
+    }
+
+    /** Where the command being run prints. */
+    PrintStream out() {
+        PrintStream captured = _captured.get();
+        return captured == null ? _out : captured;
+    }
+
     /** Perform the next command from our input source. */
     void doCommand() {
         try {
-            Command cmnd =
-                Command.parseCommand(_input.getLine(">>> "));
-            Command.Type t = cmnd.commandType();
-            String[] op = cmnd.operands();
-            _commands.get(t).accept(op);
+            execute(Command.readCommand(_input, ">>> "));
         } catch (MatrixException excp) {
-            System.out.println(excp.getMessage());
+            out().println(excp.getMessage());
         }
     }
 
-    /** Prints String representation of matrix. */
+    /** Perform CMND. */
+    void execute(Command cmnd) {
+        if (cmnd.commandType() == SAVE) {
+            doSave(cmnd.operands(), cmnd.literal());
+        } else {
+            _commands.get(cmnd.commandType()).accept(cmnd.operands());
+        }
+    }
+
+    /** Prints String representation of matrix, summarizing it if it
+     *  is large. */
     void doPrint(MatrixObj m) {
-        System.out.println(m.toString());
-        System.out.flush();
+        doPrint(m, true);
+    }
+
+    /** Prints String representation of matrix, summarizing it if it
+     *  is large and SUMMARIZE. */
+    void doPrint(MatrixObj m, boolean summarize) {
+        MatrixRenderer.print(m, out(), summarize);
+        out().flush();
     }
 
-    /** Prints all saved matrices. */
+    /** Prints all saved matrices, summarizing large ones. */
     void doDisplay(String[] operands) {
         for (Map.Entry<String, MatrixObj> e : _matrices.entrySet()) {
-            System.out.println(e.getKey() + ":");
-            System.out.println(e.getValue().toString());
-            System.out.println("");
+            out().println(e.getKey() + ":");
+            MatrixRenderer.print(e.getValue(), out(), true);
+            out().println("");
         }
-        System.out.flush();
+        out().flush();
     }
 
     /** Perform a 'help' command. */
@@ -70,7 +216,7 @@ class Calculator {
             Calculator.class.getClassLoader().getResourceAsStream(
                 "matrix/help.txt");
         if (help == null) {
-            System.out.println("No help available.");
+            out().println("No help available.");
         } else {
             try {
                 BufferedReader r
@@ -80,11 +226,11 @@ class Calculator {
                     if (line == null) {
                         break;
                     }
-                    System.out.println(line);
+                    out().println(line);
                 }
                 r.close();
             } catch (IOException e) {
-                System.out.println("error");
+                out().println("error");
             }
         }
     }
@@ -98,15 +244,10 @@ class Calculator {
             && _matrices.get(operands[2]) == null) {
             double constant = Double.parseDouble(operands[2]);
             MatrixObj matrix = _matrices.get(operands[0]);
-            ArrayList<Double> newElems = new ArrayList<Double>();
-            for (double i : matrix.elems()) {
-                newElems.add(i * constant);
-            }
-            MatrixObj m = new MatrixObj(matrix.rows(), matrix.cols(),
-                newElems);
+            MatrixObj m = MultiplierGEMM.scale(matrix, constant);
             doPrint(m);
             if (operands.length > 3) {
-                _matrices.put(operands[operands.length - 1], m);
+                store(operands[operands.length - 1], m);
             }
         } else if (_matrices.get(operands[0]) == null
             && _matrices.get(operands[2]) != null) {
@@ -120,27 +261,10 @@ class Calculator {
             if (a.cols() != b.rows()) {
                 throw error("bad dimensions for multiplication");
             }
-            ArrayList<Double> products = new ArrayList<Double>();
-            for (List<Double> lst : a.matrix()) {
-                int count = 0;
-                for (int i = 0; i < b.cols(); i += 1) {
-                    ArrayList<Double> cols = new ArrayList<Double>();
-                    for (int j = 0; j < b.rows(); j += 1) {
-                        cols.add(b.matrix().get(j).get(i));
-                    }
-                    double total = 0;
-                    while (count < lst.size()) {
-                        total += lst.get(count) * cols.get(count);
-                        count += 1;
-                    }
-                    products.add(total);
-                    count = 0;
-                }
-            }
-            MatrixObj m = new MatrixObj(a.rows(), b.cols(), products);
+            MatrixObj m = MultiplierGEMM.multiply(a, b);
             doPrint(m);
             if (operands.length > 3) {
-                _matrices.put(operands[operands.length - 1], m);
+                store(operands[operands.length - 1], m);
             }
         }
     }
@@ -155,42 +279,59 @@ class Calculator {
         if (!a.dim().equals(b.dim())) {
             throw error("can't add matrices of differing dimensions");
         }
-        ArrayList<Double> combined = new ArrayList<Double>();
-        for (int i = 0; i < a.elems().size(); i += 1) {
-            double aElem = a.elems().get(i);
-            double bElem = b.elems().get(i);
-            if (operands[1].equals("+")) {
-                combined.add(aElem + bElem);
-            } else {
-                combined.add(aElem - bElem);
-            }
-        }
-        MatrixObj m = new MatrixObj(a.rows(), a.cols(), combined);
+        double sign = operands[1].equals("+") ? 1 : -1;
+        MatrixObj m = add(a, b, sign);
         doPrint(m);
         if (operands.length > 3) {
-            _matrices.put(operands[operands.length - 1], m);
+            store(operands[operands.length - 1], m);
         }
 
     }
 
-    /** Saves matrix input by user. */
-    void doSave(String[] operands) {
-        double r = Double.parseDouble(operands[1]);
-        double c = Double.parseDouble(operands[3]);
-        if (operands.length - (r * c) != 6) {
-            throw error("bad specification");
+    /** Sum of A and SIGN times B, which have the same dimensions. */
+    MatrixObj add(MatrixObj a, MatrixObj b, double sign) {
+        if (a.isTiled() || b.isTiled()) {
+            return TiledMatrixObj.combine(new MatrixObj[] {a, b},
+                new double[] {1, sign});
+        } else if (a.isOffHeap() || b.isOffHeap()) {
+            return OffHeapMatrixObj.add(a, b, sign);
+        } else if (a.isSparse() || b.isSparse()) {
+            return SparseMatrixObj.add(a, b, sign);
+        } else if (a.isFloat() && b.isFloat()) {
+            return FloatMatrixObj.add((FloatMatrixObj) a,
+                (FloatMatrixObj) b, sign);
         }
-        String name = operands[0];
-        ArrayList<Double> nums = new ArrayList<Double>();
-        for (int i = 5; i < operands.length - 1; i += 1) {
-            nums.add(Double.parseDouble(operands[i]));
+        if (!a.isRowMajor() || !b.isRowMajor()) {
+            return Expression.add(a, b, sign);
+        }
+        double[] aElems = a.elems();
+        double[] bElems = b.elems();
+        double[] combined = new double[aElems.length];
+        if (sign > 0) {
+            Kernels.INSTANCE.add(aElems, bElems, combined, 0,
+                combined.length);
+        } else {
+            Kernels.INSTANCE.subtract(aElems, bElems, combined, 0,
+                combined.length);
         }
-        _matrices.put(name, new MatrixObj((int) r, (int) c, nums));
+        return new MatrixObj(a.rows(), a.cols(), combined);
     }
 
-    /** Exits calculator. */
+    /** Saves matrix input by user, whose elements are LITERAL, as
+     *  floats if f32 follows its dimensions. */
+    void doSave(String[] operands, double[] literal) {
+        int r = Integer.parseInt(operands[1]);
+        int c = Integer.parseInt(operands[3]);
+        if (operands.length > 4) {
+            store(operands[0], FloatMatrixObj.of(r, c, literal));
+        } else {
+            store(operands[0], new MatrixObj(r, c, literal));
+        }
+    }
+
+    /** Ends the session. */
     void doQuit(String[] operands) {
-        System.exit(0);
+        _done = true;
     }
 
     /** Error for invalid commands. */
@@ -205,33 +346,98 @@ class Calculator {
         }
     }
 
+    /** Saves matrix M under NAME, dropping cached results of any
+     *  matrix previously saved under NAME. M is stored dense or
+     *  sparse according to how many of its elements are zero, unless
+     *  it stores floats. Dense matrices are moved off the heap if this
+     *  session stores them there, and otherwise into tiles on disk if
+     *  they are too large for the heap. */
+    void store(String name, MatrixObj m) {
+        m = SparseMatrixObj.choose(m);
+        m = _offHeap ? OffHeapMatrixObj.choose(m) : TiledMatrixObj.choose(m);
+        retain(m);
+        MatrixObj old = _matrices.put(name, m);
+        if (old != m) {
+            _cache.invalidate(old);
+        }
+        release(old);
+    }
+
+    /** Records that M, if held off the heap, is saved under one more
+     *  name. */
+    private static void retain(MatrixObj m) {
+        if (m != null && m.isOffHeap()) {
+            ((OffHeapMatrixObj) m).memory().retain();
+        }
+    }
+
+    /** Records that M, if held off the heap, is saved under one less
+     *  name, freeing its memory once it is saved under none. */
+    private static void release(MatrixObj m) {
+        if (m != null && m.isOffHeap()) {
+            ((OffHeapMatrixObj) m).memory().release();
+        }
+    }
+
+    /** Prints hit and miss counts of the factorization cache. */
+    void doStats(String[] unused) {
+        out().println(_cache.stats());
+    }
+
+    /** Cached LU decomposition of saved matrix M. */
+    DecompositionLU decomposeLU(MatrixObj m) {
+        return _cache.get(m, FactorCache.Kind.LU, DecompositionLU::new);
+    }
+
+    /** Cached LU decomposition of saved matrix M, which is held in
+     *  tiles. */
+    DecompositionTiledLU decomposeTiledLU(MatrixObj m) {
+        return _cache.get(m, FactorCache.Kind.TILED_LU,
+            DecompositionTiledLU::new);
+    }
+
+    /** Cached mixed precision solver for the saved square matrix of
+     *  floats M. */
+    SolverMixed solverMixed(MatrixObj m) {
+        return _cache.get(m, FactorCache.Kind.MIXED_LU, SolverMixed::new);
+    }
+
     /** Renames a matrix assuming that it exists. */
     void doRename(String[] operands) {
         String name = operands[1];
         String newName = operands[2];
         checkExists(name);
-        MatrixObj temp = _matrices.get(name);
-        _matrices.remove(name);
-        _matrices.put(newName, temp);
+        MatrixObj temp = _matrices.remove(name);
+        store(newName, temp);
+        release(temp);
     }
 
     /** Displays a matrix assuming that it exists. */
     void doShow(String[] operands) {
         String name = operands[0];
         checkExists(name);
-        doPrint(_matrices.get(name));
+        doPrint(_matrices.get(name), false);
     }
 
     /** Removes a saved matrix assuming that it exists. */
     void doRemove(String[] operands) {
         String name = operands[1];
         checkExists(name);
-        _matrices.remove(name);
+        MatrixObj old = _matrices.remove(name);
+        _cache.invalidate(old);
+        release(old);
     }
 
-    /** Clears all saved matrices. */
+    /** Clears all saved matrices, freeing the memory of those held off
+     *  the heap. */
     void doReset(String[] operands) {
-        _matrices.clear();
+        synchronized (_matrices) {
+            for (MatrixObj m : _matrices.values()) {
+                release(m);
+            }
+            _matrices.clear();
+        }
+        _cache.clear();
     }
 
     /** A zero matrix. */
@@ -239,11 +445,7 @@ class Calculator {
         double r = Double.parseDouble(operands[1]);
         double c = Double.parseDouble(operands[3]);
         String name = operands[0];
-        ArrayList<Double> nums = new ArrayList<Double>();
-        for (int i = 0; i < r * c; i += 1) {
-            nums.add((double) 0);
-        }
-        _matrices.put(name, new MatrixObj((int) r, (int) c, nums));
+        store(name, SparseMatrixObj.zero((int) r, (int) c));
     }
 
     /** Identity matrix command. */
@@ -251,19 +453,17 @@ class Calculator {
         int dims = Integer.parseInt(operands[1]);
         String name = operands[0];
         MatrixObj id = makeIdentity(dims);
-        _matrices.put(name, id);
+        store(name, id);
     }
 
     /** Creates an identity matrix of specified dimensions. */
     MatrixObj makeIdentity(int dims) {
-        ArrayList<Double> nums = new ArrayList<Double>();
-        int capacity = dims * dims;
-        while (capacity > 0) {
-            nums.add((double) 0);
-            capacity -= 1;
+        if ((long) dims * dims >= SparseMatrixObj.MIN_SPARSE) {
+            return SparseMatrixObj.identity(dims);
         }
-        for (int i = 0; i < nums.size(); i += dims + 1) {
-            nums.set(i, (double) 1);
+        double[] nums = new double[dims * dims];
+        for (int i = 0; i < nums.length; i += dims + 1) {
+            nums[i] = 1;
         }
         return new MatrixObj(dims, dims, nums);
     }
@@ -271,22 +471,19 @@ class Calculator {
     /** Transposes a matrix. */
     void doTranspose(String[] operands) {
         checkExists(operands[0]);
-        ArrayList<Double> transposed = new ArrayList<Double>();
-        MatrixObj matrix = _matrices.get(operands[0]);
-        for (int i = 0; i < matrix.cols(); i += 1) {
-            for (int j = 0; j < matrix.rows(); j += 1) {
-                transposed.add(matrix.matrix().get(j).get(i));
-            }
-        }
-        MatrixObj m = new MatrixObj(matrix.cols(), matrix.rows(),
-            transposed);
+        MatrixObj m = transpose(_matrices.get(operands[0]));
         doPrint(m);
         if (operands.length > 3) {
             String name = operands[operands.length - 1];
-            _matrices.put(name, m);
+            store(name, m);
         }
     }
 
+    /** Transpose of MATRIX, which shares its storage. */
+    MatrixObj transpose(MatrixObj matrix) {
+        return matrix.transpose();
+    }
+
     /** Computes cross product of two 3-dim vectors. */
     void doCrossProduct(String[] operands) {
         checkExists(operands[0]);
@@ -295,25 +492,20 @@ class Calculator {
         MatrixObj b = _matrices.get(operands[2]);
         if ((a.rows() == 1 || a.cols() == 1)
             && (b.rows() == 1 || b.cols() == 1)) {
-            if (a.elems().size() != b.elems().size()) {
+            if (a.size() != b.size()) {
                 throw error("vectors must be same size for dot product");
             }
-            if (a.elems().size() != 3) {
+            if (a.size() != 3) {
                 throw error("cross product only for 3-dimensional vectors");
             }
-            double i = a.elems().get(1) * b.elems().get(2)
-                - a.elems().get(2) * b.elems().get(1);
-            double j = a.elems().get(0) * b.elems().get(2)
-                - a.elems().get(2) * b.elems().get(0);
-            double k = a.elems().get(0) * b.elems().get(1)
-                - a.elems().get(1) * b.elems().get(0);
-            ArrayList<Double> vec = new ArrayList<>();
-            vec.add(i); vec.add(-j); vec.add(k);
-            MatrixObj m = new MatrixObj(3, 1, vec);
+            double i = a.get(1) * b.get(2) - a.get(2) * b.get(1);
+            double j = a.get(0) * b.get(2) - a.get(2) * b.get(0);
+            double k = a.get(0) * b.get(1) - a.get(1) * b.get(0);
+            MatrixObj m = new MatrixObj(3, 1, new double[] {i, -j, k});
             doPrint(m);
             if (operands.length > 3) {
                 String name = operands[operands.length - 1];
-                _matrices.put(name, m);
+                store(name, m);
             }
         } else {
             throw error("matrices must be vectors for cross product");
@@ -328,19 +520,22 @@ class Calculator {
         MatrixObj b = _matrices.get(operands[2]);
         if ((a.rows() == 1 || a.cols() == 1)
             && (b.rows() == 1 || b.cols() == 1)) {
-            if (a.elems().size() != b.elems().size()) {
+            if (a.size() != b.size()) {
                 throw error("vectors must be same size for dot product");
             }
             double total = 0;
-            for (int i = 0; i < a.elems().size(); i += 1) {
-                total += a.elems().get(i) * b.elems().get(i);
+            if (a.isSparse() || b.isSparse()) {
+                total = SparseMatrixObj.dot(a, b);
+            } else {
+                total = Kernels.INSTANCE.dot(a.elems(), b.elems(), 0,
+                    a.size());
             }
             String d = Double.toString(total);
             int index = d.indexOf(".");
             if (d.charAt(index + 1) == '0') {
-                System.out.println((int) total);
+                out().println((int) total);
             } else {
-                System.out.println(total);
+                out().println(total);
             }
         } else {
             throw error("matrices must be vectors for dot product");
@@ -353,63 +548,62 @@ class Calculator {
         MatrixObj m = _matrices.get(operands[1]);
         if (!m.isSquare()) {
             throw error("determinant only for square matrices");
+        } else if (_exact) {
+            out().println(ReducerBareiss.determinant(m));
+            return;
         }
-        double total = determinant(m);
+        double total = _cache.get(m, FactorCache.Kind.DETERMINANT,
+            x -> determinant(x, x.isTiled() ? decomposeTiledLU(x).det()
+                : decomposeLU(x).det()));
         String d = Double.toString(total);
         int index = d.indexOf(".");
         if (d.charAt(index + 1) == '0') {
-            System.out.println((int) total);
+            out().println((int) total);
         } else {
-            System.out.println(total);
+            out().println(total);
         }
     }
 
-    /** Calculation of a determinant. */
+    /** Calculation of a determinant. The determinant of a matrix of
+     *  whole numbers is a whole number, so it is rounded to undo the
+     *  rounding error of the decomposition. */
     double determinant(MatrixObj m) {
-        if (m.rows() == 1) {
-            return m.elems().get(0);
-        } else if (m.rows() == 2) {
-            return m.allRows()[0][0] * m.allRows()[1][1]
-                - m.allRows()[0][1] * m.allRows()[1][0];
-        }
-        double total = 0;
-        for (int i = 0; i < m.rows(); i += 1) {
-            ArrayList<Double> a = new ArrayList<>();
-            for (int j = 0; j < m.rows(); j += 1) {
-                for (int k = 0; k < m.rows(); k += 1) {
-                    if (j != 0 && k != i) {
-                        a.add(m.allRows()[j][k]);
-                    }
-                }
-            }
-            total += Math.pow(-1, i) * m.allRows()[0][i]
-                * determinant(new MatrixObj(m.rows() - 1,
-                    m.rows() - 1, a));
+        return determinant(m, new DecompositionLU(m).det());
+    }
+
+    /** Determinant of M given DET, the determinant of its LU
+     *  decomposition. */
+    double determinant(MatrixObj m, double det) {
+        if (m.isIntegral() && Math.abs(det) < 1L << 53) {
+            det = Math.rint(det);
         }
-        return total;
+        return det;
     }
 
-    /** Cofactor expansion matrix. */
+    /** Cofactor expansion matrix, which is the transpose of the
+     *  adjugate. A singular matrix is decomposed again with complete
+     *  pivoting so the adjugate can be built from its null vectors.
+     *  Cofactors of a matrix of whole numbers are whole numbers, so
+     *  they are rounded to undo the rounding error. */
     MatrixObj cofactor(MatrixObj m) {
-        ArrayList<Double> dets = new ArrayList<>();
-        for (int i = 0; i < m.rows(); i += 1) {
-            for (int j = 0; j < m.rows(); j += 1) {
-                ArrayList<Double> entries = new ArrayList<>();
-                for (int k = 0; k < m.rows(); k += 1) {
-                    if (i != k) {
-                        for (int l = 0; l < m.rows(); l += 1) {
-                            if (j != l) {
-                                entries.add(m.allRows()[k][l]);
-                            }
-                        }
-                    }
+        DecompositionLU lu = decomposeLU(m);
+        if (lu.isSingular()) {
+            lu = new DecompositionLU(m, true);
+        }
+        MatrixObj adj = lu.adjugate();
+        boolean integral = m.isIntegral();
+        int n = m.rows();
+        double[] cofactors = new double[n * n];
+        for (int i = 0; i < n; i += 1) {
+            for (int j = 0; j < n; j += 1) {
+                double c = adj.get(j, i);
+                if (integral && Math.abs(c) < 1L << 53) {
+                    c = Math.rint(c);
                 }
-                MatrixObj detMat = new MatrixObj(m.rows() - 1,
-                    m.rows() - 1, entries);
-                dets.add(Math.pow(-1, i + j) * determinant(detMat));
+                cofactors[i * n + j] = c;
             }
         }
-        return new MatrixObj(m.rows(), m.cols(), dets);
+        return new MatrixObj(n, n, cofactors);
     }
 
     /** Command for computing cofactor expansion matrix. */
@@ -423,18 +617,33 @@ class Calculator {
         doPrint(m);
         if (operands.length > 2) {
             String name = operands[operands.length - 1];
-            _matrices.put(name, m);
+            store(name, m);
         }
     }
 
     /** Command for computing RREF of matrix with steps displayed. */
     void doRREF(String[] operands) {
         checkExists(operands[1]);
-        MatrixObj m
-            = ReducerRREF.printRREF(_matrices.get(operands[1]));
+        if (_exact) {
+            Rational[][] rref = ReducerBareiss.rref(
+                _matrices.get(operands[1]));
+            MatrixRenderer.print(rref, out());
+            if (operands.length > 2) {
+                store(operands[3], ReducerBareiss.toMatrix(rref));
+            }
+            return;
+        }
+        MatrixObj a = _matrices.get(operands[1]);
+        if ((long) a.rows() * a.cols() > SparseMatrixObj.MAX_DENSE) {
+            throw error("matrix too large to store densely");
+        }
+        ReducerRREF.Trace trace = _cache.get(a, FactorCache.Kind.RREF,
+            ReducerRREF::traceRREF);
+        out().print(trace);
+        MatrixObj m = trace.result();
         if (operands.length > 2) {
             String name = operands[3];
-            _matrices.put(name, m);
+            store(name, m);
         }
     }
 
@@ -444,54 +653,290 @@ class Calculator {
         MatrixObj m = _matrices.get(operands[1]);
         if (!m.isSquare()) {
             throw error("only square matrices have inverses");
-        } else if (determinant(m) == 0) {
-            throw error("determinant of 0 means no inverse");
-        }
-        MatrixObj id = makeIdentity(m.rows());
-        ArrayList<Double> invArr = new ArrayList<>();
-        for (int i = 0; i < m.rows(); i += 1) {
-            invArr.addAll(m.matrix().get(i));
-            invArr.addAll(id.matrix().get(i));
-        }
-        MatrixObj inverse = new MatrixObj(m.rows(), m.rows() * 2,
-            invArr);
-        inverse = ReducerRREF.rref(inverse);
-        ArrayList<Double> rightHalf = new ArrayList<>();
-        for (List<Double> lst : inverse.matrix()) {
-            for (int i = lst.size() / 2; i < lst.size(); i += 1) {
-                rightHalf.add(lst.get(i));
+        } else if (_exact) {
+            Rational[][] inverse = ReducerBareiss.inverse(m);
+            MatrixRenderer.print(inverse, out());
+            if (operands.length > 2) {
+                store(operands[operands.length - 1],
+                    ReducerBareiss.toMatrix(inverse));
             }
+            return;
+        } else if (decomposeLU(m).isSingular()) {
+            throw error("determinant of 0 means no inverse");
         }
-        inverse = new MatrixObj(m.rows(), m.rows(), rightHalf);
+        MatrixObj inverse = _cache.get(m, FactorCache.Kind.INVERSE,
+            this::inverse);
         doPrint(inverse);
         if (operands.length > 2) {
             String name = operands[operands.length - 1];
-            _matrices.put(name, inverse);
+            store(name, inverse);
         }
     }
 
+    /** Inverse of the nonsingular square matrix M. */
+    MatrixObj inverse(MatrixObj m) {
+        int n = m.rows();
+        double[] invArr = new double[n * n * 2];
+        for (int i = 0; i < n; i += 1) {
+            for (int j = 0; j < n; j += 1) {
+                invArr[i * 2 * n + j] = m.get(i, j);
+            }
+            invArr[i * 2 * n + n + i] = 1;
+        }
+        MatrixObj inverse = new MatrixObj(n, n * 2, invArr);
+        double[] reduced = ReducerRREF.rref(inverse).elems();
+        double[] result = new double[n * n];
+        for (int i = 0; i < n; i += 1) {
+            System.arraycopy(reduced, i * 2 * n + n, result, i * n, n);
+        }
+        return new MatrixObj(n, n, result);
+    }
+
+    /** Command for computing the LU decomposition P * M = L * U. */
+    void doLU(String[] operands) {
+        checkExists(operands[1]);
+        MatrixObj m = _matrices.get(operands[1]);
+        if (!m.isSquare()) {
+            throw error("LU decomposition only for square matrices");
+        } else if (m.isTiled()) {
+            DecompositionTiledLU lu = decomposeTiledLU(m);
+            printFactors(operands, new String[] {"L", "U", "P"},
+                lu.lower(), lu.upper(), lu.permutation());
+            return;
+        }
+        DecompositionLU lu = decomposeLU(m);
+        printFactors(operands, new String[] {"L", "U", "P"},
+            lu.lower(), lu.upper(), lu.permutation());
+    }
+
+    /** Command for computing the QR decomposition M = Q * R. */
+    void doQR(String[] operands) {
+        checkExists(operands[1]);
+        DecompositionQR qr = _cache.get(_matrices.get(operands[1]),
+            FactorCache.Kind.QR, DecompositionQR::new);
+        printFactors(operands, new String[] {"Q", "R"}, qr.q(), qr.r());
+    }
+
+    /** Command for computing the eigenvalues D and eigenvectors V of
+     *  M, so that M * V = V * D. */
+    void doEigen(String[] operands) {
+        checkExists(operands[1]);
+        MatrixObj m = _matrices.get(operands[1]);
+        if (!m.isSquare()) {
+            throw error("eigenvalues only for square matrices");
+        }
+        DecompositionEigen eig = _cache.get(m, FactorCache.Kind.EIGEN,
+            DecompositionEigen::new);
+        printFactors(operands, new String[] {"D", "V"}, eig.values(),
+            eig.vectors());
+    }
+
+    /** Command for computing the singular value decomposition
+     *  M = U * S * V^T, truncated to the K largest singular values if
+     *  K is given. */
+    void doSVD(String[] operands) {
+        checkExists(operands[1]);
+        MatrixObj m = _matrices.get(operands[1]);
+        DecompositionSVD svd;
+        if (Command.arrow(operands) > 2) {
+            int k;
+            try {
+                k = Integer.parseInt(operands[2]);
+            } catch (NumberFormatException e) {
+                throw error("number of singular values out of range");
+            }
+            svd = DecompositionSVD.truncated(m, k);
+        } else {
+            svd = _cache.get(m, FactorCache.Kind.SVD,
+                DecompositionSVD::new);
+        }
+        printFactors(operands, new String[] {"U", "S", "V"}, svd.u(),
+            svd.s(), svd.v());
+    }
+
+    /** Prints the FACTORS of a decomposition under their LABELS, and
+     *  saves them to the names after the '->' in OPERANDS if there
+     *  are any. */
+    private void printFactors(String[] operands, String[] labels,
+                              MatrixObj... factors) {
+        for (int i = 0; i < factors.length; i += 1) {
+            out().println(labels[i] + ":");
+            doPrint(factors[i]);
+            out().println("");
+        }
+        int arrow = Command.arrow(operands);
+        if (arrow < operands.length) {
+            String[] names = Command.targets(operands, arrow);
+            if (names.length != factors.length) {
+                throw error(operands[0] + " saves to exactly "
+                    + factors.length + " matrices");
+            }
+            for (int i = 0; i < names.length; i += 1) {
+                store(names[i], factors[i]);
+            }
+        }
+    }
+
+    /** Command for the least squares solution X of A * X = B. */
+    void doLeastSquares(String[] operands) {
+        checkExists(operands[1]);
+        checkExists(operands[2]);
+        MatrixObj a = _matrices.get(operands[1]);
+        MatrixObj b = _matrices.get(operands[2]);
+        if (b.rows() != a.rows()) {
+            throw error("bad dimensions for least squares");
+        }
+        MatrixObj x = leastSquares(a, b);
+        doPrint(x);
+        if (operands.length > 3) {
+            store(operands[operands.length - 1], x);
+        }
+    }
+
+    /** The X minimizing the norm of A * X - B for each col of B, from
+     *  a QR decomposition of A. If A has more cols than rows, of the
+     *  solutions of A * X = B the one of least norm is found, from a
+     *  QR decomposition of A^T. */
+    MatrixObj leastSquares(MatrixObj a, MatrixObj b) {
+        if (a.rows() < a.cols()) {
+            return new DecompositionQR(a.transpose()).leastNorm(b);
+        }
+        return _cache.get(a, FactorCache.Kind.QR, DecompositionQR::new)
+            .leastSquares(b);
+    }
+
+    /** Command for solving A * X = B, each col of B giving one
+     *  system. */
+    void doSolve(String[] operands) {
+        checkExists(operands[1]);
+        checkExists(operands[2]);
+        MatrixObj a = _matrices.get(operands[1]);
+        MatrixObj b = _matrices.get(operands[2]);
+        if (!a.isSquare()) {
+            throw error("solve only for square matrices");
+        } else if (b.rows() != a.rows()) {
+            throw error("bad dimensions for solve");
+        }
+        MatrixObj x = solve(a, b);
+        doPrint(x);
+        if (operands.length > 3) {
+            store(operands[operands.length - 1], x);
+        }
+    }
+
+    /** Solution X of A * X = B for the square matrix A. Sparse
+     *  matrices of order at least ITERATIVE_ORDER are solved by
+     *  iteration, with the tolerance and iteration cap of this
+     *  session. Matrices of floats are solved by mixed precision
+     *  iterative refinement, and matrices held in tiles with a cached
+     *  tiled LU decomposition. Others are solved with a cached
+     *  decomposition: Cholesky if A is symmetric and positive
+     *  definite, and LU otherwise. */
+    MatrixObj solve(MatrixObj a, MatrixObj b) {
+        if (a.isTiled()) {
+            return decomposeTiledLU(a).solve(b);
+        } else if (a.isSparse() && a.rows() >= ITERATIVE_ORDER) {
+            return SolverKrylov.solve((SparseMatrixObj) a, b, _tol,
+                _maxIter);
+        } else if (a.isFloat()) {
+            return solverMixed(a).solve(b);
+        }
+        if (a.isSymmetric()) {
+            DecompositionCholesky chol = _cache.get(a,
+                FactorCache.Kind.CHOLESKY, DecompositionCholesky::new);
+            if (chol.isPositiveDefinite()) {
+                return chol.solve(b);
+            }
+        }
+        return decomposeLU(a).solve(b);
+    }
+
+    /** Command for changing a setting of this session. */
+    void doSet(String[] operands) {
+        Consumer<String> setting = _settings.get(operands[1]);
+        if (setting == null) {
+            throw error("no such setting");
+        }
+        try {
+            setting.accept(operands[2]);
+        } catch (NumberFormatException excp) {
+            throw error("bad value for " + operands[1]);
+        }
+    }
+
+    /** Sets the relative residual at which iterative solves stop. */
+    void setTol(String value) {
+        double tol = Double.parseDouble(value);
+        if (!(tol > 0 && tol < 1)) {
+            throw error("tol must be between 0 and 1");
+        }
+        _tol = tol;
+    }
+
+    /** Sets the largest number of iterations of an iterative solve. */
+    void setMaxIter(String value) {
+        int maxIter = Integer.parseInt(value);
+        if (maxIter <= 0) {
+            throw error("maxiter must be positive");
+        }
+        _maxIter = maxIter;
+    }
+
+    /** Sets whether det, rref and inverse are computed exactly, from
+     *  VALUE on or off. */
+    void setExact(String value) {
+        if (!value.equals("on") && !value.equals("off")) {
+            throw error("exact must be on or off");
+        }
+        _exact = value.equals("on");
+    }
+
+    /** Sets where dense matrices saved from now on are held to VALUE,
+     *  which is heap or offheap. */
+    void setStorage(String value) {
+        if (!value.equals("heap") && !value.equals("offheap")) {
+            throw error("storage must be heap or offheap");
+        }
+        _offHeap = value.equals("offheap");
+    }
+
+    /** Evaluates an expression, saving the result. */
+    void doExpression(String[] operands) {
+        String[] assignment = Command.assignment(operands, 0);
+        MatrixObj m = Expression.parse(assignment[1], _matrices)
+            .evaluate();
+        doPrint(m);
+        store(assignment[0], m);
+    }
+
+    /** Prints the steps taken to evaluate an expression. */
+    void doExplain(String[] operands) {
+        String[] assignment = Command.assignment(operands, 1);
+        String name = assignment[0] == null ? "result" : assignment[0];
+        out().print(Expression.parse(assignment[1], _matrices)
+            .explain(name));
+    }
+
+    /** Writes a saved matrix to a binary matrix file. */
+    void doStoreFile(String[] operands) {
+        checkExists(operands[1]);
+        MatrixFile.write(_matrices.get(operands[1]), operands[2]);
+    }
+
+    /** Saves the matrix read from a binary matrix file. */
+    void doOpenFile(String[] operands) {
+        store(operands[1], MatrixFile.read(operands[2], _offHeap));
+    }
+
     /** Loads commands from a file. */
     void doLoad(String[] operands) {
+        ReaderSource reader;
         try {
-            Scanner reader = new Scanner(new File(operands[1]));
-            while (reader.hasNextLine()) {
-                String line = reader.nextLine();
-                if (line == null) {
-                    break;
-                }
-                if (line.equals("")) {
-                    continue;
-                }
-                try {
-                    Command cmnd = Command.parseCommand(line);
-                    _commands.get(cmnd.commandType()).accept(cmnd.operands());
-                } catch (MatrixException excp) {
-                    System.out.println(excp.getMessage());
-                }
-            }
+            reader = new ReaderSource(new FileReader(operands[1]));
         } catch (IOException e) {
             throw error("Cannot open file this file");
         }
+        run(reader);
     }
 
     /** All existing commands. */
@@ -499,7 +944,6 @@ class Calculator {
         = new HashMap<>();
     {
         _commands.put(ADD, this::doAdd);
-        _commands.put(SAVE, this::doSave);
         _commands.put(DISPLAY, this::doDisplay);
         _commands.put(INVERSE, this::doInverse);
         _commands.put(HELP, this::doHelp);
@@ -520,10 +964,49 @@ class Calculator {
         _commands.put(DETERMINANT, this::doDeterminant);
         _commands.put(RREF, this::doRREF);
         _commands.put(LOAD, this::doLoad);
+        _commands.put(LU, this::doLU);
+        _commands.put(EXPRESSION, this::doExpression);
+        _commands.put(EXPLAIN, this::doExplain);
+        _commands.put(STATS, this::doStats);
+        _commands.put(STOREFILE, this::doStoreFile);
+        _commands.put(OPENFILE, this::doOpenFile);
+        _commands.put(SOLVE, this::doSolve);
+        _commands.put(SET, this::doSet);
+        _commands.put(QR, this::doQR);
+        _commands.put(LSTSQ, this::doLeastSquares);
+        _commands.put(EIG, this::doEigen);
+        _commands.put(SVD, this::doSVD);
+    }
+
+    /** All settings changed by set, by name. */
+    private final HashMap<String, Consumer<String>> _settings
+        = new HashMap<>();
+    {
+        _settings.put("tol", this::setTol);
+        _settings.put("maxiter", this::setMaxIter);
+        _settings.put("exact", this::setExact);
+        _settings.put("storage", this::setStorage);
     }
 
-    /** HashMap of saved matrices. */
-    private HashMap<String, MatrixObj> _matrices =
-        new HashMap<>();
+    /** Relative residual at which iterative solves stop. */
+    private volatile double _tol = SolverKrylov.DEFAULT_TOL;
+
+    /** Largest number of iterations of an iterative solve. */
+    private volatile int _maxIter = SolverKrylov.DEFAULT_MAX_ITER;
+
+    /** Whether det, rref and inverse are computed exactly. */
+    private volatile boolean _exact;
+
+    /** Whether dense matrices are saved off the heap. */
+    private volatile boolean _offHeap;
+
+    /** HashMap of saved matrices. Commands of a loaded script may
+     *  save and read matrices from several threads at once. */
+    private final Map<String, MatrixObj> _matrices =
+        Collections.synchronizedMap(new HashMap<>());
+
+    /** Cached factorizations of saved matrices. */
+    private final FactorCache _cache =
+        new FactorCache(FactorCache.DEFAULT_CAPACITY);
 
 }
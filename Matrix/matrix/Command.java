@@ -1,8 +1,11 @@
 package matrix;
 
+import java.util.Arrays;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
+import static matrix.MatrixException.error;
+
 /** All things to do with parsing commands.
  *  @author Christian Choi
  *  Credits for class design to Paul Hilfinger
@@ -15,10 +18,16 @@ class Command {
         MULTIPLY("[-]?\\w+([.]\\d+)?\\s+[*]\\s+[-]?\\w+([.]\\d+)?(\\s+?[-][>]\\s+\\w+)?"),
         TRANSPOSE("\\w+\\s+\\^\\s+T(\\s+?[-][>]\\s+?\\w+)?"),
         INVERSE("inverse\\s+\\w+(\\s+?[-][>]\\s+?\\w+)?"),
+        SOLVE("solve\\s+\\w+\\s+\\w+(\\s+?[-][>]\\s+?\\w+)?"),
+        QR("qr\\s+\\w+(\\s+?[-][>]\\s+?\\w+\\s*,\\s*\\w+)?"),
+        LSTSQ("lstsq\\s+\\w+\\s+\\w+(\\s+?[-][>]\\s+?\\w+)?"),
+        EIG("eig\\s+\\w+(\\s+?[-][>]\\s+?\\w+\\s*,\\s*\\w+)?"),
+        SVD("svd\\s+\\w+(\\s+\\d+)?"
+            + "(\\s+?[-][>]\\s+?\\w+\\s*,\\s*\\w+\\s*,\\s*\\w+)?"),
         DOTPRODUCT("\\w+\\s+dot\\s+\\w+"),
         CROSSPRODUCT("\\w+\\s+x\\s+\\w+(\\s+?[-][>]\\s+?\\w+)?"),
         COFACTOR("cofactor\\s+\\w+(\\s+?[-][>]\\s+?\\w+)?"),
-        SAVE("\\w+\\s+\\d+\\s+[x]\\s+\\d+\\s+[{]\\s+([-]?\\d+([.]\\d+)?\\s+)+[}]"),
+        SAVE("\\w+\\s+\\d+\\s+[x]\\s+\\d+(\\s+f32)?"),
         ZERO("\\w+\\s+\\d+\\s+[x]\\s+\\d+\\s+zero"),
         DETERMINANT("det\\s+\\w+"),
         RREF("rref\\s+\\w+(\\s+?[-][>]\\s+?\\w+)?"),
@@ -30,7 +39,14 @@ class Command {
         RESET("reset"),
         HELP("help"),
         DISPLAY("display"),
+        STATS("stats"),
         LOAD("load\\s+((.)+)"),
+        STOREFILE("store\\s+\\w+\\s+(.+)"),
+        OPENFILE("open\\s+\\w+\\s+(.+)"),
+        EXPRESSION("\\w+\\s*=\\s*(.+)"),
+        EXPLAIN("explain\\s+(.+)"),
+        LU("lu\\s+\\w+(\\s+?[-][>]\\s+?\\w+\\s*,\\s*\\w+\\s*,\\s*\\w+)?"),
+        SET("set\\s+\\w+\\s+[-+.\\w]+"),
         ERROR(".*"),
         EOF;
 
@@ -56,7 +72,14 @@ class Command {
 
     /** A new Command of type TYPE with OPERANDS as its operands. */
     Command(Type type, String... operands) {
+        this(type, null, operands);
+    }
+
+    /** A new Command of type TYPE with OPERANDS as its operands and
+     *  the elements LITERAL of a matrix. */
+    Command(Type type, double[] literal, String... operands) {
         _type = type;
+        _literal = literal;
         _operands = operands;
     }
 
@@ -70,9 +93,267 @@ class Command {
         return _operands;
     }
 
+    /** Names of the comma separated matrices after the '->' at
+     *  index ARROW of OPERANDS. */
+    static String[] targets(String[] operands, int arrow) {
+        String names = "";
+        for (int i = arrow + 1; i < operands.length; i += 1) {
+            names += operands[i];
+        }
+        return names.split(",");
+    }
+
+    /** Index of the '->' in OPERANDS, or their length if there is
+     *  none. */
+    static int arrow(String[] operands) {
+        int i = 0;
+        while (i < operands.length && !operands[i].equals("->")) {
+            i += 1;
+        }
+        return i;
+    }
+
+    /** Names of the saved matrices this command reads. */
+    String[] reads() {
+        String[] op = _operands;
+        switch (_type) {
+        case ADD:
+        case MULTIPLY:
+        case DOTPRODUCT:
+        case CROSSPRODUCT:
+            return new String[] {op[0], op[2]};
+        case TRANSPOSE:
+        case SHOW:
+            return new String[] {op[0]};
+        case INVERSE:
+        case COFACTOR:
+        case RREF:
+        case DETERMINANT:
+        case LU:
+        case QR:
+        case EIG:
+        case SVD:
+        case RENAME:
+            return new String[] {op[1]};
+        case SOLVE:
+        case LSTSQ:
+            return new String[] {op[1], op[2]};
+        case EXPRESSION:
+            return Expression.names(assignment(op, 0)[1])
+                .toArray(new String[0]);
+        case EXPLAIN:
+            return Expression.names(assignment(op, 1)[1])
+                .toArray(new String[0]);
+        default:
+            return new String[0];
+        }
+    }
+
+    /** Splits the text of the operands OP from index START, which
+     *  give an expression optionally preceded by NAME =, into NAME and
+     *  the expression. NAME is null if it is not given. */
+    static String[] assignment(String[] op, int start) {
+        String text = String.join(" ",
+            Arrays.copyOfRange(op, start, op.length));
+        int eq = text.indexOf('=');
+        if (eq < 0) {
+            return new String[] {null, text};
+        }
+        return new String[] {text.substring(0, eq).trim(),
+                             text.substring(eq + 1)};
+    }
+
+    /** Names of the matrices this command saves or removes. */
+    String[] writes() {
+        String[] op = _operands;
+        switch (_type) {
+        case ADD:
+        case MULTIPLY:
+        case TRANSPOSE:
+        case CROSSPRODUCT:
+        case SOLVE:
+        case LSTSQ:
+            return op.length > 3 ? new String[] {op[op.length - 1]}
+                : new String[0];
+        case INVERSE:
+        case COFACTOR:
+        case RREF:
+            return op.length > 2 ? new String[] {op[op.length - 1]}
+                : new String[0];
+        case LU:
+        case QR:
+        case EIG:
+        case SVD:
+            return arrow(op) < op.length ? targets(op, arrow(op))
+                : new String[0];
+        case SAVE:
+        case ZERO:
+        case IDENTITY:
+            return new String[] {op[0]};
+        case REMOVE:
+            return new String[] {op[1]};
+        case EXPRESSION:
+            return new String[] {assignment(op, 0)[0]};
+        case RENAME:
+            return new String[] {op[1], op[2]};
+        default:
+            return new String[0];
+        }
+    }
+
+    /** Whether this command depends on the whole state of the
+     *  calculator or of files, so that it must run after every
+     *  command before it and before every command after it. */
+    boolean isBarrier() {
+        switch (_type) {
+        case DISPLAY:
+        case STATS:
+        case RESET:
+        case LOAD:
+        case STOREFILE:
+        case OPENFILE:
+        case SET:
+        case QUIT:
+        case EOF:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** Returns the elements given by a SAVE command, row by row. */
+    double[] literal() {
+        return _literal;
+    }
+
+    /** Read the next command from INPUT, printing PROMPT before each
+     *  line and skipping blank lines. Everything up to the opening
+     *  brace of a SAVE command is matched against its pattern, and
+     *  the elements that follow are parsed as they are read, so the
+     *  line of a large matrix is never held in memory as a whole. */
+    static Command readCommand(ReaderSource input, String prompt) {
+        while (true) {
+            input.prompt(prompt);
+            int c = skipBlanks(input);
+            if (c == -1) {
+                return new Command(Type.EOF);
+            } else if (!ReaderSource.isNewline(c)) {
+                break;
+            }
+            input.endLine(input.read());
+        }
+        StringBuilder line = new StringBuilder();
+        int c = input.read();
+        while (c != -1 && !ReaderSource.isNewline(c)) {
+            if (c == '{') {
+                String header = line.toString().trim().toLowerCase();
+                if (Type.SAVE._pattern.matcher(header).matches()) {
+                    return readLiteral(input, header.split("\\s+"));
+                }
+            }
+            line.append((char) c);
+            c = input.read();
+        }
+        input.endLine(c);
+        return parseCommand(line.toString());
+    }
+
+    /** Reads the elements of a SAVE command with operands HEADER from
+     *  INPUT, which is just past the opening brace, through the end
+     *  of the line. */
+    private static Command readLiteral(ReaderSource input,
+                                       String[] header) {
+        double size = Double.parseDouble(header[1])
+            * Double.parseDouble(header[3]);
+        double[] literal = new double[(int) Math.min(size, LITERAL_CHUNK)];
+        int count = 0;
+        StringBuilder token = new StringBuilder();
+        while (skipBlanks(input) != '}') {
+            double value = readNumber(input, token);
+            if (Double.isNaN(value)) {
+                input.skipLine();
+                return new Command(Type.ERROR);
+            }
+            if (count < size) {
+                if (count == literal.length) {
+                    literal = Arrays.copyOf(literal,
+                        (int) Math.min(size, 2.0 * count));
+                }
+                literal[count] = value;
+            }
+            count += 1;
+        }
+        input.read();
+        int c = skipBlanks(input);
+        if (count == 0 || !(c == -1 || ReaderSource.isNewline(c))) {
+            input.skipLine();
+            return new Command(Type.ERROR);
+        }
+        input.endLine(input.read());
+        if (count != size) {
+            throw error("bad specification");
+        }
+        return new Command(Type.SAVE, literal, header);
+    }
+
+    /** Reads a number from INPUT, returning NaN if the next characters
+     *  are not digits, optionally signed and with a fractional part,
+     *  followed by a blank or closing brace. TOKEN holds the
+     *  characters read. */
+    private static double readNumber(ReaderSource input,
+                                     StringBuilder token) {
+        token.setLength(0);
+        boolean negative = input.peek() == '-';
+        if (negative) {
+            token.append((char) input.read());
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        int c = input.peek();
+        while (true) {
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits += 1;
+                if (fraction >= 0) {
+                    fraction += 1;
+                }
+            } else if (c == '.' && digits > 0 && fraction < 0) {
+                fraction = 0;
+            } else {
+                break;
+            }
+            token.append((char) input.read());
+            c = input.peek();
+        }
+        if (digits == 0 || fraction == 0 || !(c <= ' ' || c == '}')) {
+            return Double.NaN;
+        }
+        if (digits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(token.toString());
+        }
+        double value = mantissa;
+        if (fraction > 0) {
+            value /= POWERS_OF_TEN[fraction];
+        }
+        return negative ? -value : value;
+    }
+
+    /** Consumes blanks other than line terminators from INPUT,
+     *  returning the next character. */
+    private static int skipBlanks(ReaderSource input) {
+        int c = input.peek();
+        while (c != -1 && c <= ' ' && !ReaderSource.isNewline(c)) {
+            input.read();
+            c = input.peek();
+        }
+        return c;
+    }
+
     /** Parse COMMAND, returning the command and its operands.
      *  COMMAND is assumed to be trimmed of all leading and
-     *  trailing whitespace.  */
+     *  trailing whitespace. SAVE commands are only recognized by
+     *  readCommand.  */
     static Command parseCommand(String command) {
         if (command == null || command.equals("<EOF>")) {
             return new Command(Type.EOF);
@@ -80,6 +361,9 @@ class Command {
         command = command.toLowerCase();
         command = command.trim();
         for (Type type : Type.values()) {
+            if (type == Type.SAVE) {
+                continue;
+            }
             Matcher mat = type._pattern.matcher(command);
             if (mat.matches()) {
                 String[] operands = command.split("\\s+");
@@ -94,4 +378,18 @@ class Command {
     private final Type _type;
     /** Command arguments. */
     private final String[] _operands;
+    /** Elements given by a SAVE command. */
+    private final double[] _literal;
+
+    /** Number of elements for which room is first made when reading
+     *  a SAVE command. */
+    private static final int LITERAL_CHUNK = 1 << 12;
+
+    /** Powers of ten that are exact doubles. A number with fewer
+     *  digits than this has an exact mantissa, so dividing it by one
+     *  of these rounds the same way as parsing it. */
+    private static final double[] POWERS_OF_TEN = {
+        1E0, 1E1, 1E2, 1E3, 1E4, 1E5, 1E6, 1E7,
+        1E8, 1E9, 1E10, 1E11, 1E12, 1E13, 1E14, 1E15
+    };
 }
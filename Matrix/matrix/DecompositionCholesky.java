@@ -0,0 +1,117 @@
+package matrix;
+
+import static matrix.MatrixException.error;
+
+/** Cholesky decomposition A = L * L^T of a symmetric positive
+ *  definite matrix A, with L lower triangular. It takes half the work
+ *  of an LU decomposition and needs no pivoting. A matrix which turns
+ *  out not to be positive definite is left undecomposed.
+ *  @author Christian Choi */
+
+class DecompositionCholesky {
+
+    /** Order of the decomposed matrix. */
+    private final int _n;
+
+    /** L on and below the diagonal, row-major, or null if the matrix
+     *  is not positive definite. */
+    private final double[] _l;
+
+    /** Decomposes the symmetric square matrix M, of which only the
+     *  lower triangle is read. */
+    DecompositionCholesky(MatrixObj m) {
+        _n = m.rows();
+        int n = _n;
+        double[] l = m.toArray();
+        double largest = 0;
+        for (int i = 0; i < n; i += 1) {
+            largest = Math.max(largest, Math.abs(l[i * n + i]));
+        }
+        double tol = DecompositionLU.SINGULAR_TOL * largest;
+        for (int j = 0; j < n && l != null; j += 1) {
+            int rowJ = j * n;
+            double d = l[rowJ + j];
+            for (int k = 0; k < j; k += 1) {
+                d -= l[rowJ + k] * l[rowJ + k];
+            }
+            if (!(d > tol)) {
+                l = null;
+                break;
+            }
+            double pivot = Math.sqrt(d);
+            l[rowJ + j] = pivot;
+            for (int i = j + 1; i < n; i += 1) {
+                int rowI = i * n;
+                double total = l[rowI + j];
+                for (int k = 0; k < j; k += 1) {
+                    total -= l[rowI + k] * l[rowJ + k];
+                }
+                l[rowI + j] = total / pivot;
+            }
+        }
+        _l = l;
+    }
+
+    /** Whether the decomposed matrix is positive definite, so that it
+     *  could be decomposed. */
+    boolean isPositiveDefinite() {
+        return _l != null;
+    }
+
+    /** The lower triangular factor L. */
+    MatrixObj lower() {
+        if (_l == null) {
+            throw error("matrix is not positive definite");
+        }
+        int n = _n;
+        double[] l = new double[n * n];
+        for (int i = 0; i < n; i += 1) {
+            System.arraycopy(_l, i * n, l, i * n, i + 1);
+        }
+        return new MatrixObj(n, n, l);
+    }
+
+    /** Returns X solving A * X = B for the N x K matrix B. */
+    MatrixObj solve(MatrixObj b) {
+        if (b.rows() != _n) {
+            throw error("bad dimensions for solve");
+        }
+        if (_l == null) {
+            throw error("matrix is not positive definite");
+        }
+        int n = _n;
+        int k = b.cols();
+        double[] l = _l;
+        double[] x = b.toArray();
+        for (int i = 0; i < n; i += 1) {
+            for (int p = 0; p < i; p += 1) {
+                double f = l[i * n + p];
+                if (f != 0) {
+                    for (int j = 0; j < k; j += 1) {
+                        x[i * k + j] -= f * x[p * k + j];
+                    }
+                }
+            }
+            double d = l[i * n + i];
+            for (int j = 0; j < k; j += 1) {
+                x[i * k + j] /= d;
+            }
+        }
+        for (int i = n - 1; i >= 0; i -= 1) {
+            double d = l[i * n + i];
+            for (int j = 0; j < k; j += 1) {
+                x[i * k + j] /= d;
+            }
+            for (int p = 0; p < i; p += 1) {
+                double f = l[i * n + p];
+                if (f != 0) {
+                    for (int j = 0; j < k; j += 1) {
+                        x[p * k + j] -= f * x[i * k + j];
+                    }
+                }
+            }
+        }
+        return new MatrixObj(n, k, x);
+    }
+
+}
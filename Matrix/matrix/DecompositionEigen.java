@@ -0,0 +1,779 @@
+package matrix;
+
+import static matrix.MatrixException.error;
+
+/** Eigenvalues and eigenvectors of a square matrix A, so that
+ *  A * V = V * D. A symmetric matrix is reduced to tridiagonal form
+ *  by Householder reflections and then diagonalized by implicit QL
+ *  iteration, giving a diagonal D of eigenvalues in increasing order
+ *  and orthonormal V. Any other matrix is reduced to upper
+ *  Hessenberg form and then to real Schur form by shifted double QR
+ *  steps. Its D is block diagonal, with a real eigenvalue in each
+ *  1 x 1 block and each complex pair a + bi, a - bi in a 2 x 2 block
+ *  with rows a b and -b a, and the two cols of V for a pair hold the
+ *  real and imaginary parts of the eigenvector of a + bi. Each
+ *  eigenvector has unit length. Adapted from the EISPACK routines
+ *  tred2, tql2, orthes and hqr2.
+ *  @author Christian Choi */
+
+class DecompositionEigen {
+
+    /** Largest number of QR steps spent finding each eigenvalue. */
+    private static final int MAX_STEPS = 100;
+
+    /** Relative machine precision. */
+    private static final double EPS = Math.ulp(1.0);
+
+    /** Order of the decomposed matrix. */
+    private final int _n;
+
+    /** Whether the decomposed matrix is symmetric. */
+    private final boolean _symmetric;
+
+    /** Real and imaginary parts of the eigenvalues. */
+    private final double[] _d, _e;
+
+    /** Eigenvectors, as rows. */
+    private final double[][] _v;
+
+    /** Hessenberg form of a matrix which is not symmetric. */
+    private double[][] _h;
+
+    /** Decomposes the square matrix A. */
+    DecompositionEigen(MatrixObj a) {
+        if (!a.isSquare()) {
+            throw error("eigenvalues only for square matrices");
+        } else if ((long) a.rows() * a.rows() > SparseMatrixObj.MAX_DENSE) {
+            throw error("matrix too large to store densely");
+        }
+        _n = a.rows();
+        _symmetric = a.isSymmetric();
+        _d = new double[_n];
+        _e = new double[_n];
+        _v = a.rowsCopy();
+        if (_n == 0) {
+            return;
+        } else if (_symmetric) {
+            tridiagonalize();
+            diagonalize();
+        } else {
+            _h = _v.clone();
+            for (int i = 0; i < _n; i += 1) {
+                _h[i] = _v[i].clone();
+            }
+            hessenberg();
+            schur();
+            normalize();
+        }
+    }
+
+    /** Whether every eigenvalue is real. */
+    boolean isReal() {
+        for (double e : _e) {
+            if (e != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The block diagonal matrix D of eigenvalues. */
+    MatrixObj values() {
+        int n = _n;
+        double[] d = new double[n * n];
+        for (int i = 0; i < n; i += 1) {
+            d[i * n + i] = _d[i];
+            if (_e[i] > 0) {
+                d[i * n + i + 1] = _e[i];
+            } else if (_e[i] < 0) {
+                d[i * n + i - 1] = _e[i];
+            }
+        }
+        return new MatrixObj(n, n, d);
+    }
+
+    /** The matrix V of eigenvectors. */
+    MatrixObj vectors() {
+        return MatrixObj.fromRows(_v).transpose();
+    }
+
+    /** Reduces the symmetric _v to tridiagonal form, leaving the
+     *  diagonal in _d, the subdiagonal in _e[1..] and the product of
+     *  the reflections in _v. */
+    private void tridiagonalize() {
+        int n = _n;
+        double[][] v = _v;
+        double[] d = _d;
+        double[] e = _e;
+        for (int j = 0; j < n; j += 1) {
+            d[j] = v[n - 1][j];
+        }
+        for (int i = n - 1; i > 0; i -= 1) {
+            double scale = 0;
+            double h = 0;
+            for (int k = 0; k < i; k += 1) {
+                scale += Math.abs(d[k]);
+            }
+            if (scale == 0) {
+                e[i] = d[i - 1];
+                for (int j = 0; j < i; j += 1) {
+                    d[j] = v[i - 1][j];
+                    v[i][j] = 0;
+                    v[j][i] = 0;
+                }
+            } else {
+                for (int k = 0; k < i; k += 1) {
+                    d[k] /= scale;
+                    h += d[k] * d[k];
+                }
+                double f = d[i - 1];
+                double g = Math.sqrt(h);
+                if (f > 0) {
+                    g = -g;
+                }
+                e[i] = scale * g;
+                h -= f * g;
+                d[i - 1] = f - g;
+                for (int j = 0; j < i; j += 1) {
+                    e[j] = 0;
+                }
+                for (int j = 0; j < i; j += 1) {
+                    f = d[j];
+                    v[j][i] = f;
+                    g = e[j] + v[j][j] * f;
+                    for (int k = j + 1; k <= i - 1; k += 1) {
+                        g += v[k][j] * d[k];
+                        e[k] += v[k][j] * f;
+                    }
+                    e[j] = g;
+                }
+                f = 0;
+                for (int j = 0; j < i; j += 1) {
+                    e[j] /= h;
+                    f += e[j] * d[j];
+                }
+                double hh = f / (h + h);
+                for (int j = 0; j < i; j += 1) {
+                    e[j] -= hh * d[j];
+                }
+                for (int j = 0; j < i; j += 1) {
+                    f = d[j];
+                    g = e[j];
+                    for (int k = j; k <= i - 1; k += 1) {
+                        v[k][j] -= f * e[k] + g * d[k];
+                    }
+                    d[j] = v[i - 1][j];
+                    v[i][j] = 0;
+                }
+            }
+            d[i] = h;
+        }
+        for (int i = 0; i < n - 1; i += 1) {
+            v[n - 1][i] = v[i][i];
+            v[i][i] = 1;
+            double h = d[i + 1];
+            if (h != 0) {
+                for (int k = 0; k <= i; k += 1) {
+                    d[k] = v[k][i + 1] / h;
+                }
+                for (int j = 0; j <= i; j += 1) {
+                    double g = 0;
+                    for (int k = 0; k <= i; k += 1) {
+                        g += v[k][i + 1] * v[k][j];
+                    }
+                    for (int k = 0; k <= i; k += 1) {
+                        v[k][j] -= g * d[k];
+                    }
+                }
+            }
+            for (int k = 0; k <= i; k += 1) {
+                v[k][i + 1] = 0;
+            }
+        }
+        for (int j = 0; j < n; j += 1) {
+            d[j] = v[n - 1][j];
+            v[n - 1][j] = 0;
+        }
+        v[n - 1][n - 1] = 1;
+        e[0] = 0;
+    }
+
+    /** Diagonalizes the tridiagonal form left by tridiagonalize by
+     *  implicit QL steps, leaving the eigenvalues in increasing order
+     *  in _d and the eigenvectors as the rows of _v. Eigenvectors are
+     *  kept as rows so that each rotation works on two contiguous
+     *  rows. */
+    private void diagonalize() {
+        int n = _n;
+        double[] d = _d;
+        double[] e = _e;
+        double[][] v = _v;
+        transpose(v);
+        for (int i = 1; i < n; i += 1) {
+            e[i - 1] = e[i];
+        }
+        e[n - 1] = 0;
+        double f = 0;
+        double tst1 = 0;
+        for (int l = 0; l < n; l += 1) {
+            tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+            int m = l;
+            while (m < n && Math.abs(e[m]) > EPS * tst1) {
+                m += 1;
+            }
+            int steps = 0;
+            while (m > l && Math.abs(e[l]) > EPS * tst1) {
+                steps += 1;
+                if (steps > MAX_STEPS) {
+                    throw error("eigenvalues did not converge");
+                }
+                double g = d[l];
+                double p = (d[l + 1] - g) / (2 * e[l]);
+                double r = Math.copySign(Math.hypot(p, 1), p);
+                d[l] = e[l] / (p + r);
+                d[l + 1] = e[l] * (p + r);
+                double dl1 = d[l + 1];
+                double h = g - d[l];
+                for (int i = l + 2; i < n; i += 1) {
+                    d[i] -= h;
+                }
+                f += h;
+                p = d[m];
+                double c = 1;
+                double c2 = c;
+                double c3 = c;
+                double el1 = e[l + 1];
+                double s = 0;
+                double s2 = 0;
+                for (int i = m - 1; i >= l; i -= 1) {
+                    c3 = c2;
+                    c2 = c;
+                    s2 = s;
+                    g = c * e[i];
+                    h = c * p;
+                    r = Math.hypot(p, e[i]);
+                    e[i + 1] = s * r;
+                    s = e[i] / r;
+                    c = p / r;
+                    p = c * d[i] - s * g;
+                    d[i + 1] = h + s * (c * g + s * d[i]);
+                    double[] vi = v[i];
+                    double[] vi1 = v[i + 1];
+                    for (int k = 0; k < n; k += 1) {
+                        h = vi1[k];
+                        vi1[k] = s * vi[k] + c * h;
+                        vi[k] = c * vi[k] - s * h;
+                    }
+                }
+                p = -s * s2 * c3 * el1 * e[l] / dl1;
+                e[l] = s * p;
+                d[l] = c * p;
+            }
+            d[l] += f;
+            e[l] = 0;
+        }
+        for (int i = 0; i < n - 1; i += 1) {
+            int k = i;
+            for (int j = i + 1; j < n; j += 1) {
+                if (d[j] < d[k]) {
+                    k = j;
+                }
+            }
+            if (k != i) {
+                double p = d[k];
+                d[k] = d[i];
+                d[i] = p;
+                double[] temp = v[i];
+                v[i] = v[k];
+                v[k] = temp;
+            }
+        }
+    }
+
+    /** Reduces _h to upper Hessenberg form by Householder
+     *  reflections, accumulating them in _v. */
+    private void hessenberg() {
+        int n = _n;
+        int high = n - 1;
+        double[][] h = _h;
+        double[][] v = _v;
+        double[] ort = new double[n];
+        for (int m = 1; m <= high - 1; m += 1) {
+            double scale = 0;
+            for (int i = m; i <= high; i += 1) {
+                scale += Math.abs(h[i][m - 1]);
+            }
+            if (scale == 0) {
+                continue;
+            }
+            double hh = 0;
+            for (int i = high; i >= m; i -= 1) {
+                ort[i] = h[i][m - 1] / scale;
+                hh += ort[i] * ort[i];
+            }
+            double g = Math.sqrt(hh);
+            if (ort[m] > 0) {
+                g = -g;
+            }
+            hh -= ort[m] * g;
+            ort[m] -= g;
+            for (int j = m; j < n; j += 1) {
+                double f = 0;
+                for (int i = high; i >= m; i -= 1) {
+                    f += ort[i] * h[i][j];
+                }
+                f /= hh;
+                for (int i = m; i <= high; i += 1) {
+                    h[i][j] -= f * ort[i];
+                }
+            }
+            for (int i = 0; i <= high; i += 1) {
+                double f = 0;
+                for (int j = high; j >= m; j -= 1) {
+                    f += ort[j] * h[i][j];
+                }
+                f /= hh;
+                for (int j = m; j <= high; j += 1) {
+                    h[i][j] -= f * ort[j];
+                }
+            }
+            ort[m] *= scale;
+            h[m][m - 1] = scale * g;
+        }
+        for (int i = 0; i < n; i += 1) {
+            for (int j = 0; j < n; j += 1) {
+                v[i][j] = i == j ? 1 : 0;
+            }
+        }
+        for (int m = high - 1; m >= 1; m -= 1) {
+            if (h[m][m - 1] == 0) {
+                continue;
+            }
+            for (int i = m + 1; i <= high; i += 1) {
+                ort[i] = h[i][m - 1];
+            }
+            for (int j = m; j <= high; j += 1) {
+                double g = 0;
+                for (int i = m; i <= high; i += 1) {
+                    g += ort[i] * v[i][j];
+                }
+                g = (g / ort[m]) / h[m][m - 1];
+                for (int i = m; i <= high; i += 1) {
+                    v[i][j] += g * ort[i];
+                }
+            }
+        }
+    }
+
+    /** Reduces the Hessenberg _h to real Schur form by shifted double
+     *  QR steps, leaving the eigenvalues in _d and _e, and then finds
+     *  the eigenvectors by back substitution, leaving them in the rows
+     *  of _v. The transformations are accumulated in the rows of _v
+     *  too, so that each step works on contiguous rows. */
+    private void schur() {
+        int nn = _n;
+        int n = nn - 1;
+        double[][] h = _h;
+        double[][] v = _v;
+        double[] d = _d;
+        double[] e = _e;
+        transpose(v);
+        double exshift = 0;
+        double p = 0;
+        double q = 0;
+        double r = 0;
+        double s = 0;
+        double z = 0;
+        double t;
+        double w;
+        double x;
+        double y;
+        double norm = 0;
+        for (int i = 0; i < nn; i += 1) {
+            for (int j = Math.max(i - 1, 0); j < nn; j += 1) {
+                norm += Math.abs(h[i][j]);
+            }
+        }
+        int iter = 0;
+        while (n >= 0) {
+            int l = n;
+            while (l > 0) {
+                s = Math.abs(h[l - 1][l - 1]) + Math.abs(h[l][l]);
+                if (s == 0) {
+                    s = norm;
+                }
+                if (Math.abs(h[l][l - 1]) < EPS * s) {
+                    break;
+                }
+                l -= 1;
+            }
+            if (l == n) {
+                h[n][n] += exshift;
+                d[n] = h[n][n];
+                e[n] = 0;
+                n -= 1;
+                iter = 0;
+            } else if (l == n - 1) {
+                w = h[n][n - 1] * h[n - 1][n];
+                p = (h[n - 1][n - 1] - h[n][n]) / 2;
+                q = p * p + w;
+                z = Math.sqrt(Math.abs(q));
+                h[n][n] += exshift;
+                h[n - 1][n - 1] += exshift;
+                x = h[n][n];
+                if (q >= 0) {
+                    z = p >= 0 ? p + z : p - z;
+                    d[n - 1] = x + z;
+                    d[n] = d[n - 1];
+                    if (z != 0) {
+                        d[n] = x - w / z;
+                    }
+                    e[n - 1] = 0;
+                    e[n] = 0;
+                    x = h[n][n - 1];
+                    s = Math.abs(x) + Math.abs(z);
+                    p = x / s;
+                    q = z / s;
+                    r = Math.sqrt(p * p + q * q);
+                    p /= r;
+                    q /= r;
+                    for (int j = n - 1; j < nn; j += 1) {
+                        z = h[n - 1][j];
+                        h[n - 1][j] = q * z + p * h[n][j];
+                        h[n][j] = q * h[n][j] - p * z;
+                    }
+                    for (int i = 0; i <= n; i += 1) {
+                        z = h[i][n - 1];
+                        h[i][n - 1] = q * z + p * h[i][n];
+                        h[i][n] = q * h[i][n] - p * z;
+                    }
+                    double[] v0 = v[n - 1];
+                    double[] v1 = v[n];
+                    for (int i = 0; i < nn; i += 1) {
+                        z = v0[i];
+                        v0[i] = q * z + p * v1[i];
+                        v1[i] = q * v1[i] - p * z;
+                    }
+                } else {
+                    d[n - 1] = x + p;
+                    d[n] = x + p;
+                    e[n - 1] = z;
+                    e[n] = -z;
+                }
+                n -= 2;
+                iter = 0;
+            } else {
+                x = h[n][n];
+                y = 0;
+                w = 0;
+                if (l < n) {
+                    y = h[n - 1][n - 1];
+                    w = h[n][n - 1] * h[n - 1][n];
+                }
+                if (iter == 10) {
+                    exshift += x;
+                    for (int i = 0; i <= n; i += 1) {
+                        h[i][i] -= x;
+                    }
+                    s = Math.abs(h[n][n - 1]) + Math.abs(h[n - 1][n - 2]);
+                    x = 0.75 * s;
+                    y = x;
+                    w = -0.4375 * s * s;
+                }
+                if (iter == 30) {
+                    s = (y - x) / 2;
+                    s = s * s + w;
+                    if (s > 0) {
+                        s = Math.sqrt(s);
+                        if (y < x) {
+                            s = -s;
+                        }
+                        s = x - w / ((y - x) / 2 + s);
+                        for (int i = 0; i <= n; i += 1) {
+                            h[i][i] -= s;
+                        }
+                        exshift += s;
+                        x = 0.964;
+                        y = x;
+                        w = x;
+                    }
+                }
+                iter += 1;
+                if (iter > MAX_STEPS) {
+                    throw error("eigenvalues did not converge");
+                }
+                int m = n - 2;
+                while (m >= l) {
+                    z = h[m][m];
+                    r = x - z;
+                    s = y - z;
+                    p = (r * s - w) / h[m + 1][m] + h[m][m + 1];
+                    q = h[m + 1][m + 1] - z - r - s;
+                    r = h[m + 2][m + 1];
+                    s = Math.abs(p) + Math.abs(q) + Math.abs(r);
+                    p /= s;
+                    q /= s;
+                    r /= s;
+                    if (m == l) {
+                        break;
+                    }
+                    double lhs = Math.abs(h[m][m - 1])
+                        * (Math.abs(q) + Math.abs(r));
+                    double rhs = EPS * (Math.abs(p)
+                        * (Math.abs(h[m - 1][m - 1]) + Math.abs(z)
+                           + Math.abs(h[m + 1][m + 1])));
+                    if (lhs < rhs) {
+                        break;
+                    }
+                    m -= 1;
+                }
+                for (int i = m + 2; i <= n; i += 1) {
+                    h[i][i - 2] = 0;
+                    if (i > m + 2) {
+                        h[i][i - 3] = 0;
+                    }
+                }
+                for (int k = m; k <= n - 1; k += 1) {
+                    boolean notlast = k != n - 1;
+                    if (k != m) {
+                        p = h[k][k - 1];
+                        q = h[k + 1][k - 1];
+                        r = notlast ? h[k + 2][k - 1] : 0;
+                        x = Math.abs(p) + Math.abs(q) + Math.abs(r);
+                        if (x == 0) {
+                            continue;
+                        }
+                        p /= x;
+                        q /= x;
+                        r /= x;
+                    }
+                    s = Math.sqrt(p * p + q * q + r * r);
+                    if (p < 0) {
+                        s = -s;
+                    }
+                    if (s == 0) {
+                        continue;
+                    }
+                    if (k != m) {
+                        h[k][k - 1] = -s * x;
+                    } else if (l != m) {
+                        h[k][k - 1] = -h[k][k - 1];
+                    }
+                    p += s;
+                    x = p / s;
+                    y = q / s;
+                    z = r / s;
+                    q /= p;
+                    r /= p;
+                    for (int j = k; j < nn; j += 1) {
+                        p = h[k][j] + q * h[k + 1][j];
+                        if (notlast) {
+                            p += r * h[k + 2][j];
+                            h[k + 2][j] -= p * z;
+                        }
+                        h[k][j] -= p * x;
+                        h[k + 1][j] -= p * y;
+                    }
+                    for (int i = 0; i <= Math.min(n, k + 3); i += 1) {
+                        p = x * h[i][k] + y * h[i][k + 1];
+                        if (notlast) {
+                            p += z * h[i][k + 2];
+                            h[i][k + 2] -= p * r;
+                        }
+                        h[i][k] -= p;
+                        h[i][k + 1] -= p * q;
+                    }
+                    double[] v0 = v[k];
+                    double[] v1 = v[k + 1];
+                    double[] v2 = notlast ? v[k + 2] : null;
+                    for (int i = 0; i < nn; i += 1) {
+                        p = x * v0[i] + y * v1[i];
+                        if (notlast) {
+                            p += z * v2[i];
+                            v2[i] -= p * r;
+                        }
+                        v0[i] -= p;
+                        v1[i] -= p * q;
+                    }
+                }
+            }
+        }
+        if (norm == 0) {
+            return;
+        }
+        for (n = nn - 1; n >= 0; n -= 1) {
+            p = d[n];
+            q = e[n];
+            if (q == 0) {
+                int l = n;
+                h[n][n] = 1;
+                for (int i = n - 1; i >= 0; i -= 1) {
+                    w = h[i][i] - p;
+                    r = 0;
+                    for (int j = l; j <= n; j += 1) {
+                        r += h[i][j] * h[j][n];
+                    }
+                    if (e[i] < 0) {
+                        z = w;
+                        s = r;
+                        continue;
+                    }
+                    l = i;
+                    if (e[i] == 0) {
+                        h[i][n] = -r / (w != 0 ? w : EPS * norm);
+                    } else {
+                        x = h[i][i + 1];
+                        y = h[i + 1][i];
+                        q = (d[i] - p) * (d[i] - p) + e[i] * e[i];
+                        t = (x * s - z * r) / q;
+                        h[i][n] = t;
+                        if (Math.abs(x) > Math.abs(z)) {
+                            h[i + 1][n] = (-r - w * t) / x;
+                        } else {
+                            h[i + 1][n] = (-s - y * t) / z;
+                        }
+                    }
+                    t = Math.abs(h[i][n]);
+                    if ((EPS * t) * t > 1) {
+                        for (int j = i; j <= n; j += 1) {
+                            h[j][n] /= t;
+                        }
+                    }
+                }
+            } else if (q < 0) {
+                int l = n - 1;
+                double[] c;
+                if (Math.abs(h[n][n - 1]) > Math.abs(h[n - 1][n])) {
+                    h[n - 1][n - 1] = q / h[n][n - 1];
+                    h[n - 1][n] = -(h[n][n] - p) / h[n][n - 1];
+                } else {
+                    c = divide(0, -h[n - 1][n], h[n - 1][n - 1] - p, q);
+                    h[n - 1][n - 1] = c[0];
+                    h[n - 1][n] = c[1];
+                }
+                h[n][n - 1] = 0;
+                h[n][n] = 1;
+                for (int i = n - 2; i >= 0; i -= 1) {
+                    double ra = 0;
+                    double sa = 0;
+                    for (int j = l; j <= n; j += 1) {
+                        ra += h[i][j] * h[j][n - 1];
+                        sa += h[i][j] * h[j][n];
+                    }
+                    w = h[i][i] - p;
+                    if (e[i] < 0) {
+                        z = w;
+                        r = ra;
+                        s = sa;
+                        continue;
+                    }
+                    l = i;
+                    if (e[i] == 0) {
+                        c = divide(-ra, -sa, w, q);
+                        h[i][n - 1] = c[0];
+                        h[i][n] = c[1];
+                    } else {
+                        x = h[i][i + 1];
+                        y = h[i + 1][i];
+                        double vr = (d[i] - p) * (d[i] - p) + e[i] * e[i]
+                            - q * q;
+                        double vi = (d[i] - p) * 2 * q;
+                        if (vr == 0 && vi == 0) {
+                            vr = EPS * norm * (Math.abs(w) + Math.abs(q)
+                                + Math.abs(x) + Math.abs(y) + Math.abs(z));
+                        }
+                        c = divide(x * r - z * ra + q * sa,
+                            x * s - z * sa - q * ra, vr, vi);
+                        h[i][n - 1] = c[0];
+                        h[i][n] = c[1];
+                        if (Math.abs(x) > Math.abs(z) + Math.abs(q)) {
+                            h[i + 1][n - 1] = (-ra - w * h[i][n - 1]
+                                + q * h[i][n]) / x;
+                            h[i + 1][n] = (-sa - w * h[i][n]
+                                - q * h[i][n - 1]) / x;
+                        } else {
+                            c = divide(-r - y * h[i][n - 1],
+                                -s - y * h[i][n], z, q);
+                            h[i + 1][n - 1] = c[0];
+                            h[i + 1][n] = c[1];
+                        }
+                    }
+                    t = Math.max(Math.abs(h[i][n - 1]), Math.abs(h[i][n]));
+                    if ((EPS * t) * t > 1) {
+                        for (int j = i; j <= n; j += 1) {
+                            h[j][n - 1] /= t;
+                            h[j][n] /= t;
+                        }
+                    }
+                }
+            }
+        }
+        for (int j = nn - 1; j >= 0; j -= 1) {
+            double[] row = new double[nn];
+            for (int k = 0; k <= j; k += 1) {
+                double f = h[k][j];
+                double[] vk = v[k];
+                for (int i = 0; i < nn; i += 1) {
+                    row[i] += f * vk[i];
+                }
+            }
+            v[j] = row;
+        }
+    }
+
+    /** Scales each eigenvector in the rows of _v to unit length, taking
+     *  the real and imaginary parts of a complex one together. */
+    private void normalize() {
+        int j = 0;
+        while (j < _n) {
+            int last = _e[j] > 0 ? j + 1 : j;
+            double scale = 0;
+            for (int k = j; k <= last; k += 1) {
+                for (double x : _v[k]) {
+                    scale = Math.max(scale, Math.abs(x));
+                }
+            }
+            if (scale > 0) {
+                double sum = 0;
+                for (int k = j; k <= last; k += 1) {
+                    for (double x : _v[k]) {
+                        sum += (x / scale) * (x / scale);
+                    }
+                }
+                double norm = scale * Math.sqrt(sum);
+                for (int k = j; k <= last; k += 1) {
+                    for (int i = 0; i < _n; i += 1) {
+                        _v[k][i] /= norm;
+                    }
+                }
+            }
+            j = last + 1;
+        }
+    }
+
+    /** Transposes the square matrix A in place. */
+    private static void transpose(double[][] a) {
+        for (int i = 0; i < a.length; i += 1) {
+            for (int j = 0; j < i; j += 1) {
+                double temp = a[i][j];
+                a[i][j] = a[j][i];
+                a[j][i] = temp;
+            }
+        }
+    }
+
+    /** The quotient of the complex numbers XR + XI i and YR + YI i,
+     *  as its real and imaginary parts. */
+    private static double[] divide(double xr, double xi, double yr,
+                                   double yi) {
+        if (Math.abs(yr) > Math.abs(yi)) {
+            double r = yi / yr;
+            double d = yr + r * yi;
+            return new double[] {(xr + r * xi) / d, (xi - r * xr) / d};
+        }
+        double r = yr / yi;
+        double d = yi + r * yr;
+        return new double[] {(r * xr + xi) / d, (r * xi - xr) / d};
+    }
+
+}
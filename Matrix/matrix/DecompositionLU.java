@@ -0,0 +1,311 @@
+package matrix;
+
+/** LU decomposition with partial pivoting of a square matrix A, so
+ *  that P * A = L * U with L unit lower triangular and U upper
+ *  triangular, or with complete pivoting, so that P * A * Q = L * U.
+ *  @author Christian Choi */
+
+class DecompositionLU {
+
+    /** Pivots smaller than this times the largest element of the row
+     *  or of the col of A they came from, whichever is smaller, are
+     *  treated as zero, so that how A is scaled does not decide whether
+     *  it is singular. */
+    static final double SINGULAR_TOL = 1E-10;
+
+    /** Order of the decomposed matrix. */
+    private final int _n;
+
+    /** L below the diagonal and U on and above it, row-major. */
+    private final double[] _lu;
+
+    /** Row I of P * A is row _piv[I] of A. */
+    private final int[] _piv;
+
+    /** Col J of A * Q is col _colPiv[J] of A. */
+    private final int[] _colPiv;
+
+    /** Sign of the permutations P and Q. */
+    private final int _sign;
+
+    /** Number of pivots not treated as zero. With complete pivoting
+     *  these are the leading ones. */
+    private final int _rank;
+
+    /** Whether cols were exchanged as well as rows. */
+    private final boolean _complete;
+
+    /** Decomposes the square matrix M with partial pivoting. */
+    DecompositionLU(MatrixObj m) {
+        this(m, false);
+    }
+
+    /** Decomposes the square matrix M, with complete pivoting if
+     *  COMPLETE, so that the rank of M can be read off U. */
+    DecompositionLU(MatrixObj m, boolean complete) {
+        _n = m.rows();
+        _lu = m.toArray();
+        _piv = new int[_n];
+        _colPiv = new int[_n];
+        for (int i = 0; i < _n; i += 1) {
+            _piv[i] = i;
+            _colPiv[i] = i;
+        }
+        _complete = complete;
+        int sign = 1;
+        int rank = 0;
+        int n = _n;
+        double[] lu = _lu;
+        double[] rowScale = new double[n];
+        double[] colScale = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            for (int j = 0; j < n; j += 1) {
+                double d = Math.abs(lu[i * n + j]);
+                rowScale[i] = Math.max(rowScale[i], d);
+                colScale[j] = Math.max(colScale[j], d);
+            }
+        }
+        for (int k = 0; k < n; k += 1) {
+            int p = k;
+            int q = k;
+            if (complete) {
+                double best = 0;
+                for (int i = k; i < n; i += 1) {
+                    for (int j = k; j < n; j += 1) {
+                        double scale = Math.min(rowScale[_piv[i]],
+                            colScale[_colPiv[j]]);
+                        double d = Math.abs(lu[i * n + j]);
+                        if (scale > 0 && d / scale > best) {
+                            best = d / scale;
+                            p = i;
+                            q = j;
+                        }
+                    }
+                }
+            } else {
+                for (int i = k + 1; i < n; i += 1) {
+                    if (Math.abs(lu[i * n + k]) > Math.abs(lu[p * n + k])) {
+                        p = i;
+                    }
+                }
+            }
+            if (p != k) {
+                swapRows(p, k);
+                sign = -sign;
+            }
+            if (q != k) {
+                swapCols(q, k);
+                sign = -sign;
+            }
+            double pivot = lu[k * n + k];
+            if (Math.abs(pivot) <= SINGULAR_TOL
+                * Math.min(rowScale[_piv[k]], colScale[_colPiv[k]])) {
+                if (complete) {
+                    break;
+                } else if (pivot == 0) {
+                    continue;
+                }
+            } else {
+                rank += 1;
+            }
+            for (int i = k + 1; i < n; i += 1) {
+                double f = lu[i * n + k] / pivot;
+                lu[i * n + k] = f;
+                if (f != 0) {
+                    int row = i * n;
+                    int pivRow = k * n;
+                    for (int j = k + 1; j < n; j += 1) {
+                        lu[row + j] -= f * lu[pivRow + j];
+                    }
+                }
+            }
+        }
+        _sign = sign;
+        _rank = rank;
+    }
+
+    /** Swaps rows I and J of the factors and the permutation. */
+    private void swapRows(int i, int j) {
+        int n = _n;
+        for (int k = 0; k < n; k += 1) {
+            double temp = _lu[i * n + k];
+            _lu[i * n + k] = _lu[j * n + k];
+            _lu[j * n + k] = temp;
+        }
+        int temp = _piv[i];
+        _piv[i] = _piv[j];
+        _piv[j] = temp;
+    }
+
+    /** Swaps cols I and J of the factors and the permutation. */
+    private void swapCols(int i, int j) {
+        int n = _n;
+        for (int k = 0; k < n; k += 1) {
+            double temp = _lu[k * n + i];
+            _lu[k * n + i] = _lu[k * n + j];
+            _lu[k * n + j] = temp;
+        }
+        int temp = _colPiv[i];
+        _colPiv[i] = _colPiv[j];
+        _colPiv[j] = temp;
+    }
+
+    /** Order of the decomposed matrix. */
+    int order() {
+        return _n;
+    }
+
+    /** Whether the decomposed matrix is singular. */
+    boolean isSingular() {
+        return _rank < _n;
+    }
+
+    /** Rank of the decomposed matrix. Only reliable with complete
+     *  pivoting. */
+    int rank() {
+        return _rank;
+    }
+
+    /** Determinant of the decomposed matrix, the signed product of the
+     *  pivots. */
+    double det() {
+        double det = _sign;
+        for (int i = 0; i < _n; i += 1) {
+            if (_lu[i * _n + i] == 0) {
+                return 0;
+            }
+            det *= _lu[i * _n + i];
+        }
+        return det;
+    }
+
+    /** The unit lower triangular factor L. */
+    MatrixObj lower() {
+        int n = _n;
+        double[] l = new double[n * n];
+        for (int i = 0; i < n; i += 1) {
+            System.arraycopy(_lu, i * n, l, i * n, i);
+            l[i * n + i] = 1;
+        }
+        return new MatrixObj(n, n, l);
+    }
+
+    /** The upper triangular factor U. */
+    MatrixObj upper() {
+        int n = _n;
+        double[] u = new double[n * n];
+        for (int i = 0; i < n; i += 1) {
+            System.arraycopy(_lu, i * n + i, u, i * n + i, n - i);
+        }
+        return new MatrixObj(n, n, u);
+    }
+
+    /** The permutation matrix P. */
+    MatrixObj permutation() {
+        int n = _n;
+        double[] p = new double[n * n];
+        for (int i = 0; i < n; i += 1) {
+            p[i * n + _piv[i]] = 1;
+        }
+        return new MatrixObj(n, n, p);
+    }
+
+    /** Returns X solving A * X = B for the N x K matrix B. */
+    MatrixObj solve(MatrixObj b) {
+        if (b.rows() != _n) {
+            throw MatrixException.error("bad dimensions for solve");
+        }
+        if (isSingular()) {
+            throw MatrixException.error("matrix is singular");
+        }
+        int n = _n;
+        int k = b.cols();
+        double[] x = new double[n * k];
+        for (int i = 0; i < n; i += 1) {
+            for (int j = 0; j < k; j += 1) {
+                x[i * k + j] = b.get(_piv[i], j);
+            }
+        }
+        for (int i = 0; i < n; i += 1) {
+            for (int p = 0; p < i; p += 1) {
+                double f = _lu[i * n + p];
+                if (f != 0) {
+                    for (int j = 0; j < k; j += 1) {
+                        x[i * k + j] -= f * x[p * k + j];
+                    }
+                }
+            }
+        }
+        for (int i = n - 1; i >= 0; i -= 1) {
+            for (int p = i + 1; p < n; p += 1) {
+                double f = _lu[i * n + p];
+                if (f != 0) {
+                    for (int j = 0; j < k; j += 1) {
+                        x[i * k + j] -= f * x[p * k + j];
+                    }
+                }
+            }
+            double d = _lu[i * n + i];
+            for (int j = 0; j < k; j += 1) {
+                x[i * k + j] /= d;
+            }
+        }
+        if (_complete) {
+            double[] y = x;
+            x = new double[n * k];
+            for (int i = 0; i < n; i += 1) {
+                System.arraycopy(y, i * k, x, _colPiv[i] * k, k);
+            }
+        }
+        return new MatrixObj(n, k, x);
+    }
+
+    /** The adjugate of the decomposed matrix, which is its
+     *  determinant times its inverse. A singular matrix must have
+     *  been decomposed with complete pivoting. */
+    MatrixObj adjugate() {
+        int n = _n;
+        if (!isSingular()) {
+            double[] id = new double[n * n];
+            for (int i = 0; i < n; i += 1) {
+                id[i * n + i] = 1;
+            }
+            return MultiplierGEMM.scale(solve(new MatrixObj(n, n, id)),
+                det());
+        } else if (!_complete) {
+            throw MatrixException.error("adjugate of singular matrix "
+                + "requires complete pivoting");
+        }
+        double[] adj = new double[n * n];
+        if (_rank < n - 1) {
+            return new MatrixObj(n, n, adj);
+        }
+        double[] x = new double[n];
+        x[n - 1] = 1;
+        double d = _sign;
+        for (int i = n - 2; i >= 0; i -= 1) {
+            double total = 0;
+            for (int j = i + 1; j < n; j += 1) {
+                total += _lu[i * n + j] * x[j];
+            }
+            x[i] = -total / _lu[i * n + i];
+            d *= _lu[i * n + i];
+        }
+        double[] z = new double[n];
+        z[n - 1] = 1;
+        for (int i = n - 2; i >= 0; i -= 1) {
+            double total = 0;
+            for (int j = i + 1; j < n; j += 1) {
+                total += _lu[j * n + i] * z[j];
+            }
+            z[i] = -total;
+        }
+        for (int i = 0; i < n; i += 1) {
+            for (int j = 0; j < n; j += 1) {
+                adj[_colPiv[i] * n + _piv[j]] = d * x[i] * z[j];
+            }
+        }
+        return new MatrixObj(n, n, adj);
+    }
+
+}
@@ -0,0 +1,496 @@
+package matrix;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static matrix.MatrixException.error;
+
+/** Householder QR decomposition A = Q * R of an M x N matrix A, with
+ *  Q having K = min(M, N) orthonormal cols and R K x N upper
+ *  triangular. A is copied in column-major order, so that every
+ *  reflector works on contiguous cols. Reflectors are built a panel
+ *  of NB cols at a time and gathered into one block reflector
+ *  I - V * T * V^T, which is applied to the rest of A, and to
+ *  anything else Q or Q^T multiplies, one block of cols at a time in
+ *  parallel on the common fork-join pool.
+ *  @author Christian Choi */
+
+class DecompositionQR {
+
+    /** Number of reflectors gathered into each block reflector. */
+    private static final int NB = 32;
+
+    /** Number of rows of the reflectors and of the cols they are
+     *  applied to which are worked on at a time. */
+    private static final int ROWS = 256;
+
+    /** Number of cols below which a block of cols to which a block
+     *  reflector is applied is not split, so that rows of the
+     *  reflectors brought into cache are used for several cols. */
+    private static final int COLS = 16;
+
+    /** Number of multiply-adds below which a block reflector is
+     *  applied on the calling thread. */
+    private static final long SERIAL_WORK = 1L << 18;
+
+    /** Dimensions of the decomposed matrix and its number of
+     *  reflectors. */
+    private final int _m, _n, _k;
+
+    /** R on and above the diagonal and the reflectors below it,
+     *  column-major. Reflector J is 1 at row J and zero above it. */
+    private final double[] _qr;
+
+    /** Scale of each reflector I - TAU * V * V^T. */
+    private final double[] _tau;
+
+    /** Upper triangular T of each block reflector, row-major. */
+    private final double[][] _t;
+
+    /** Decomposes the matrix A. */
+    DecompositionQR(MatrixObj a) {
+        _m = a.rows();
+        _n = a.cols();
+        _k = Math.min(_m, _n);
+        if ((long) _m * _n > SparseMatrixObj.MAX_DENSE) {
+            throw error("matrix too large to store densely");
+        }
+        _qr = a.transpose().toArray();
+        _tau = new double[_k];
+        _t = new double[(_k + NB - 1) / NB][];
+        for (int s = 0; s < _k; s += NB) {
+            int nb = Math.min(NB, _k - s);
+            _t[s / NB] = factorPanel(s, nb);
+            apply(s, _t[s / NB], nb, _qr, s + nb, _n, true);
+        }
+    }
+
+    /** Factors the panel of NB cols of _qr from S, whose earlier cols
+     *  are already factored, returning the T of its block reflector.
+     *  The panel is split in half, and the block reflector of the
+     *  left half is applied to the right half, so that the cols of
+     *  the panel are not each passed over once for every reflector.
+     *  The T of the two halves are then joined. */
+    private double[] factorPanel(int s, int nb) {
+        if (nb == 1) {
+            reflect(s);
+            return new double[] {_tau[s]};
+        }
+        int half = nb / 2;
+        int rest = nb - half;
+        double[] left = factorPanel(s, half);
+        apply(s, left, half, _qr, s + half, s + nb, true);
+        double[] right = factorPanel(s + half, rest);
+        double[] g = crossProducts(s, half, nb);
+        double[] t = new double[nb * nb];
+        for (int i = 0; i < half; i += 1) {
+            System.arraycopy(left, i * half, t, i * nb, half);
+        }
+        for (int i = 0; i < rest; i += 1) {
+            System.arraycopy(right, i * rest, t, (half + i) * nb + half,
+                rest);
+        }
+        double[] tg = new double[half * rest];
+        for (int p = 0; p < half; p += 1) {
+            for (int q = p; q < half; q += 1) {
+                double tpq = left[p * half + q];
+                for (int i = 0; i < rest; i += 1) {
+                    tg[p * rest + i] += tpq * g[i * half + q];
+                }
+            }
+        }
+        for (int p = 0; p < half; p += 1) {
+            for (int i = 0; i < rest; i += 1) {
+                double total = 0;
+                for (int q = 0; q <= i; q += 1) {
+                    total += tg[p * rest + q] * right[q * rest + i];
+                }
+                t[p * nb + half + i] = -total;
+            }
+        }
+        return t;
+    }
+
+    /** Replaces col J of _qr from the diagonal down with the reflector
+     *  taking it to a multiple of the Jth unit vector, below the
+     *  diagonal, and that multiple, on it. */
+    private void reflect(int j) {
+        int m = _m;
+        int col = j * m;
+        double sum = 0;
+        for (int i = j; i < m; i += 1) {
+            sum += _qr[col + i] * _qr[col + i];
+        }
+        double norm = Math.sqrt(sum);
+        if (Double.isInfinite(sum) || (sum < Double.MIN_NORMAL && sum > 0)) {
+            norm = 0;
+            for (int i = j; i < m; i += 1) {
+                norm = Math.hypot(norm, _qr[col + i]);
+            }
+        }
+        double x0 = _qr[col + j];
+        if (norm == 0) {
+            _tau[j] = 0;
+            return;
+        }
+        double beta = -Math.copySign(norm, x0);
+        double scale = 1 / (x0 - beta);
+        for (int i = j + 1; i < m; i += 1) {
+            _qr[col + i] *= scale;
+        }
+        _tau[j] = (beta - x0) / beta;
+        _qr[col + j] = beta;
+    }
+
+    /** Dot products of the reflectors S + HALF + I and S + P, for I
+     *  below NB - HALF and P below HALF, at index I * HALF + P. */
+    private double[] crossProducts(int s, int half, int nb) {
+        int m = _m;
+        int end = s + nb;
+        double[] g = new double[(nb - half) * half];
+        for (int i = half; i < nb; i += 1) {
+            int row = s + i;
+            int vi = row * m;
+            for (int p = 0; p < half; p += 1) {
+                int vp = (s + p) * m;
+                double total = _qr[vp + row];
+                for (int r = row + 1; r < end; r += 1) {
+                    total += _qr[vp + r] * _qr[vi + r];
+                }
+                g[(i - half) * half + p] = total;
+            }
+        }
+        for (int r0 = end; r0 < m; r0 += ROWS) {
+            int r1 = Math.min(m, r0 + ROWS);
+            for (int i = half; i < nb; i += 1) {
+                dots(s, half, _qr, (s + i) * m, r0, r1, g,
+                    (i - half) * half);
+            }
+        }
+        return g;
+    }
+
+    /** Adds the dot products of rows [R0, R1) of the NB reflectors
+     *  from FROM and of the col of C starting at COL to the NB
+     *  elements of W from START. The reflectors are taken four at a
+     *  time, so that each element of the col is loaded once for four
+     *  of them and the four sums are independent. */
+    private void dots(int from, int nb, double[] c, int col, int r0,
+                      int r1, double[] w, int start) {
+        int m = _m;
+        int p = 0;
+        for (; p + 4 <= nb; p += 4) {
+            int v0 = (from + p) * m;
+            int v1 = v0 + m;
+            int v2 = v1 + m;
+            int v3 = v2 + m;
+            double t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+            for (int r = r0; r < r1; r += 1) {
+                double cr = c[col + r];
+                t0 += _qr[v0 + r] * cr;
+                t1 += _qr[v1 + r] * cr;
+                t2 += _qr[v2 + r] * cr;
+                t3 += _qr[v3 + r] * cr;
+            }
+            w[start + p] += t0;
+            w[start + p + 1] += t1;
+            w[start + p + 2] += t2;
+            w[start + p + 3] += t3;
+        }
+        for (; p < nb; p += 1) {
+            int vp = (from + p) * m;
+            double total = 0;
+            for (int r = r0; r < r1; r += 1) {
+                total += _qr[vp + r] * c[col + r];
+            }
+            w[start + p] += total;
+        }
+    }
+
+    /** Subtracts from rows [R0, R1) of the col of C starting at COL
+     *  the NB reflectors from FROM times the NB elements of W from
+     *  START, four reflectors at a time. */
+    private void subtract(int from, int nb, double[] c, int col, int r0,
+                          int r1, double[] w, int start) {
+        int m = _m;
+        int p = 0;
+        for (; p + 4 <= nb; p += 4) {
+            int v0 = (from + p) * m;
+            int v1 = v0 + m;
+            int v2 = v1 + m;
+            int v3 = v2 + m;
+            double w0 = w[start + p], w1 = w[start + p + 1];
+            double w2 = w[start + p + 2], w3 = w[start + p + 3];
+            for (int r = r0; r < r1; r += 1) {
+                c[col + r] -= w0 * _qr[v0 + r] + w1 * _qr[v1 + r]
+                    + w2 * _qr[v2 + r] + w3 * _qr[v3 + r];
+            }
+        }
+        for (; p < nb; p += 1) {
+            int vp = (from + p) * m;
+            double wp = w[start + p];
+            for (int r = r0; r < r1; r += 1) {
+                c[col + r] -= wp * _qr[vp + r];
+            }
+        }
+    }
+
+    /** Multiplies cols [LO, HI) of the column-major C, with _m rows,
+     *  by the block reflector I - V * T * V^T gathering the NB
+     *  reflectors from FROM, or by its transpose if TRANSPOSE. */
+    private void apply(int from, double[] t, int nb, double[] c, int lo,
+                       int hi, boolean transpose) {
+        if (lo < hi) {
+            ForkJoinPool.commonPool().invoke(
+                new ColBlock(from, t, nb, c, lo, hi, transpose));
+        }
+    }
+
+    /** Multiplies cols [LO, HI) of C as in apply on the calling
+     *  thread. V^T times the cols is found and then subtracted back
+     *  ROWS rows at a time, so that those rows of the cols and of the
+     *  reflectors stay in cache while they are used. */
+    private void applyCols(int from, double[] t, int nb, double[] c,
+                           int lo, int hi, boolean transpose) {
+        int m = _m;
+        int end = from + nb;
+        double[] w = new double[(hi - lo) * nb];
+        for (int j = lo; j < hi; j += 1) {
+            int col = j * m;
+            int wj = (j - lo) * nb;
+            for (int p = 0; p < nb; p += 1) {
+                int row = from + p;
+                int vp = row * m;
+                double total = c[col + row];
+                for (int r = row + 1; r < end; r += 1) {
+                    total += _qr[vp + r] * c[col + r];
+                }
+                w[wj + p] = total;
+            }
+        }
+        for (int r0 = end; r0 < m; r0 += ROWS) {
+            int r1 = Math.min(m, r0 + ROWS);
+            for (int j = lo; j < hi; j += 1) {
+                dots(from, nb, c, j * m, r0, r1, w, (j - lo) * nb);
+            }
+        }
+        for (int wj = 0; wj < w.length; wj += nb) {
+            multiplyT(t, nb, w, wj, transpose);
+        }
+        for (int r0 = end; r0 < m; r0 += ROWS) {
+            int r1 = Math.min(m, r0 + ROWS);
+            for (int j = lo; j < hi; j += 1) {
+                subtract(from, nb, c, j * m, r0, r1, w, (j - lo) * nb);
+            }
+        }
+        for (int j = lo; j < hi; j += 1) {
+            int col = j * m;
+            int wj = (j - lo) * nb;
+            for (int p = 0; p < nb; p += 1) {
+                int row = from + p;
+                int vp = row * m;
+                double wp = w[wj + p];
+                c[col + row] -= wp;
+                for (int r = row + 1; r < end; r += 1) {
+                    c[col + r] -= wp * _qr[vp + r];
+                }
+            }
+        }
+    }
+
+    /** Replaces the NB elements of W from START with T times them, or
+     *  T^T times them if TRANSPOSE, for the NB x NB upper triangular
+     *  T. */
+    private static void multiplyT(double[] t, int nb, double[] w,
+                                  int start, boolean transpose) {
+        if (transpose) {
+            for (int i = nb - 1; i >= 0; i -= 1) {
+                double total = 0;
+                for (int p = 0; p <= i; p += 1) {
+                    total += t[p * nb + i] * w[start + p];
+                }
+                w[start + i] = total;
+            }
+        } else {
+            for (int i = 0; i < nb; i += 1) {
+                double total = 0;
+                for (int p = i; p < nb; p += 1) {
+                    total += t[i * nb + p] * w[start + p];
+                }
+                w[start + i] = total;
+            }
+        }
+    }
+
+    /** Multiplies the column-major C, with _m rows and COLS cols, by
+     *  Q^T if TRANSPOSE and by Q otherwise. */
+    private void applyQ(double[] c, int cols, boolean transpose) {
+        int blocks = _t.length;
+        for (int b = 0; b < blocks; b += 1) {
+            int block = transpose ? b : blocks - 1 - b;
+            int s = block * NB;
+            int nb = Math.min(NB, _k - s);
+            apply(s, _t[block], nb, c, 0, cols, transpose);
+        }
+    }
+
+    /** Whether the cols of the decomposed matrix are linearly
+     *  dependent, judged from the diagonal of R. */
+    boolean isRankDeficient() {
+        double largest = 0;
+        for (int j = 0; j < _k; j += 1) {
+            largest = Math.max(largest, Math.abs(_qr[j * _m + j]));
+        }
+        double tol = DecompositionLU.SINGULAR_TOL * largest;
+        for (int j = 0; j < _k; j += 1) {
+            if (!(Math.abs(_qr[j * _m + j]) > tol)) {
+                return true;
+            }
+        }
+        return _k < _n;
+    }
+
+    /** The M x K factor Q, with orthonormal cols. */
+    MatrixObj q() {
+        int m = _m;
+        double[] q = new double[m * _k];
+        for (int j = 0; j < _k; j += 1) {
+            q[j * m + j] = 1;
+        }
+        applyQ(q, _k, false);
+        return MatrixObj.colMajor(m, _k, q);
+    }
+
+    /** The K x N upper triangular factor R. */
+    MatrixObj r() {
+        int n = _n;
+        double[] r = new double[_k * n];
+        for (int i = 0; i < _k; i += 1) {
+            for (int j = i; j < n; j += 1) {
+                r[i * n + j] = _qr[j * _m + i];
+            }
+        }
+        return new MatrixObj(_k, n, r);
+    }
+
+    /** Returns the X minimizing the norm of A * X - B for each col of
+     *  the M x P matrix B, where A has at least as many rows as cols
+     *  and full rank. */
+    MatrixObj leastSquares(MatrixObj b) {
+        if (b.rows() != _m) {
+            throw error("bad dimensions for least squares");
+        } else if (isRankDeficient()) {
+            throw error("matrix is rank deficient");
+        }
+        int m = _m;
+        int n = _n;
+        int p = b.cols();
+        double[] c = b.transpose().toArray();
+        applyQ(c, p, true);
+        double[] x = new double[n * p];
+        for (int i = n - 1; i >= 0; i -= 1) {
+            int row = i * p;
+            for (int j = 0; j < p; j += 1) {
+                x[row + j] = c[j * m + i];
+            }
+            for (int q = i + 1; q < n; q += 1) {
+                double f = _qr[q * m + i];
+                if (f != 0) {
+                    for (int j = 0; j < p; j += 1) {
+                        x[row + j] -= f * x[q * p + j];
+                    }
+                }
+            }
+            double d = _qr[i * m + i];
+            for (int j = 0; j < p; j += 1) {
+                x[row + j] /= d;
+            }
+        }
+        return new MatrixObj(n, p, x);
+    }
+
+    /** Returns the X of least norm solving A^T * X = B for each col
+     *  of the N x P matrix B, where A is the decomposed matrix, with
+     *  at least as many rows as cols and full rank. */
+    MatrixObj leastNorm(MatrixObj b) {
+        if (b.rows() != _n) {
+            throw error("bad dimensions for least squares");
+        } else if (isRankDeficient()) {
+            throw error("matrix is rank deficient");
+        }
+        int m = _m;
+        int n = _n;
+        int p = b.cols();
+        double[] y = b.toArray();
+        for (int i = 0; i < n; i += 1) {
+            int row = i * p;
+            for (int q = 0; q < i; q += 1) {
+                double f = _qr[i * m + q];
+                if (f != 0) {
+                    for (int j = 0; j < p; j += 1) {
+                        y[row + j] -= f * y[q * p + j];
+                    }
+                }
+            }
+            double d = _qr[i * m + i];
+            for (int j = 0; j < p; j += 1) {
+                y[row + j] /= d;
+            }
+        }
+        double[] c = new double[m * p];
+        for (int i = 0; i < n; i += 1) {
+            for (int j = 0; j < p; j += 1) {
+                c[j * m + i] = y[i * p + j];
+            }
+        }
+        applyQ(c, p, false);
+        return MatrixObj.colMajor(m, p, c);
+    }
+
+    /** Task multiplying a block of cols by a block reflector, splitting
+     *  itself in half until the block is small. */
+    @SuppressWarnings("serial")
+    private class ColBlock extends RecursiveAction {
+
+        /** First reflector of the block reflector. */
+        private final int _from;
+
+        /** T of the block reflector, and its number of reflectors. */
+        private final double[] _t;
+        private final int _nb;
+
+        /** The column-major matrix multiplied. */
+        private final double[] _c;
+
+        /** Cols [lo, hi) of _c multiplied by this task. */
+        private final int _lo, _hi;
+
+        /** Whether the transpose of the block reflector is used. */
+        private final boolean _transpose;
+
+        ColBlock(int from, double[] t, int nb, double[] c, int lo,
+                 int hi, boolean transpose) {
+            _from = from;
+            _t = t;
+            _nb = nb;
+            _c = c;
+            _lo = lo;
+            _hi = hi;
+            _transpose = transpose;
+        }
+
+        @Override
+        protected void compute() {
+            long work = (long) (_hi - _lo) * (_m - _from) * _nb;
+            if (_hi - _lo < 2 * COLS || work <= SERIAL_WORK) {
+                applyCols(_from, _t, _nb, _c, _lo, _hi, _transpose);
+            } else {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(
+                    new ColBlock(_from, _t, _nb, _c, _lo, mid, _transpose),
+                    new ColBlock(_from, _t, _nb, _c, mid, _hi, _transpose));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static matrix.MatrixException.error;
+
+/** Singular value decomposition A = U * S * V^T of an M x N matrix A,
+ *  with K = min(M, N), U M x K and V N x K with orthonormal cols, and
+ *  S the K x K diagonal matrix of singular values in decreasing order.
+ *  A tall matrix is first reduced to its square R by a QR
+ *  decomposition and a wide one is decomposed through its transpose.
+ *  The square matrix left is made to have orthogonal cols by one-sided
+ *  Jacobi rotations, which find even small singular values to high
+ *  relative accuracy. The cols of U for zero singular values are zero.
+ *  A truncated decomposition of only the largest singular values can
+ *  be found by random sampling, for matrices too large to decompose
+ *  fully.
+ *  @author Christian Choi */
+
+class DecompositionSVD {
+
+    /** Largest number of sweeps of Jacobi rotations. */
+    private static final int MAX_SWEEPS = 60;
+
+    /** Relative machine precision. */
+    private static final double EPS = Math.ulp(1.0);
+
+    /** Number of cols sampled beyond those wanted by a truncated
+     *  decomposition. */
+    private static final int OVERSAMPLE = 10;
+
+    /** Number of power iterations of a truncated decomposition, each
+     *  of which sharpens the gap between wanted and unwanted singular
+     *  values. */
+    private static final int POWER_ITERATIONS = 2;
+
+    /** Seed of the random samples, so that results are repeatable. */
+    private static final long SEED = 0;
+
+    /** The factors U and V. */
+    private final MatrixObj _u, _v;
+
+    /** The singular values, in decreasing order. */
+    private final double[] _s;
+
+    /** Decomposes the matrix A. */
+    DecompositionSVD(MatrixObj a) {
+        int m = a.rows();
+        int n = a.cols();
+        if ((long) m * n > SparseMatrixObj.MAX_DENSE) {
+            throw error("matrix too large to store densely");
+        }
+        boolean wide = m < n;
+        MatrixObj b = wide ? a.transpose() : a;
+        int k = Math.min(m, n);
+        MatrixObj q = null;
+        if (b.rows() > k) {
+            DecompositionQR qr = new DecompositionQR(b);
+            q = qr.q();
+            b = qr.r();
+        }
+        double[] w = b.transpose().toArray();
+        double[] v = new double[k * k];
+        for (int j = 0; j < k; j += 1) {
+            v[j * k + j] = 1;
+        }
+        orthogonalize(w, v, k);
+        double[] norms = new double[k];
+        Integer[] order = new Integer[k];
+        for (int j = 0; j < k; j += 1) {
+            norms[j] = norm(w, j * k, k);
+            order[j] = j;
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(norms[y], norms[x]));
+        _s = new double[k];
+        double[] u = new double[k * k];
+        double[] vSorted = new double[k * k];
+        for (int j = 0; j < k; j += 1) {
+            int src = order[j];
+            double s = norms[src];
+            _s[j] = s;
+            if (s > 0) {
+                for (int i = 0; i < k; i += 1) {
+                    u[j * k + i] = w[src * k + i] / s;
+                }
+            }
+            System.arraycopy(v, src * k, vSorted, j * k, k);
+        }
+        MatrixObj left = MatrixObj.colMajor(k, k, u);
+        if (q != null) {
+            left = MultiplierGEMM.multiply(q, left);
+        }
+        MatrixObj right = MatrixObj.colMajor(k, k, vSorted);
+        _u = wide ? right : left;
+        _v = wide ? left : right;
+    }
+
+    /** A decomposition with factors U and V and singular values S. */
+    private DecompositionSVD(MatrixObj u, double[] s, MatrixObj v) {
+        _u = u;
+        _s = s;
+        _v = v;
+    }
+
+    /** Returns the truncated decomposition of A to its K largest
+     *  singular values. Unless they are nearly all of them, the range
+     *  of A is sampled by its product with a random matrix of a few
+     *  more than K cols, the sample sharpened by power iterations and
+     *  orthonormalized into Q, and the small matrix Q^T * A decomposed
+     *  exactly. Only products with A are formed, so a sparse A is
+     *  never stored densely. */
+    static DecompositionSVD truncated(MatrixObj a, int k) {
+        int m = a.rows();
+        int n = a.cols();
+        if (k < 1 || k > Math.min(m, n)) {
+            throw error("number of singular values out of range");
+        }
+        if (k + OVERSAMPLE >= Math.min(m, n)) {
+            return new DecompositionSVD(a).leading(k);
+        }
+        int l = k + OVERSAMPLE;
+        Random random = new Random(SEED);
+        double[] omega = new double[n * l];
+        for (int i = 0; i < omega.length; i += 1) {
+            omega[i] = random.nextGaussian();
+        }
+        MatrixObj at = a.transpose();
+        MatrixObj q = orthonormal(
+            MultiplierGEMM.multiply(a, new MatrixObj(n, l, omega)));
+        for (int i = 0; i < POWER_ITERATIONS; i += 1) {
+            MatrixObj z = orthonormal(MultiplierGEMM.multiply(at, q));
+            q = orthonormal(MultiplierGEMM.multiply(a, z));
+        }
+        DecompositionSVD small =
+            new DecompositionSVD(MultiplierGEMM.multiply(at, q));
+        return new DecompositionSVD(MultiplierGEMM.multiply(q, small._v),
+            small._s, small._u).leading(k);
+    }
+
+    /** The factor U. */
+    MatrixObj u() {
+        return _u;
+    }
+
+    /** The diagonal matrix S of singular values. */
+    MatrixObj s() {
+        int k = _s.length;
+        double[] s = new double[k * k];
+        for (int i = 0; i < k; i += 1) {
+            s[i * k + i] = _s[i];
+        }
+        return new MatrixObj(k, k, s);
+    }
+
+    /** The factor V. */
+    MatrixObj v() {
+        return _v;
+    }
+
+    /** This decomposition truncated to its K largest singular
+     *  values. */
+    private DecompositionSVD leading(int k) {
+        if (k == _s.length) {
+            return this;
+        }
+        return new DecompositionSVD(leadingCols(_u, k),
+            Arrays.copyOf(_s, k), leadingCols(_v, k));
+    }
+
+    /** A copy of the first K cols of M. */
+    private static MatrixObj leadingCols(MatrixObj m, int k) {
+        int rows = m.rows();
+        double[] cols = m.transpose().toArray();
+        return MatrixObj.colMajor(rows, k, Arrays.copyOf(cols, rows * k));
+    }
+
+    /** An orthonormal basis of the range of the M x L matrix Y, which
+     *  has at least as many rows as cols. */
+    private static MatrixObj orthonormal(MatrixObj y) {
+        return new DecompositionQR(y).q();
+    }
+
+    /** Rotates pairs of the K cols of the column-major K x K matrix W
+     *  until they are all orthogonal, applying each rotation to the
+     *  cols of V as well. The squared norms of the cols are updated
+     *  with each rotation and recomputed with each sweep. */
+    private static void orthogonalize(double[] w, double[] v, int k) {
+        double[] sq = new double[k];
+        for (int sweep = 0; ; sweep += 1) {
+            if (sweep == MAX_SWEEPS) {
+                throw error("svd did not converge");
+            }
+            for (int j = 0; j < k; j += 1) {
+                double norm = norm(w, j * k, k);
+                sq[j] = norm * norm;
+            }
+            boolean rotated = false;
+            for (int p = 0; p < k - 1; p += 1) {
+                for (int q = p + 1; q < k; q += 1) {
+                    double alpha = sq[p];
+                    double beta = sq[q];
+                    double gamma = dot(w, p * k, q * k, k);
+                    if (!(Math.abs(gamma) > EPS * Math.sqrt(alpha * beta))) {
+                        continue;
+                    }
+                    rotated = true;
+                    double zeta = (beta - alpha) / (2 * gamma);
+                    double abs = Math.abs(zeta);
+                    double root = abs < 1E150
+                        ? Math.sqrt(1 + zeta * zeta) : abs;
+                    double t = Math.copySign(1, zeta) / (abs + root);
+                    double c = 1 / Math.sqrt(1 + t * t);
+                    double s = c * t;
+                    rotate(w, p * k, q * k, k, c, s);
+                    rotate(v, p * k, q * k, k, c, s);
+                    sq[p] = alpha - t * gamma;
+                    sq[q] = beta + t * gamma;
+                }
+            }
+            if (!rotated) {
+                return;
+            }
+        }
+    }
+
+    /** Replaces the N elements of X from P and from Q by their
+     *  rotation through the angle with cosine C and sine S. */
+    private static void rotate(double[] x, int p, int q, int n, double c,
+                               double s) {
+        for (int i = 0; i < n; i += 1) {
+            double xp = x[p + i];
+            double xq = x[q + i];
+            x[p + i] = c * xp - s * xq;
+            x[q + i] = s * xp + c * xq;
+        }
+    }
+
+    /** Dot product of the N elements of X from P and from Q. */
+    private static double dot(double[] x, int p, int q, int n) {
+        double total = 0;
+        for (int i = 0; i < n; i += 1) {
+            total += x[p + i] * x[q + i];
+        }
+        return total;
+    }
+
+    /** Euclidean norm of the N elements of X from P, scaled to avoid
+     *  overflow. */
+    private static double norm(double[] x, int p, int n) {
+        double largest = 0;
+        for (int i = 0; i < n; i += 1) {
+            largest = Math.max(largest, Math.abs(x[p + i]));
+        }
+        if (largest == 0) {
+            return 0;
+        }
+        double total = 0;
+        for (int i = 0; i < n; i += 1) {
+            double scaled = x[p + i] / largest;
+            total += scaled * scaled;
+        }
+        return largest * Math.sqrt(total);
+    }
+
+}
@@ -0,0 +1,338 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static matrix.MatrixException.error;
+
+/** LU decomposition with partial pivoting of a square matrix A held
+ *  in tiles, so that P * A = L * U, computed a tile at a time so that
+ *  A need not fit on the heap. Each col of tiles is decomposed in
+ *  turn: the col is read onto the heap and decomposed, its row
+ *  exchanges are applied to every other col, and the cols to its
+ *  right are updated one at a time, their tiles in parallel. L and U
+ *  are held together in tiles, like A.
+ *  @author Christian Choi */
+
+class DecompositionTiledLU {
+
+    /** Number of rows and cols of each tile. */
+    private static final int TILE = TiledMatrixObj.TILE;
+
+    /** Order of the decomposed matrix. */
+    private final int _n;
+
+    /** Number of tiles spanning each row and col. */
+    private final int _tiles;
+
+    /** L below the diagonal and U on and above it. */
+    private final TiledMatrixObj _lu;
+
+    /** Row I of P * A is row _piv[I] of A. */
+    private final int[] _piv;
+
+    /** Sign of the permutation P. */
+    private final int _sign;
+
+    /** Number of pivots not treated as zero. */
+    private final int _rank;
+
+    /** Decomposes the square matrix M. */
+    DecompositionTiledLU(MatrixObj m) {
+        int n = m.rows();
+        _n = n;
+        _tiles = TiledMatrixObj.tiles(n);
+        _lu = new TiledMatrixObj(n, n);
+        _piv = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            _piv[i] = i;
+        }
+        double[] rowScale = new double[_tiles * TILE];
+        double[] colScale = new double[_tiles * TILE];
+        for (int ti = 0; ti < _tiles; ti += 1) {
+            for (int tj = 0; tj < _tiles; tj += 1) {
+                double[] tile = TiledMatrixObj.tile(m, ti, tj).clone();
+                for (int k = 0; k < tile.length; k += 1) {
+                    double d = Math.abs(tile[k]);
+                    int i = ti * TILE + k / TILE;
+                    int j = tj * TILE + k % TILE;
+                    rowScale[i] = Math.max(rowScale[i], d);
+                    colScale[j] = Math.max(colScale[j], d);
+                }
+                _lu.put(ti, tj, tile);
+            }
+        }
+        int sign = 1;
+        int rank = 0;
+        for (int tk = 0; tk < _tiles; tk += 1) {
+            double[][] panel = column(tk, tk);
+            int[] swaps = new int[TILE];
+            int width = Math.min(TILE, n - tk * TILE);
+            for (int q = 0; q < width; q += 1) {
+                int k = tk * TILE + q;
+                int p = k;
+                for (int i = k + 1; i < n; i += 1) {
+                    if (Math.abs(at(panel, tk, i, q))
+                        > Math.abs(at(panel, tk, p, q))) {
+                        p = i;
+                    }
+                }
+                swaps[q] = p;
+                if (p != k) {
+                    swapRows(panel, tk, k, p);
+                    int temp = _piv[p];
+                    _piv[p] = _piv[k];
+                    _piv[k] = temp;
+                    sign = -sign;
+                }
+                double pivot = at(panel, tk, k, q);
+                if (Math.abs(pivot) > DecompositionLU.SINGULAR_TOL
+                    * Math.min(rowScale[_piv[k]], colScale[k])) {
+                    rank += 1;
+                } else if (pivot == 0) {
+                    continue;
+                }
+                double[] pivTile = panel[0];
+                int pivRow = q * TILE;
+                for (int i = k + 1; i < n; i += 1) {
+                    double[] tile = panel[i / TILE - tk];
+                    int row = (i % TILE) * TILE;
+                    double f = tile[row + q] / pivot;
+                    tile[row + q] = f;
+                    if (f != 0) {
+                        for (int j = q + 1; j < width; j += 1) {
+                            tile[row + j] -= f * pivTile[pivRow + j];
+                        }
+                    }
+                }
+            }
+            for (int ti = tk; ti < _tiles; ti += 1) {
+                _lu.put(ti, tk, panel[ti - tk]);
+            }
+            for (int tj = 0; tj < _tiles; tj += 1) {
+                if (tj != tk) {
+                    update(panel, swaps, tk, tj, width);
+                }
+            }
+        }
+        _sign = sign;
+        _rank = rank;
+    }
+
+    /** Copies of the tiles of col TJ of _lu from tile row FROM down. */
+    private double[][] column(int from, int tj) {
+        double[][] col = new double[_tiles - from][];
+        for (int ti = from; ti < _tiles; ti += 1) {
+            col[ti - from] = _lu.tile(ti, tj).clone();
+        }
+        return col;
+    }
+
+    /** Element (I, J % TILE) of the tiles COL of a col of tiles starting
+     *  at tile row FROM. */
+    private static double at(double[][] col, int from, int i, int j) {
+        return col[i / TILE - from][(i % TILE) * TILE + j];
+    }
+
+    /** Swaps rows I and J of the tiles COL of a col of tiles starting at
+     *  tile row FROM. */
+    private static void swapRows(double[][] col, int from, int i, int j) {
+        double[] a = col[i / TILE - from];
+        double[] b = col[j / TILE - from];
+        int x = (i % TILE) * TILE;
+        int y = (j % TILE) * TILE;
+        for (int k = 0; k < TILE; k += 1) {
+            double temp = a[x + k];
+            a[x + k] = b[y + k];
+            b[y + k] = temp;
+        }
+    }
+
+    /** Applies the row exchanges SWAPS of the first WIDTH cols of the
+     *  decomposed col of tiles TK, whose tiles are PANEL, to col of
+     *  tiles TJ, and if it lies to the right of TK, updates it with
+     *  the panel: the tile in row TK is solved against the unit lower
+     *  triangle of the panel, and the product of the rest of the panel
+     *  and that tile is subtracted from the tiles below it. */
+    private void update(double[][] panel, int[] swaps, int tk, int tj,
+                        int width) {
+        double[][] col = column(tk, tj);
+        boolean[] changed = new boolean[col.length];
+        for (int q = 0; q < width; q += 1) {
+            int k = tk * TILE + q;
+            if (swaps[q] != k) {
+                swapRows(col, tk, k, swaps[q]);
+                changed[0] = true;
+                changed[swaps[q] / TILE - tk] = true;
+            }
+        }
+        if (tj > tk) {
+            double[] top = col[0];
+            double[] diag = panel[0];
+            for (int i = 1; i < width; i += 1) {
+                for (int q = 0; q < i; q += 1) {
+                    double f = diag[i * TILE + q];
+                    if (f != 0) {
+                        Kernels.INSTANCE.axpy(-f, top, q * TILE, top,
+                            i * TILE, TILE);
+                    }
+                }
+            }
+            IntStream.range(1, col.length).parallel().forEach(t ->
+                subtractProduct(panel[t], top, col[t]));
+            Arrays.fill(changed, true);
+        }
+        for (int t = 0; t < col.length; t += 1) {
+            if (changed[t]) {
+                _lu.put(tk + t, tj, col[t]);
+            }
+        }
+    }
+
+    /** Subtracts the product of the tiles A and B from the tile C. */
+    private static void subtractProduct(double[] a, double[] b,
+                                        double[] c) {
+        for (int i = 0; i < TILE; i += 1) {
+            int row = i * TILE;
+            for (int k = 0; k < TILE; k += 1) {
+                double aik = a[row + k];
+                if (aik != 0) {
+                    Kernels.INSTANCE.axpy(-aik, b, k * TILE, c, row, TILE);
+                }
+            }
+        }
+    }
+
+    /** Whether the decomposed matrix is singular. */
+    boolean isSingular() {
+        return _rank < _n;
+    }
+
+    /** Determinant of the decomposed matrix, the signed product of the
+     *  pivots. */
+    double det() {
+        double det = _sign;
+        for (int i = 0; i < _n; i += 1) {
+            double pivot = _lu.get(i, i);
+            if (pivot == 0) {
+                return 0;
+            }
+            det *= pivot;
+        }
+        return det;
+    }
+
+    /** The unit lower triangular factor L, held in tiles. */
+    TiledMatrixObj lower() {
+        return triangle(true);
+    }
+
+    /** The upper triangular factor U, held in tiles. */
+    TiledMatrixObj upper() {
+        return triangle(false);
+    }
+
+    /** The factor L if LOWER and U otherwise, copied tile by tile. */
+    private TiledMatrixObj triangle(boolean lower) {
+        TiledMatrixObj result = new TiledMatrixObj(_n, _n);
+        for (int ti = 0; ti < _tiles; ti += 1) {
+            for (int tj = 0; tj < _tiles; tj += 1) {
+                if (lower ? tj > ti : tj < ti) {
+                    continue;
+                }
+                double[] tile = _lu.tile(ti, tj).clone();
+                if (ti == tj) {
+                    int size = Math.min(TILE, _n - ti * TILE);
+                    for (int i = 0; i < TILE; i += 1) {
+                        for (int j = 0; j < TILE; j += 1) {
+                            if (lower ? j >= i : j < i) {
+                                tile[i * TILE + j] = 0;
+                            }
+                        }
+                        if (lower && i < size) {
+                            tile[i * TILE + i] = 1;
+                        }
+                    }
+                }
+                result.put(ti, tj, tile);
+            }
+        }
+        return result;
+    }
+
+    /** The permutation matrix P, which is sparse. */
+    MatrixObj permutation() {
+        int n = _n;
+        int[] ptr = new int[n + 1];
+        int[] idx = new int[n];
+        double[] vals = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            ptr[i + 1] = i + 1;
+            idx[i] = _piv[i];
+            vals[i] = 1;
+        }
+        return new SparseMatrixObj(n, n, ptr, idx, vals, false);
+    }
+
+    /** Returns X solving A * X = B for the N x K matrix B, reading
+     *  each tile of L and U once. */
+    MatrixObj solve(MatrixObj b) {
+        if (b.rows() != _n) {
+            throw error("bad dimensions for solve");
+        }
+        if (isSingular()) {
+            throw error("matrix is singular");
+        }
+        int n = _n;
+        int k = b.cols();
+        double[] x = new double[n * k];
+        for (int i = 0; i < n; i += 1) {
+            for (int j = 0; j < k; j += 1) {
+                x[i * k + j] = b.get(_piv[i], j);
+            }
+        }
+        for (int ti = 0; ti < _tiles; ti += 1) {
+            for (int tj = 0; tj <= ti; tj += 1) {
+                eliminate(_lu.tile(ti, tj), ti, tj, x, k, true);
+            }
+        }
+        for (int ti = _tiles - 1; ti >= 0; ti -= 1) {
+            for (int tj = _tiles - 1; tj >= ti; tj -= 1) {
+                eliminate(_lu.tile(ti, tj), ti, tj, x, k, false);
+            }
+        }
+        return new MatrixObj(n, k, x);
+    }
+
+    /** Subtracts from the rows of the N x K row-major X in tile row TI
+     *  the product of TILE, which is tile (TI, TJ) of L if FORWARD and
+     *  of U otherwise, and the rows of X in tile row TJ. On the
+     *  diagonal the rows are substituted in order, and divided by the
+     *  diagonal of U when going back. */
+    private void eliminate(double[] tile, int ti, int tj, double[] x,
+                           int k, boolean forward) {
+        int i0 = ti * TILE;
+        int j0 = tj * TILE;
+        int height = Math.min(TILE, _n - i0);
+        int width = Math.min(TILE, _n - j0);
+        for (int r = 0; r < height; r += 1) {
+            int i = forward ? r : height - 1 - r;
+            int from = ti != tj ? 0 : forward ? 0 : i + 1;
+            int to = ti != tj ? width : forward ? i : width;
+            for (int q = from; q < to; q += 1) {
+                double f = tile[i * TILE + q];
+                if (f != 0) {
+                    Kernels.INSTANCE.axpy(-f, x, (j0 + q) * k, x,
+                        (i0 + i) * k, k);
+                }
+            }
+            if (ti == tj && !forward) {
+                double d = tile[i * TILE + i];
+                for (int j = 0; j < k; j += 1) {
+                    x[(i0 + i) * k + j] /= d;
+                }
+            }
+        }
+    }
+
+}
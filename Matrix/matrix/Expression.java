@@ -0,0 +1,532 @@
+package matrix;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static matrix.MatrixException.error;
+
+/** A lazily evaluated expression over saved matrices, such as
+ *  (a + b) * 2 ^ T. Sums, scalings and transposes are linear, so
+ *  everything between two matrix products is kept as one weighted sum
+ *  of possibly transposed operands and computed in a single fused
+ *  pass. Only the operands of products and the final result are ever
+ *  materialized.
+ *
+ *  A product chain is read left to right, so ^ T transposes
+ *  everything before it in the same chain: a * b ^ T is (a * b) ^ T,
+ *  and a * (b ^ T) needs the parentheses.
+ *  @author Christian Choi */
+
+class Expression {
+
+    /** Side of the blocks of the result the fused kernel visits,
+     *  chosen so a block of the result and of each transposed operand
+     *  stay in L1 together. */
+    private static final int TILE = 64;
+
+    /** The expression TEXT over the matrices saved in MATRICES. */
+    static Expression parse(String text, Map<String, MatrixObj> matrices) {
+        Expression expr = new Expression(text, matrices);
+        Value value = expr.sum();
+        if (expr._pos < expr._tokens.size()) {
+            throw error("bad expression");
+        } else if (value._terms == null) {
+            throw error("expression must give a matrix");
+        }
+        expr._value = value;
+        return expr;
+    }
+
+    /** Names of everything in the expression TEXT which could be a
+     *  saved matrix, or none if TEXT cannot be parsed. */
+    static ArrayList<String> names(String text) {
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<String> tokens;
+        try {
+            tokens = tokenize(text);
+        } catch (MatrixException excp) {
+            return names;
+        }
+        for (int i = 0; i < tokens.size(); i += 1) {
+            String token = tokens.get(i);
+            if (isWord(token)
+                && (i == 0 || !tokens.get(i - 1).equals("^"))) {
+                names.add(token);
+            }
+        }
+        return names;
+    }
+
+    /** A + SIGN * B, which have the same dimensions, computed in one
+     *  fused pass that reads strided views such as transposes in
+     *  place. */
+    static MatrixObj add(MatrixObj a, MatrixObj b, double sign) {
+        ArrayList<Term> terms = new ArrayList<>();
+        Source left = new Source(null, a);
+        terms.add(new Term(1, left, false));
+        addTerm(terms, new Term(sign, a == b ? left : new Source(null, b),
+            false));
+        return fuse(new Value(terms, a.rows(), a.cols()));
+    }
+
+    /** The value of this expression. */
+    MatrixObj evaluate() {
+        return materialize(_value);
+    }
+
+    /** The steps taken to evaluate this expression, one per line,
+     *  ending with the step that saves it as NAME. */
+    String explain(String name) {
+        StringBuilder plan = new StringBuilder();
+        String sum = describe(_value, plan, new int[] {0});
+        plan.append(name).append(" = ").append(sum).append('\t');
+        Term t = _value._terms.get(0);
+        if (_value._terms.size() > 1 || t._coef != 1) {
+            plan.append(fusedPass(_value));
+        } else if (t._transposed) {
+            plan.append("(view, no pass)");
+        } else {
+            plan.append("(no pass)");
+        }
+        return plan.append('\n').toString();
+    }
+
+    /** One operand of a weighted sum: COEF times SOURCE, transposed if
+     *  TRANSPOSED. */
+    private static class Term {
+        Term(double coef, Source source, boolean transposed) {
+            _coef = coef;
+            _source = source;
+            _transposed = transposed;
+        }
+
+        /** Weight of this operand. */
+        private final double _coef;
+        /** The matrix read. */
+        private final Source _source;
+        /** Whether the matrix is read transposed. */
+        private final boolean _transposed;
+    }
+
+    /** A saved matrix, or the product of two values, which is computed
+     *  when first needed. */
+    private static class Source {
+        Source(String name, MatrixObj matrix) {
+            _name = name;
+            _matrix = matrix;
+            _rows = matrix.rows();
+            _cols = matrix.cols();
+        }
+
+        Source(Value left, Value right) {
+            _left = left;
+            _right = right;
+            _rows = left._rows;
+            _cols = right._cols;
+        }
+
+        /** Name of a saved matrix, or of a product once described. */
+        private String _name;
+        /** The matrix, or null for a product not yet computed. */
+        private MatrixObj _matrix;
+        /** Operands of a product. */
+        private Value _left, _right;
+        /** Dimensions of the matrix. */
+        private final int _rows, _cols;
+    }
+
+    /** A number, if _terms is null, or else the ROWS x COLS sum of
+     *  _terms. */
+    private static class Value {
+        Value(double scalar) {
+            _scalar = scalar;
+            _terms = null;
+        }
+
+        Value(ArrayList<Term> terms, int rows, int cols) {
+            _terms = terms;
+            _rows = rows;
+            _cols = cols;
+        }
+
+        /** The number. */
+        private double _scalar;
+        /** Operands of the sum. */
+        private final ArrayList<Term> _terms;
+        /** Dimensions of the sum. */
+        private int _rows, _cols;
+    }
+
+    private Expression(String text, Map<String, MatrixObj> matrices) {
+        _tokens = tokenize(text);
+        _matrices = matrices;
+    }
+
+    /** Splits TEXT into words and operator symbols. */
+    private static ArrayList<String> tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i += 1;
+            } else if (isWordChar(c)) {
+                int start = i;
+                while (i < text.length() && isWordChar(text.charAt(i))) {
+                    i += 1;
+                }
+                tokens.add(text.substring(start, i));
+            } else if ("+-*^()".indexOf(c) >= 0) {
+                tokens.add(String.valueOf(c));
+                i += 1;
+            } else {
+                throw error("bad expression");
+            }
+        }
+        return tokens;
+    }
+
+    /** Whether C may appear in a name or number. */
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+
+    /** Whether TOKEN is a name or number. */
+    private static boolean isWord(String token) {
+        return isWordChar(token.charAt(0));
+    }
+
+    /** The next token, or null at the end. */
+    private String peek() {
+        return _pos < _tokens.size() ? _tokens.get(_pos) : null;
+    }
+
+    /** Consumes the next token if it is TOKEN. */
+    private boolean accept(String token) {
+        if (token.equals(peek())) {
+            _pos += 1;
+            return true;
+        }
+        return false;
+    }
+
+    /** Parses a sum of products. */
+    private Value sum() {
+        Value value = chain();
+        while (true) {
+            if (accept("+")) {
+                value = add(value, chain(), 1);
+            } else if (accept("-")) {
+                value = add(value, chain(), -1);
+            } else {
+                return value;
+            }
+        }
+    }
+
+    /** Parses a chain of products and transposes, read left to
+     *  right. */
+    private Value chain() {
+        Value value = unary();
+        while (true) {
+            if (accept("*")) {
+                value = multiply(value, unary());
+            } else if (accept("^")) {
+                if (!accept("t")) {
+                    throw error("bad expression");
+                }
+                value = transpose(value);
+            } else {
+                return value;
+            }
+        }
+    }
+
+    /** Parses an optionally negated name, number or parenthesized
+     *  expression. */
+    private Value unary() {
+        if (accept("-")) {
+            return scale(unary(), -1);
+        } else if (accept("(")) {
+            Value value = sum();
+            if (!accept(")")) {
+                throw error("bad expression");
+            }
+            return value;
+        }
+        String token = peek();
+        if (token == null || !isWord(token)) {
+            throw error("bad expression");
+        }
+        _pos += 1;
+        MatrixObj m = _matrices.get(token);
+        if (m != null) {
+            ArrayList<Term> terms = new ArrayList<>();
+            Source source = _sources.computeIfAbsent(token,
+                name -> new Source(name, m));
+            terms.add(new Term(1, source, false));
+            return new Value(terms, m.rows(), m.cols());
+        }
+        try {
+            return new Value(Double.parseDouble(token));
+        } catch (NumberFormatException excp) {
+            throw error("matrix does not exist");
+        }
+    }
+
+    /** A + SIGN * B. */
+    private static Value add(Value a, Value b, double sign) {
+        if (a._terms == null && b._terms == null) {
+            return new Value(a._scalar + sign * b._scalar);
+        } else if (a._terms == null || b._terms == null) {
+            throw error("can't add a number to a matrix");
+        } else if (a._rows != b._rows || a._cols != b._cols) {
+            throw error("can't add matrices of differing dimensions");
+        }
+        ArrayList<Term> terms = new ArrayList<>(a._terms);
+        for (Term t : b._terms) {
+            addTerm(terms, new Term(sign * t._coef, t._source,
+                t._transposed));
+        }
+        return new Value(terms, a._rows, a._cols);
+    }
+
+    /** Adds TERM to TERMS, merging it with a term reading the same
+     *  matrix the same way. */
+    private static void addTerm(ArrayList<Term> terms, Term term) {
+        for (int i = 0; i < terms.size(); i += 1) {
+            Term t = terms.get(i);
+            if (t._source == term._source
+                && t._transposed == term._transposed) {
+                terms.set(i, new Term(t._coef + term._coef, t._source,
+                    t._transposed));
+                return;
+            }
+        }
+        terms.add(term);
+    }
+
+    /** A * B, where either may be a number. */
+    private static Value multiply(Value a, Value b) {
+        if (a._terms == null) {
+            return scale(b, a._scalar);
+        } else if (b._terms == null) {
+            return scale(a, b._scalar);
+        } else if (a._cols != b._rows) {
+            throw error("bad dimensions for multiplication");
+        }
+        ArrayList<Term> terms = new ArrayList<>();
+        terms.add(new Term(1, new Source(a, b), false));
+        return new Value(terms, a._rows, b._cols);
+    }
+
+    /** V times CONSTANT. */
+    private static Value scale(Value v, double constant) {
+        if (v._terms == null) {
+            return new Value(v._scalar * constant);
+        }
+        ArrayList<Term> terms = new ArrayList<>();
+        for (Term t : v._terms) {
+            terms.add(new Term(t._coef * constant, t._source,
+                t._transposed));
+        }
+        return new Value(terms, v._rows, v._cols);
+    }
+
+    /** The transpose of V. */
+    private static Value transpose(Value v) {
+        if (v._terms == null) {
+            return v;
+        }
+        ArrayList<Term> terms = new ArrayList<>();
+        for (Term t : v._terms) {
+            terms.add(new Term(t._coef, t._source, !t._transposed));
+        }
+        return new Value(terms, v._cols, v._rows);
+    }
+
+    /** The matrix SOURCE stands for, computing it if it is a
+     *  product. */
+    private static MatrixObj matrix(Source source) {
+        if (source._matrix == null) {
+            source._matrix = MultiplierGEMM.multiply(
+                materialize(source._left), materialize(source._right));
+        }
+        return source._matrix;
+    }
+
+    /** V as a matrix. A single unweighted operand is returned as is,
+     *  or as a view when transposed, and any other sum is computed in
+     *  one fused pass. */
+    private static MatrixObj materialize(Value v) {
+        if (v._terms.size() == 1 && v._terms.get(0)._coef == 1) {
+            Term t = v._terms.get(0);
+            MatrixObj m = matrix(t._source);
+            return t._transposed ? m.transpose() : m;
+        }
+        return fuse(v);
+    }
+
+    /** Computes the sum V in one pass over blocks of the result, each
+     *  block accumulating every dense operand before moving on.
+     *  Sparse operands are scattered into the result, and operands
+     *  of floats or off the heap are read from copies in arrays of
+     *  doubles. Sums too large for the heap, or of operands held in
+     *  tiles, are computed in one pass over the tiles of the result
+     *  instead. */
+    private static MatrixObj fuse(Value v) {
+        int rows = v._rows;
+        int cols = v._cols;
+        boolean tiled = (long) rows * cols > TiledMatrixObj.MIN_TILED;
+        MatrixObj[] operands = new MatrixObj[v._terms.size()];
+        double[] coefs = new double[operands.length];
+        for (int k = 0; k < operands.length; k += 1) {
+            Term t = v._terms.get(k);
+            MatrixObj m = matrix(t._source);
+            operands[k] = t._transposed ? m.transpose() : m;
+            coefs[k] = t._coef;
+            tiled |= m.isTiled();
+        }
+        if (tiled) {
+            return TiledMatrixObj.combine(operands, coefs);
+        }
+        double[] result = new double[rows * cols];
+        ArrayList<Term> dense = new ArrayList<>();
+        for (Term t : v._terms) {
+            if (t._coef == 0) {
+                continue;
+            }
+            MatrixObj m = matrix(t._source);
+            MatrixObj heap = m.isSparse() ? m : m.onHeap();
+            if (m.isSparse()) {
+                scatter(result, cols, t._coef, (SparseMatrixObj) m,
+                    t._transposed);
+            } else if (heap != m) {
+                dense.add(new Term(t._coef, new Source(null, heap),
+                    t._transposed));
+            } else {
+                dense.add(t);
+            }
+        }
+        for (int ii = 0; ii < rows; ii += TILE) {
+            int iEnd = Math.min(rows, ii + TILE);
+            for (int jj = 0; jj < cols; jj += TILE) {
+                int jEnd = Math.min(cols, jj + TILE);
+                for (Term t : dense) {
+                    MatrixObj m = t._source._matrix;
+                    double[] data = m.data();
+                    int rs = t._transposed ? m.colStride() : m.rowStride();
+                    int cs = t._transposed ? m.rowStride() : m.colStride();
+                    double coef = t._coef;
+                    for (int i = ii; i < iEnd; i += 1) {
+                        int base = m.offset() + i * rs;
+                        int row = i * cols;
+                        if (cs == 1) {
+                            Kernels.INSTANCE.axpy(coef, data, base + jj,
+                                result, row + jj, jEnd - jj);
+                            continue;
+                        }
+                        for (int j = jj; j < jEnd; j += 1) {
+                            result[row + j] += coef * data[base + j * cs];
+                        }
+                    }
+                }
+            }
+        }
+        return new MatrixObj(rows, cols, result);
+    }
+
+    /** Adds COEF times M, transposed if TRANSPOSED, to the row-major
+     *  RESULT with COLS cols. */
+    private static void scatter(double[] result, int cols, double coef,
+                                SparseMatrixObj m, boolean transposed) {
+        int[] ptr = m.ptr();
+        int[] idx = m.idx();
+        double[] vals = m.vals();
+        boolean byCols = m.byCols() != transposed;
+        for (int major = 0; major + 1 < ptr.length; major += 1) {
+            for (int k = ptr[major]; k < ptr[major + 1]; k += 1) {
+                int i = byCols ? idx[k] : major;
+                int j = byCols ? major : idx[k];
+                result[i * cols + j] += coef * vals[k];
+            }
+        }
+    }
+
+    /** Appends to PLAN the steps computing V, numbering products from
+     *  COUNT[0], and returns how V is written in the last step. */
+    private static String describe(Value v, StringBuilder plan,
+                                   int[] count) {
+        ArrayList<String> parts = new ArrayList<>();
+        for (Term t : v._terms) {
+            Source s = t._source;
+            if (s._name == null) {
+                String left = operand(s._left, plan, count);
+                String right = operand(s._right, plan, count);
+                count[0] += 1;
+                s._name = "t" + count[0];
+                plan.append(s._name).append(" = ").append(left)
+                    .append(" * ").append(right).append("\t(multiply, ")
+                    .append(s._rows).append(" x ").append(s._cols)
+                    .append(")\n");
+            }
+            String part = s._name + (t._transposed ? "^T" : "");
+            if (t._coef == -1) {
+                part = "-" + part;
+            } else if (t._coef != 1) {
+                part = number(t._coef) + " * " + part;
+            }
+            parts.add(part);
+        }
+        return String.join(" + ", parts).replace("+ -", "- ");
+    }
+
+    /** Appends to PLAN the steps materializing V as the operand of a
+     *  product, returning its name. */
+    private static String operand(Value v, StringBuilder plan,
+                                  int[] count) {
+        String sum = describe(v, plan, count);
+        Term t = v._terms.get(0);
+        if (v._terms.size() == 1 && t._coef == 1) {
+            return sum;
+        }
+        count[0] += 1;
+        String name = "t" + count[0];
+        plan.append(name).append(" = ").append(sum).append('\t')
+            .append(fusedPass(v)).append('\n');
+        return name;
+    }
+
+    /** Description of the fused pass computing V. */
+    private static String fusedPass(Value v) {
+        return "(fused pass over " + v._terms.size() + " operand"
+            + (v._terms.size() == 1 ? "" : "s") + ", " + v._rows
+            + " x " + v._cols + ")";
+    }
+
+    /** D written without a fractional part when it has none. */
+    private static String number(double d) {
+        if (d == Math.rint(d) && Math.abs(d) < 1L << 53) {
+            return Long.toString((long) d);
+        }
+        return Double.toString(d);
+    }
+
+    /** Tokens of the expression. */
+    private final ArrayList<String> _tokens;
+
+    /** Index of the next token to parse. */
+    private int _pos;
+
+    /** Saved matrices operands are looked up in. */
+    private final Map<String, MatrixObj> _matrices;
+
+    /** The one source read for each saved matrix named, so that terms
+     *  naming the same matrix merge. */
+    private final HashMap<String, Source> _sources = new HashMap<>();
+
+    /** The parsed expression. */
+    private Value _value;
+
+}
@@ -0,0 +1,91 @@
+package matrix;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/** Cache of factorizations and other derived results of saved
+ *  matrices. Entries are keyed on the identity of the matrix, which
+ *  is never modified once created, and the least recently used
+ *  matrices are evicted once more than a fixed number are cached.
+ *  @author Christian Choi */
+
+class FactorCache {
+
+    /** Kinds of results that are cached for a matrix. */
+    static enum Kind {
+        LU, MIXED_LU, TILED_LU, CHOLESKY, QR, EIGEN, SVD, INVERSE,
+        DETERMINANT, RREF
+    }
+
+    /** Default number of matrices whose results are kept. */
+    static final int DEFAULT_CAPACITY = 32;
+
+    /** Number of matrices whose results are kept. */
+    private final int _capacity;
+
+    /** Cached results for each matrix, least recently used first. */
+    private final LinkedHashMap<MatrixObj, EnumMap<Kind, Object>> _entries;
+
+    /** Number of lookups that found or missed a cached result. */
+    private long _hits, _misses;
+
+    /** A cache holding results of at most CAPACITY matrices. */
+    FactorCache(int capacity) {
+        _capacity = capacity;
+        _entries = new LinkedHashMap<MatrixObj, EnumMap<Kind, Object>>(
+            16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<MatrixObj, EnumMap<Kind, Object>> eldest) {
+                return size() > _capacity;
+            }
+        };
+    }
+
+    /** Returns the KIND result for M, computing it with COMPUTE and
+     *  caching it if it is not already cached. */
+    @SuppressWarnings("unchecked")
+    <T> T get(MatrixObj m, Kind kind, Function<MatrixObj, T> compute) {
+        synchronized (this) {
+            EnumMap<Kind, Object> entry = _entries.get(m);
+            if (entry != null && entry.containsKey(kind)) {
+                _hits += 1;
+                return (T) entry.get(kind);
+            }
+            _misses += 1;
+        }
+        T result = compute.apply(m);
+        synchronized (this) {
+            EnumMap<Kind, Object> entry = _entries.get(m);
+            if (entry == null) {
+                entry = new EnumMap<>(Kind.class);
+                _entries.put(m, entry);
+            }
+            entry.put(kind, result);
+        }
+        return result;
+    }
+
+    /** Drops every result cached for M. */
+    synchronized void invalidate(MatrixObj m) {
+        if (m != null) {
+            _entries.remove(m);
+        }
+    }
+
+    /** Drops every cached result. */
+    synchronized void clear() {
+        _entries.clear();
+    }
+
+    /** Summary of the use of this cache. */
+    synchronized String stats() {
+        return "cache hits: " + _hits
+            + "\ncache misses: " + _misses
+            + "\ncached matrices: " + _entries.size()
+            + " (max " + _capacity + ")";
+    }
+
+}
@@ -0,0 +1,261 @@
+package matrix;
+
+import java.util.stream.IntStream;
+
+/** A dense matrix which stores its elements as floats, so that it
+ *  takes half the memory of a matrix of doubles and half the bytes
+ *  are moved by each pass over it. Sums, scalings and products of
+ *  such matrices are computed in floats and stored as floats, while
+ *  every other operation reads their elements as doubles. Elements
+ *  are held row-major, and the transpose is the same array read
+ *  col-major, so transposing is free.
+ *  @author Christian Choi
+ */
+class FloatMatrixObj extends MatrixObj {
+
+    /** Depth of each block of the shared dimension of a product,
+     *  chosen so a packed block of the right operand stays in L2. */
+    private static final int KC = 128;
+
+    /** Width of each packed panel of the right operand of a product,
+     *  chosen so a row of the panel stays in L1. */
+    private static final int NC = 512;
+
+    /** Number of rows of a product computed by each parallel task. */
+    private static final int MC = 64;
+
+    /** Number of multiply-adds below which a product is computed on
+     *  the calling thread. */
+    private static final long SERIAL_WORK = 64L * 64 * 64;
+
+    /** Number of elements added or scaled by each parallel task. */
+    private static final int CHUNK = 1 << 16;
+
+    /** Elements in row-major order, or col-major if _transposed. */
+    private final float[] _vals;
+
+    /** Whether _vals holds this matrix col-major. */
+    private final boolean _transposed;
+
+    /** A ROWS x COLS matrix whose elements are VALS in col-major order
+     *  if TRANSPOSED and row-major order otherwise. VALS is not
+     *  copied. */
+    FloatMatrixObj(int rows, int cols, float[] vals, boolean transposed) {
+        super(rows, cols);
+        _vals = vals;
+        _transposed = transposed;
+    }
+
+    /** The ROWS x COLS matrix whose elements are ELEMS in row-major
+     *  order, each rounded to the nearest float. */
+    static FloatMatrixObj of(int rows, int cols, double[] elems) {
+        float[] vals = new float[rows * cols];
+        for (int k = 0; k < vals.length; k += 1) {
+            vals[k] = (float) elems[k];
+        }
+        return new FloatMatrixObj(rows, cols, vals, false);
+    }
+
+    @Override
+    public boolean isFloat() {
+        return true;
+    }
+
+    @Override
+    public MatrixObj onHeap() {
+        return new MatrixObj(rows(), cols(), toArray());
+    }
+
+    /** Backing storage of this matrix. */
+    float[] vals() {
+        return _vals;
+    }
+
+    /** Whether the backing storage holds this matrix col-major. */
+    boolean transposed() {
+        return _transposed;
+    }
+
+    /** The elements of this matrix in row-major order. The backing
+     *  storage is returned when it is already row-major, so the result
+     *  must not be modified. */
+    float[] floats() {
+        if (!_transposed) {
+            return _vals;
+        }
+        int rows = rows();
+        int cols = cols();
+        float[] result = new float[rows * cols];
+        for (int i = 0; i < rows; i += 1) {
+            for (int j = 0; j < cols; j += 1) {
+                result[i * cols + j] = _vals[j * rows + i];
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        return _transposed ? _vals[j * rows() + i] : _vals[i * cols() + j];
+    }
+
+    @Override
+    public double get(int k) {
+        if (!_transposed) {
+            return _vals[k];
+        }
+        return get(k / cols(), k % cols());
+    }
+
+    @Override
+    public boolean isRowMajor() {
+        return false;
+    }
+
+    @Override
+    public double[] elems() {
+        return toArray();
+    }
+
+    @Override
+    public double[] toArray() {
+        float[] vals = floats();
+        double[] result = new double[vals.length];
+        for (int k = 0; k < vals.length; k += 1) {
+            result[k] = vals[k];
+        }
+        return result;
+    }
+
+    @Override
+    public double[] row(int i) {
+        double[] result = new double[cols()];
+        for (int j = 0; j < result.length; j += 1) {
+            result[j] = get(i, j);
+        }
+        return result;
+    }
+
+    /** The transpose of this matrix, sharing its storage. */
+    @Override
+    public FloatMatrixObj transpose() {
+        return new FloatMatrixObj(cols(), rows(), _vals, !_transposed);
+    }
+
+    /** Returns this matrix with every element multiplied by
+     *  CONSTANT, in floats. */
+    FloatMatrixObj scale(double constant) {
+        float alpha = (float) constant;
+        float[] result = new float[_vals.length];
+        chunked(result.length, (from, to) ->
+            Kernels.INSTANCE.scale(_vals, alpha, result, from, to));
+        return new FloatMatrixObj(rows(), cols(), result, _transposed);
+    }
+
+    /** Returns A + SIGN * B in floats for matrices of floats of equal
+     *  dimensions. */
+    static FloatMatrixObj add(FloatMatrixObj a, FloatMatrixObj b,
+                              double sign) {
+        boolean transposed = a._transposed && b._transposed;
+        float[] x = transposed ? a._vals : a.floats();
+        float[] y = transposed ? b._vals : b.floats();
+        float[] c = new float[x.length];
+        chunked(c.length, (from, to) -> {
+            if (sign > 0) {
+                Kernels.INSTANCE.add(x, y, c, from, to);
+            } else {
+                Kernels.INSTANCE.subtract(x, y, c, from, to);
+            }
+        });
+        return new FloatMatrixObj(a.rows(), a.cols(), c, transposed);
+    }
+
+    /** Returns the product of A and B, matrices of floats with
+     *  agreeing dimensions, computed in floats with the same cache
+     *  blocked loops over a packed copy of B as products of doubles.
+     *  Large products are split over blocks of rows of A which run in
+     *  parallel. */
+    static FloatMatrixObj multiply(FloatMatrixObj a, FloatMatrixObj b) {
+        int m = a.rows();
+        int n = a.cols();
+        int p = b.cols();
+        float[] x = a.floats();
+        float[] packed = b.pack();
+        float[] c = new float[m * p];
+        if ((long) m * n * p <= SERIAL_WORK) {
+            multiplyRows(x, packed, c, n, p, 0, m);
+        } else {
+            IntStream.range(0, (m + MC - 1) / MC).parallel().forEach(
+                blk -> multiplyRows(x, packed, c, n, p, blk * MC,
+                    Math.min(m, (blk + 1) * MC)));
+        }
+        return new FloatMatrixObj(m, p, c, false);
+    }
+
+    /** Copies this matrix into panels of at most NC cols. The panel
+     *  starting at col JC begins at index JC * rows() and holds its
+     *  rows contiguously. */
+    private float[] pack() {
+        int n = rows();
+        int p = cols();
+        float[] packed = new float[n * p];
+        for (int jc = 0; jc < p; jc += NC) {
+            int width = Math.min(NC, p - jc);
+            int base = jc * n;
+            for (int k = 0; k < n; k += 1) {
+                if (!_transposed) {
+                    System.arraycopy(_vals, k * p + jc, packed,
+                        base + k * width, width);
+                } else {
+                    for (int j = 0; j < width; j += 1) {
+                        packed[base + k * width + j] =
+                            _vals[(jc + j) * n + k];
+                    }
+                }
+            }
+        }
+        return packed;
+    }
+
+    /** Computes the rows [LO, HI) of the product of the row-major
+     *  _ x N matrix A and the packed N x P matrix B into C. */
+    private static void multiplyRows(float[] a, float[] packed, float[] c,
+                                     int n, int p, int lo, int hi) {
+        for (int kc = 0; kc < n; kc += KC) {
+            int kEnd = Math.min(n, kc + KC);
+            for (int jc = 0; jc < p; jc += NC) {
+                int width = Math.min(NC, p - jc);
+                int base = jc * n;
+                for (int i = lo; i < hi; i += 1) {
+                    int cRow = i * p + jc;
+                    for (int k = kc; k < kEnd; k += 1) {
+                        float aik = a[i * n + k];
+                        if (aik == 0) {
+                            continue;
+                        }
+                        int bRow = base + k * width;
+                        for (int j = 0; j < width; j += 1) {
+                            c[cRow + j] += aik * packed[bRow + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** A loop over a range of elements. */
+    private interface Range {
+        /** Runs the loop over [FROM, TO). */
+        void run(int from, int to);
+    }
+
+    /** Runs BODY over [0, SIZE) in chunks of CHUNK elements, in
+     *  parallel. */
+    private static void chunked(int size, Range body) {
+        int chunks = (size + CHUNK - 1) / CHUNK;
+        IntStream.range(0, chunks).parallel().forEach(c ->
+            body.run(c * CHUNK,
+                (int) Math.min(size, (c + 1L) * CHUNK)));
+    }
+
+}
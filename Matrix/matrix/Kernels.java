@@ -0,0 +1,95 @@
+package matrix;
+
+/** Elementwise kernels on ranges of arrays of doubles, behind add,
+ *  subtract, scaling, dot products and the iterative solvers, with
+ *  float versions of the first three for matrices of floats. These
+ *  are plain scalar loops. KernelsVector, in the separate vector
+ *  source root, overrides them with SIMD loops written with the
+ *  jdk.incubator.vector module, and is used in their place whenever it
+ *  is on the class path and the module is added with
+ *  --add-modules jdk.incubator.vector, both when compiling it and when
+ *  running. Otherwise loading it fails and these are used.
+ *  @author Christian Choi */
+
+class Kernels {
+
+    /** The kernels in use. */
+    static final Kernels INSTANCE = load();
+
+    /** Returns KernelsVector if it can be loaded, and scalar kernels
+     *  otherwise. */
+    private static Kernels load() {
+        try {
+            return (Kernels) Class.forName("matrix.KernelsVector")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new Kernels();
+        }
+    }
+
+    /** Name of these kernels. */
+    String name() {
+        return "scalar";
+    }
+
+    /** Sets C[i] to A[i] + B[i] for FROM <= i < TO. */
+    void add(double[] a, double[] b, double[] c, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            c[i] = a[i] + b[i];
+        }
+    }
+
+    /** Sets C[i] to A[i] - B[i] for FROM <= i < TO. */
+    void subtract(double[] a, double[] b, double[] c, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            c[i] = a[i] - b[i];
+        }
+    }
+
+    /** Sets C[i] to ALPHA * A[i] for FROM <= i < TO. */
+    void scale(double[] a, double alpha, double[] c, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            c[i] = alpha * a[i];
+        }
+    }
+
+    /** Sets C[i] to A[i] + B[i] for FROM <= i < TO, in floats. */
+    void add(float[] a, float[] b, float[] c, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            c[i] = a[i] + b[i];
+        }
+    }
+
+    /** Sets C[i] to A[i] - B[i] for FROM <= i < TO, in floats. */
+    void subtract(float[] a, float[] b, float[] c, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            c[i] = a[i] - b[i];
+        }
+    }
+
+    /** Sets C[i] to ALPHA * A[i] for FROM <= i < TO, in floats. */
+    void scale(float[] a, float alpha, float[] c, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            c[i] = alpha * a[i];
+        }
+    }
+
+    /** Adds ALPHA times the N elements of X from XFROM to the N
+     *  elements of Y from YFROM. */
+    void axpy(double alpha, double[] x, int xFrom, double[] y, int yFrom,
+              int n) {
+        for (int i = 0; i < n; i += 1) {
+            y[yFrom + i] += alpha * x[xFrom + i];
+        }
+    }
+
+    /** Sum of X[i] * Y[i] for FROM <= i < TO. */
+    double dot(double[] x, double[] y, int from, int to) {
+        double total = 0;
+        for (int i = from; i < to; i += 1) {
+            total += x[i] * y[i];
+        }
+        return total;
+    }
+
+}
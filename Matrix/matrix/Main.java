@@ -1,13 +1,29 @@
 package matrix;
 
+import java.io.File;
 import java.io.InputStreamReader;
 
-/** The main program for Matrix Calculator
+/** The main program for Matrix Calculator. Given the arguments
+ *  --batch DIR, with --quiet to discard the output of the scripts,
+ *  runs every script in DIR at once instead of reading commands.
  *  @author Christian Choi */
 
 public class Main {
 
     public static void main(String[] args) {
+        if (args.length > 0) {
+            if (args.length < 2 || args.length > 3
+                || !args[0].equals("--batch")
+                || (args.length == 3 && !args[2].equals("--quiet"))) {
+                System.err.println("usage: java matrix.Main "
+                    + "[--batch DIR [--quiet]]");
+                System.exit(1);
+            }
+            BatchRunner runner = new BatchRunner(System.out,
+                args.length == 3,
+                Runtime.getRuntime().availableProcessors());
+            System.exit(runner.run(new File(args[1])) ? 0 : 1);
+        }
         Calculator calculator;
         InputStreamReader reader = new InputStreamReader(System.in);
         calculator = new Calculator(new ReaderSource(reader));
@@ -0,0 +1,369 @@
+package matrix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static matrix.MatrixException.error;
+
+/** Reading and writing matrices in a compact binary format through
+ *  memory mapped files. A file is a 32 byte header followed by raw
+ *  little-endian data. The header holds, in order, the magic number
+ *  MAGIC, the format VERSION, the element type, the layout, the
+ *  number of rows and cols as ints and the number of stored
+ *  elements as a long. Dense layouts are followed by every element;
+ *  sparse layouts by the stored values, then the start of each major
+ *  line, then the minor index of each value. Dense matrices of
+ *  doubles too large for the heap are read into tiles and written
+ *  from them a row of tiles at a time, and those held off the heap
+ *  are copied to and from the file whole.
+ *  @author Christian Choi */
+
+class MatrixFile {
+
+    /** First four bytes of every matrix file, "MTRX". */
+    static final int MAGIC = 0x5852544D;
+
+    /** Version of the format written. */
+    static final int VERSION = 1;
+
+    /** Element types of 8 byte doubles and 4 byte floats. */
+    static final int FLOAT64 = 0, FLOAT32 = 1;
+
+    /** Layouts of the data following the header. */
+    static final int ROW_MAJOR = 0, COL_MAJOR = 1, CSR = 2, CSC = 3;
+
+    /** Size of the header in bytes. */
+    static final int HEADER = 32;
+
+    /** Largest number of bytes mapped at once. */
+    private static final int CHUNK = 1 << 30;
+
+    /** Writes M to the file NAME, replacing it if it exists. */
+    static void write(MatrixObj m, String name) {
+        Path path = Paths.get(name);
+        try (FileChannel ch = FileChannel.open(path,
+                 StandardOpenOption.CREATE, StandardOpenOption.READ,
+                 StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (m.isSparse()) {
+                SparseMatrixObj s = (SparseMatrixObj) m;
+                long nnz = s.nnz();
+                writeHeader(ch, FLOAT64, s.byCols() ? CSC : CSR, m, nnz);
+                long pos = HEADER;
+                pos = putDoubles(ch, pos, s.vals());
+                pos = putInts(ch, pos, s.ptr());
+                putInts(ch, pos, s.idx());
+            } else if (m.isTiled()) {
+                writeHeader(ch, FLOAT64, ROW_MAJOR, m,
+                    (long) m.rows() * m.cols());
+                putTiles(ch, HEADER, (TiledMatrixObj) m);
+            } else if (m.isOffHeap()) {
+                OffHeapMatrixObj o = (OffHeapMatrixObj) m;
+                writeHeader(ch, FLOAT64,
+                    o.transposed() ? COL_MAJOR : ROW_MAJOR, m,
+                    (long) m.rows() * m.cols());
+                o.memory().write(ch, HEADER);
+            } else if (m.isFloat()) {
+                FloatMatrixObj f = (FloatMatrixObj) m;
+                writeHeader(ch, FLOAT32,
+                    f.transposed() ? COL_MAJOR : ROW_MAJOR, m, m.size());
+                putFloats(ch, HEADER, f.vals());
+            } else {
+                int layout = ROW_MAJOR;
+                double[] data = m.elems();
+                if (!m.isRowMajor() && m.offset() == 0
+                    && m.rowStride() == 1 && m.colStride() == m.rows()
+                    && m.data().length == m.size()) {
+                    layout = COL_MAJOR;
+                    data = m.data();
+                }
+                writeHeader(ch, FLOAT64, layout, m, m.size());
+                putDoubles(ch, HEADER, data);
+            }
+        } catch (IOException excp) {
+            throw error("cannot write this file");
+        }
+    }
+
+    /** Reads the matrix in the file NAME, holding it off the heap if it
+     *  is dense, stores doubles and OFFHEAP. */
+    static MatrixObj read(String name, boolean offHeap) {
+        Path path = Paths.get(name);
+        try (FileChannel ch = FileChannel.open(path,
+                 StandardOpenOption.READ)) {
+            if (ch.size() < HEADER) {
+                throw error("not a matrix file");
+            }
+            ByteBuffer header = map(ch, FileChannel.MapMode.READ_ONLY, 0,
+                HEADER);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw error("not a matrix file");
+            }
+            int type = header.getInt();
+            if (type != FLOAT64 && type != FLOAT32) {
+                throw error("unsupported element type");
+            }
+            int layout = header.getInt();
+            int rows = header.getInt();
+            int cols = header.getInt();
+            long nnz = header.getLong();
+            if (rows < 0 || cols < 0 || nnz < 0
+                || (nnz > Integer.MAX_VALUE
+                    && (layout > COL_MAJOR || type == FLOAT32))
+                || (layout <= COL_MAJOR && nnz != (long) rows * cols)
+                || (type == FLOAT32 && layout > COL_MAJOR)) {
+                throw error("corrupt matrix file");
+            }
+            long pos = HEADER;
+            switch (layout) {
+            case ROW_MAJOR:
+            case COL_MAJOR: {
+                if (type == FLOAT32) {
+                    float[] vals = new float[(int) nnz];
+                    getFloats(ch, pos, vals);
+                    if (layout == COL_MAJOR) {
+                        return new FloatMatrixObj(cols, rows, vals, false)
+                            .transpose();
+                    }
+                    return new FloatMatrixObj(rows, cols, vals, false);
+                }
+                if (offHeap) {
+                    return getOffHeap(ch, pos, rows, cols,
+                        layout == COL_MAJOR);
+                } else if (nnz > TiledMatrixObj.MIN_TILED) {
+                    if (layout == COL_MAJOR) {
+                        return getTiles(ch, pos, cols, rows).transpose();
+                    }
+                    return getTiles(ch, pos, rows, cols);
+                }
+                double[] data = new double[(int) nnz];
+                getDoubles(ch, pos, data);
+                if (layout == COL_MAJOR) {
+                    return MatrixObj.colMajor(rows, cols, data);
+                }
+                return new MatrixObj(rows, cols, data);
+            }
+            case CSR:
+            case CSC: {
+                int majors = layout == CSR ? rows : cols;
+                double[] vals = new double[(int) nnz];
+                int[] ptr = new int[majors + 1];
+                int[] idx = new int[(int) nnz];
+                pos = getDoubles(ch, pos, vals);
+                pos = getInts(ch, pos, ptr);
+                getInts(ch, pos, idx);
+                checkCompressed(ptr, idx, layout == CSR ? cols : rows);
+                return new SparseMatrixObj(rows, cols, ptr, idx, vals,
+                    layout == CSC);
+            }
+            default:
+                throw error("unsupported matrix layout");
+            }
+        } catch (IOException excp) {
+            throw error("cannot read this file");
+        }
+    }
+
+    /** Checks that PTR and IDX, as read, describe a compressed matrix
+     *  whose minor dimension is MINORS. */
+    private static void checkCompressed(int[] ptr, int[] idx,
+                                        int minors) {
+        int majors = ptr.length - 1;
+        if (ptr[0] != 0 || ptr[majors] != idx.length) {
+            throw error("corrupt matrix file");
+        }
+        for (int major = 0; major < majors; major += 1) {
+            if (ptr[major] > ptr[major + 1]) {
+                throw error("corrupt matrix file");
+            }
+        }
+        for (int k = 0; k < idx.length; k += 1) {
+            if (idx[k] < 0 || idx[k] >= minors) {
+                throw error("corrupt matrix file");
+            }
+        }
+    }
+
+    /** Writes the header describing M, stored as elements of TYPE with
+     *  LAYOUT and NNZ elements, to the start of CH. */
+    private static void writeHeader(FileChannel ch, int type, int layout,
+                                    MatrixObj m, long nnz)
+        throws IOException {
+        ByteBuffer header = map(ch, FileChannel.MapMode.READ_WRITE, 0,
+            HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(type)
+            .putInt(layout).putInt(m.rows()).putInt(m.cols())
+            .putLong(nnz);
+    }
+
+    /** Maps LEN bytes of CH starting at POS in MODE. */
+    private static ByteBuffer map(FileChannel ch, FileChannel.MapMode mode,
+                                  long pos, long len) throws IOException {
+        MappedByteBuffer buf = ch.map(mode, pos, len);
+        return buf.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Writes DATA to CH at POS, returning the position after it. */
+    private static long putDoubles(FileChannel ch, long pos, double[] data)
+        throws IOException {
+        int per = CHUNK / Double.BYTES;
+        for (int off = 0; off < data.length; off += per) {
+            int len = Math.min(per, data.length - off);
+            map(ch, FileChannel.MapMode.READ_WRITE, pos,
+                (long) len * Double.BYTES).asDoubleBuffer()
+                .put(data, off, len);
+            pos += (long) len * Double.BYTES;
+        }
+        return pos;
+    }
+
+    /** Writes the elements of M in row-major order to CH at POS,
+     *  reading one row of tiles at a time. */
+    private static void putTiles(FileChannel ch, long pos,
+                                 TiledMatrixObj m) throws IOException {
+        int tile = TiledMatrixObj.TILE;
+        int cols = m.cols();
+        double[][] band = new double[TiledMatrixObj.tiles(cols)][];
+        double[] row = new double[cols];
+        for (int i0 = 0; i0 < m.rows(); i0 += tile) {
+            for (int tj = 0; tj < band.length; tj += 1) {
+                band[tj] = m.tile(i0 / tile, tj);
+            }
+            for (int i = 0; i < Math.min(tile, m.rows() - i0); i += 1) {
+                for (int tj = 0; tj < band.length; tj += 1) {
+                    System.arraycopy(band[tj], i * tile, row, tj * tile,
+                        Math.min(tile, cols - tj * tile));
+                }
+                pos = putDoubles(ch, pos, row);
+            }
+        }
+    }
+
+    /** Reads the ROWS x COLS matrix of doubles in CH at POS, col-major
+     *  if TRANSPOSED and row-major otherwise, off the heap. */
+    private static OffHeapMatrixObj getOffHeap(FileChannel ch, long pos,
+                                               int rows, int cols,
+                                               boolean transposed)
+        throws IOException {
+        if (pos + (long) rows * cols * Double.BYTES > ch.size()) {
+            throw error("corrupt matrix file");
+        }
+        OffHeap memory = OffHeap.ALLOCATOR.allocate((long) rows * cols);
+        memory.read(ch, pos);
+        return new OffHeapMatrixObj(rows, cols, memory, transposed);
+    }
+
+    /** Reads the ROWS x COLS row-major matrix of doubles in CH at POS
+     *  into tiles, one row of tiles at a time. */
+    private static TiledMatrixObj getTiles(FileChannel ch, long pos,
+                                           int rows, int cols)
+        throws IOException {
+        if (pos + (long) rows * cols * Double.BYTES > ch.size()) {
+            throw error("corrupt matrix file");
+        }
+        int tile = TiledMatrixObj.TILE;
+        TiledMatrixObj m = new TiledMatrixObj(rows, cols);
+        double[] row = new double[cols];
+        for (int i0 = 0; i0 < rows; i0 += tile) {
+            double[][] band =
+                new double[TiledMatrixObj.tiles(cols)][tile * tile];
+            for (int i = 0; i < Math.min(tile, rows - i0); i += 1) {
+                pos = getDoubles(ch, pos, row);
+                for (int tj = 0; tj < band.length; tj += 1) {
+                    System.arraycopy(row, tj * tile, band[tj], i * tile,
+                        Math.min(tile, cols - tj * tile));
+                }
+            }
+            for (int tj = 0; tj < band.length; tj += 1) {
+                m.put(i0 / tile, tj, band[tj]);
+            }
+        }
+        return m;
+    }
+
+    /** Writes DATA to CH at POS, returning the position after it. */
+    private static long putFloats(FileChannel ch, long pos, float[] data)
+        throws IOException {
+        int per = CHUNK / Float.BYTES;
+        for (int off = 0; off < data.length; off += per) {
+            int len = Math.min(per, data.length - off);
+            map(ch, FileChannel.MapMode.READ_WRITE, pos,
+                (long) len * Float.BYTES).asFloatBuffer()
+                .put(data, off, len);
+            pos += (long) len * Float.BYTES;
+        }
+        return pos;
+    }
+
+    /** Writes DATA to CH at POS, returning the position after it. */
+    private static long putInts(FileChannel ch, long pos, int[] data)
+        throws IOException {
+        int per = CHUNK / Integer.BYTES;
+        for (int off = 0; off < data.length; off += per) {
+            int len = Math.min(per, data.length - off);
+            map(ch, FileChannel.MapMode.READ_WRITE, pos,
+                (long) len * Integer.BYTES).asIntBuffer()
+                .put(data, off, len);
+            pos += (long) len * Integer.BYTES;
+        }
+        return pos;
+    }
+
+    /** Fills DATA from CH at POS, returning the position after it. */
+    private static long getDoubles(FileChannel ch, long pos, double[] data)
+        throws IOException {
+        if (pos + (long) data.length * Double.BYTES > ch.size()) {
+            throw error("corrupt matrix file");
+        }
+        int per = CHUNK / Double.BYTES;
+        for (int off = 0; off < data.length; off += per) {
+            int len = Math.min(per, data.length - off);
+            map(ch, FileChannel.MapMode.READ_ONLY, pos,
+                (long) len * Double.BYTES).asDoubleBuffer()
+                .get(data, off, len);
+            pos += (long) len * Double.BYTES;
+        }
+        return pos;
+    }
+
+    /** Fills DATA from CH at POS, returning the position after it. */
+    private static long getFloats(FileChannel ch, long pos, float[] data)
+        throws IOException {
+        if (pos + (long) data.length * Float.BYTES > ch.size()) {
+            throw error("corrupt matrix file");
+        }
+        int per = CHUNK / Float.BYTES;
+        for (int off = 0; off < data.length; off += per) {
+            int len = Math.min(per, data.length - off);
+            map(ch, FileChannel.MapMode.READ_ONLY, pos,
+                (long) len * Float.BYTES).asFloatBuffer()
+                .get(data, off, len);
+            pos += (long) len * Float.BYTES;
+        }
+        return pos;
+    }
+
+    /** Fills DATA from CH at POS, returning the position after it. */
+    private static long getInts(FileChannel ch, long pos, int[] data)
+        throws IOException {
+        if (pos + (long) data.length * Integer.BYTES > ch.size()) {
+            throw error("corrupt matrix file");
+        }
+        int per = CHUNK / Integer.BYTES;
+        for (int off = 0; off < data.length; off += per) {
+            int len = Math.min(per, data.length - off);
+            map(ch, FileChannel.MapMode.READ_ONLY, pos,
+                (long) len * Integer.BYTES).asIntBuffer()
+                .get(data, off, len);
+            pos += (long) len * Integer.BYTES;
+        }
+        return pos;
+    }
+
+}
@@ -1,62 +1,96 @@
 package matrix;
 
 import java.util.ArrayList;
-import java.util.List;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Stack;
 
 
 /** Represents a matrix.
+ *  Elements live in a single flat array which is addressed through
+ *  an offset and a row and column stride, so the same storage can be
+ *  viewed in row-major or column-major order.
  *  @author Christian Choi
  */
 class MatrixObj {
 
+    /** Side of the blocks in which strided views are copied. */
+    private static final int BLOCK = 64;
+
     /** Number of rows and cols. */
     private final int _rows, _cols;
 
-    /** Array of all elements of matrix. */
-    private ArrayList<Double> _elems;
+    /** Backing storage of all elements of matrix. */
+    private final double[] _data;
+
+    /** Index of element (0, 0) in _data. */
+    private final int _offset;
 
-    /** Nested list representation of matrix. */
-    private ArrayList<List<Double>> _matrix;
+    /** Distance in _data between adjacent rows and adjacent cols. */
+    private final int _rowStride, _colStride;
 
-    /** Multi-dimensional array representation for matrix rows. */
-    private double[][] allRows;
+    /** Multi-dimensional array representation for matrix rows,
+     *  built on first use. */
+    private volatile double[][] allRows;
 
-    /** Multi-dimensional array representation for matrix cols. */
-    private double[][] allCols;
+    /** Multi-dimensional array representation for matrix cols,
+     *  built on first use. */
+    private volatile double[][] allCols;
+
+    /** A ROWS x COLS matrix whose elements are DATA in row-major
+     *  order. DATA is not copied. */
+    MatrixObj(int rows, int cols, double[] data) {
+        this(rows, cols, data, 0, cols, 1);
+    }
 
-    MatrixObj(int rows, int cols, ArrayList<Double> elems) {
+    /** A ROWS x COLS view of DATA where element (i, j) is found at
+     *  OFFSET + i * ROWSTRIDE + j * COLSTRIDE. DATA is not copied. */
+    MatrixObj(int rows, int cols, double[] data, int offset,
+              int rowStride, int colStride) {
         _rows = rows;
         _cols = cols;
-        _elems = elems;
-        _matrix = new ArrayList<List<Double>>();
-        int capacity = _rows;
-        while (capacity > 0) {
-            _matrix.add(null);
-            capacity -= 1;
-        }
-        int start = 0;
-        int end = _cols;
-        for (int i = 0; i < _rows; i += 1) {
-            List<Double> each = _elems.subList(start, end);
-            _matrix.set(i, each);
-            start = end;
-            end += _cols;
-        }
-        allRows = new double[_rows][_cols];
-        allCols = new double[_cols][_rows];
-        for (int i = 0; i < _rows; i += 1) {
-            for (int j = 0; j < _cols; j += 1) {
-                allRows[i][j] = _matrix.get(i).get(j);
-            }
-        }
-        for (int i = 0; i < _cols; i += 1) {
-            for (int j = 0; j < _rows; j += 1) {
-                allCols[i][j] = _matrix.get(j).get(i);
-            }
-        }
+        _data = data;
+        _offset = offset;
+        _rowStride = rowStride;
+        _colStride = colStride;
+    }
+
+    /** A ROWS x COLS matrix whose elements are held by a subclass
+     *  rather than in a backing array. */
+    MatrixObj(int rows, int cols) {
+        this(rows, cols, null, 0, 0, 0);
+    }
+
+    /** A ROWS x COLS matrix whose elements are DATA in column-major
+     *  order. DATA is not copied. */
+    static MatrixObj colMajor(int rows, int cols, double[] data) {
+        return new MatrixObj(rows, cols, data, 0, 1, rows);
+    }
+
+    /** Whether this matrix only stores its non-zero elements. */
+    public boolean isSparse() {
+        return false;
+    }
+
+    /** Whether this matrix stores its elements as floats. */
+    public boolean isFloat() {
+        return false;
+    }
+
+    /** Whether this matrix is held in tiles on disk. */
+    public boolean isTiled() {
+        return false;
+    }
+
+    /** Whether this matrix is held off the heap. */
+    public boolean isOffHeap() {
+        return false;
+    }
+
+    /** This matrix if its elements are doubles in a backing array,
+     *  and otherwise a copy of it which is, for the code which reads
+     *  backing arrays. */
+    public MatrixObj onHeap() {
+        return this;
     }
 
     /** Getter method for number of rows. */
@@ -69,14 +103,131 @@ class MatrixObj {
         return _cols;
     }
 
-    /** Getter method for list of elements. */
-    public ArrayList<Double> elems() {
-        return _elems;
+    /** Total number of elements. */
+    public int size() {
+        return _rows * _cols;
+    }
+
+    /** Element at row I and col J. */
+    public double get(int i, int j) {
+        return _data[_offset + i * _rowStride + j * _colStride];
+    }
+
+    /** Element K of this matrix in row-major order. */
+    public double get(int k) {
+        if (isRowMajor()) {
+            return _data[k];
+        }
+        return get(k / _cols, k % _cols);
+    }
+
+    /** Backing storage of this matrix. */
+    double[] data() {
+        return _data;
+    }
+
+    /** Index of element (0, 0) in the backing storage. */
+    int offset() {
+        return _offset;
+    }
+
+    /** Distance between adjacent rows in the backing storage. */
+    int rowStride() {
+        return _rowStride;
+    }
+
+    /** Distance between adjacent cols in the backing storage. */
+    int colStride() {
+        return _colStride;
+    }
+
+    /** Whether the backing storage holds exactly this matrix in
+     *  row-major order. */
+    public boolean isRowMajor() {
+        return _offset == 0 && (_colStride == 1 || _cols <= 1)
+            && (_rowStride == _cols || _rows <= 1)
+            && _data.length == size();
+    }
+
+    /** The transpose of this matrix, as a view of the same storage
+     *  with the strides exchanged. */
+    public MatrixObj transpose() {
+        return new MatrixObj(_cols, _rows, _data, _offset, _colStride,
+            _rowStride);
+    }
+
+    /** Getter method for array of elements in row-major order. The
+     *  backing storage is returned when it is already row-major, so
+     *  the result must not be modified. */
+    public double[] elems() {
+        if (isRowMajor()) {
+            return _data;
+        }
+        return toArray();
+    }
+
+    /** A fresh copy of the elements of this matrix in row-major
+     *  order. Views whose rows are not contiguous, such as
+     *  transposes, are copied a block at a time so that both the
+     *  rows written and the cols read stay in cache. */
+    public double[] toArray() {
+        double[] result = new double[size()];
+        if (isRowMajor()) {
+            System.arraycopy(_data, 0, result, 0, result.length);
+        } else if (_colStride == 1) {
+            for (int i = 0; i < _rows; i += 1) {
+                System.arraycopy(_data, _offset + i * _rowStride, result,
+                    i * _cols, _cols);
+            }
+        } else {
+            for (int ii = 0; ii < _rows; ii += BLOCK) {
+                int iEnd = Math.min(_rows, ii + BLOCK);
+                for (int jj = 0; jj < _cols; jj += BLOCK) {
+                    int jEnd = Math.min(_cols, jj + BLOCK);
+                    for (int i = ii; i < iEnd; i += 1) {
+                        int index = _offset + i * _rowStride
+                            + jj * _colStride;
+                        for (int j = jj; j < jEnd; j += 1) {
+                            result[i * _cols + j] = _data[index];
+                            index += _colStride;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
     }
 
-    /** Getter method for list representation of matrix. */
-    public ArrayList<List<Double>> matrix() {
-        return _matrix;
+    /** A fresh copy of row I of this matrix. */
+    public double[] row(int i) {
+        double[] result = new double[_cols];
+        int index = _offset + i * _rowStride;
+        for (int j = 0; j < _cols; j += 1) {
+            result[j] = _data[index];
+            index += _colStride;
+        }
+        return result;
+    }
+
+    /** A fresh copy of every row of this matrix. */
+    public double[][] rowsCopy() {
+        double[][] result = new double[_rows][];
+        for (int i = 0; i < _rows; i += 1) {
+            result[i] = row(i);
+        }
+        return result;
+    }
+
+    /** A matrix built from the rows ARR, which must all be the same
+     *  length. */
+    static MatrixObj fromRows(double[][] arr) {
+        int r = arr.length;
+        int c = r == 0 ? 0 : arr[0].length;
+        double[] elems = new double[r * c];
+        for (int i = 0; i < r; i += 1) {
+            System.arraycopy(arr[i], 0, elems, i * c, c);
+        }
+        return new MatrixObj(r, c, elems);
     }
 
     /** The dimensions of this matrix. */
@@ -88,36 +239,32 @@ class MatrixObj {
 
     /** Getter method for rows of this matrix. */
     public double[][] allRows() {
-        return allRows;
+        double[][] result = allRows;
+        if (result == null) {
+            result = rowsCopy();
+            allRows = result;
+        }
+        return result;
     }
 
     /** Getter method for cols of this matrix. */
     public double[][] allCols() {
-        return allCols;
+        double[][] result = allCols;
+        if (result == null) {
+            result = new double[_cols][_rows];
+            for (int i = 0; i < _cols; i += 1) {
+                for (int j = 0; j < _rows; j += 1) {
+                    result[i][j] = get(j, i);
+                }
+            }
+            allCols = result;
+        }
+        return result;
     }
 
     /** String representation of this matrix. */
     public String toString() {
-        String matrix = "";
-        for (int i = 0; i < rows(); i += 1) {
-            String row = "|\t";
-            for (double j : _matrix.get(i)) {
-                j = Math.round(j * 100.0) / 100.0;
-                String d = Double.toString(j);
-                if (d.charAt(d.length() - 1) == '0') {
-                    row += Integer.toString((int) j) + "\t";
-                } else {
-                    row += d + "\t";
-                }
-            }
-            row += "|";
-            if (i == rows() - 1) {
-                matrix += row;
-            } else {
-                matrix += row + "\n";
-            }
-        }
-        return matrix;
+        return MatrixRenderer.render(this);
     }
 
     /** Whether or not this matrix is a square matrix. */
@@ -125,58 +272,66 @@ class MatrixObj {
         return rows() == cols();
     }
 
-    /** Returns an array of indices of repeated rows. */
-    public ArrayList<Integer> repeats() {
-        ArrayList<Integer> reps = new ArrayList<>();
+    /** Whether this matrix equals its transpose. */
+    public boolean isSymmetric() {
+        if (!isSquare()) {
+            return false;
+        }
         for (int i = 0; i < rows(); i += 1) {
-            for (int j = 0; j < rows(); j += 1) {
-                if (i != j && Arrays.equals(allRows()[i],
-                    allRows()[j])) {
-                    if (!reps.contains(i)) {
-                        reps.add(i);
-                    }
-                    if (!reps.contains(j)) {
-                        reps.add(j);
-                    }
+            for (int j = 0; j < i; j += 1) {
+                if (get(i, j) != get(j, i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Whether every element of this matrix is a whole number. */
+    public boolean isIntegral() {
+        for (int i = 0; i < rows(); i += 1) {
+            for (int j = 0; j < cols(); j += 1) {
+                double d = get(i, j);
+                if (d != Math.rint(d)) {
+                    return false;
                 }
             }
         }
-        return reps;
+        return true;
     }
 
-    /** Returns this matrix with any repeated rows removed. */
+    /** Returns the indices of rows equal to another row, in
+     *  increasing order. */
+    public ArrayList<Integer> repeats() {
+        return new RowIndex(rowsCopy()).repeats(true);
+    }
+
+    /** Returns this matrix with every row that equals an earlier row
+     *  replaced by zeros. */
     public MatrixObj removeRepeats() {
-        if (repeats().size() <= 1) {
+        ArrayList<Integer> reps = new RowIndex(rowsCopy()).repeats(false);
+        if (reps.isEmpty()) {
             return this;
         }
-        ArrayList<List<Double>> newMat =
-            new ArrayList<List<Double>>(matrix());
-        for (int i = 1; i < repeats().size(); i += 1) {
-            int repIndex = repeats().get(i);
-            List<Double> row = newMat.get(repIndex);
-            for (int j = 0; j < row.size(); j += 1) {
-                row.set(j, (double) 0);
-            }
-            newMat.set(repIndex, row);
-        }
-        ArrayList<Double> rmElems = new ArrayList<>();
-        for (List<Double> lst : newMat) {
-            rmElems.addAll(lst);
+        double[] rmElems = toArray();
+        for (int i : reps) {
+            int start = i * cols();
+            Arrays.fill(rmElems, start, start + cols(), 0);
         }
         return new MatrixObj(rows(), cols(), rmElems);
     }
 
     /** Helper method for GCD of two numbers. */
-    private double gcd(double a, double b) {
+    private static double gcd(double a, double b) {
         if (b == 0) {
             return Math.abs(a);
         }
         return gcd(b, a % b);
     }
 
-    /** Helper method for GCD of a list of numbers. */
-    private double gcd(List<Double> lst) {
-        double init = lst.get(0);
+    /** Helper method for GCD of an array of numbers. */
+    private static double gcd(double[] lst) {
+        double init = lst[0];
         for (double d : lst) {
             init = gcd(init, d);
         }
@@ -185,41 +340,48 @@ class MatrixObj {
 
     /** Reduces this matrix. */
     public MatrixObj reduced() {
-        ArrayList<Double> newRows = new ArrayList<>();
-        for (List<Double> row : matrix()) {
-            if (Collections.max(row) <= 0 || row.get(0) < 0) {
-                for (int i = 0; i < row.size(); i += 1) {
-                    row.set(i, -row.get(i));
-                }
-            }
-            if (nonZeroIndex(row) != -1) {
-                row.set(nonZeroIndex(row), (double) 1);
+        double[] newRows = new double[size()];
+        for (int r = 0; r < rows(); r += 1) {
+            System.arraycopy(reducedRow(row(r)), 0, newRows, r * cols(),
+                cols());
+        }
+        return new MatrixObj(rows(), cols(), newRows);
+    }
+
+    /** Reduces ROW in place, as reduced does each row, and returns
+     *  it: its sign is made positive, its only nonzero element if it
+     *  has one becomes 1, and a row of whole numbers is divided by
+     *  their GCD. Reducing a row again leaves it unchanged. */
+    static double[] reducedRow(double[] row) {
+        double max = row[0];
+        for (double d : row) {
+            max = Math.max(max, d);
+        }
+        if (max <= 0 || row[0] < 0) {
+            for (int i = 0; i < row.length; i += 1) {
+                row[i] = -row[i];
             }
-            for (int i = 0; i < row.size(); i += 1) {
-                double addThis;
-                if (row.get(i) != 0) {
-                    if (!decimalCheck(row)) {
-                        addThis = row.get(i) / gcd(row);
-                    } else {
-                        addThis = row.get(i);
-                    }
-                } else if (Math.abs(row.get(i)) < 1E-15
-                    || row.get(i) == 0) {
-                    addThis = 0;
-                } else {
-                    addThis = 0;
-                }
-                newRows.add(addThis);
+        }
+        if (nonZeroIndex(row) != -1) {
+            row[nonZeroIndex(row)] = 1;
+        }
+        boolean decimals = decimalCheck(row);
+        double divisor = decimals ? 1 : gcd(row);
+        for (int i = 0; i < row.length; i += 1) {
+            if (row[i] == 0) {
+                row[i] = 0;
+            } else if (!decimals) {
+                row[i] /= divisor;
             }
         }
-        return new MatrixObj(rows(), cols(), newRows);
+        return row;
     }
 
     /** Helper method for finding index of leading coefficient
      * for a row of this matrix. */
-    public static int leadIndex(List<Double> row) {
-        for (int i = 0; i < row.size(); i += 1) {
-            if (row.get(i) != 0) {
+    public static int leadIndex(double[] row) {
+        for (int i = 0; i < row.length; i += 1) {
+            if (row[i] != 0) {
                 return i;
             }
         }
@@ -228,22 +390,24 @@ class MatrixObj {
 
     /** Helper method for finding index of only non-zero
      * entry of a row, if the row has only one non-zero entry. */
-    public int nonZeroIndex(List<Double> row) {
+    public static int nonZeroIndex(double[] row) {
         int zeroCount = 0;
-        for (int i = 0; i < row.size(); i += 1) {
-            if (row.get(i) == 0) {
+        int index = -1;
+        for (int i = 0; i < row.length; i += 1) {
+            if (row[i] == 0) {
                 zeroCount += 1;
+            } else {
+                index = i;
             }
         }
-        if (zeroCount == row.size() - 1) {
-            double max = Collections.max(row);
-            return row.indexOf(max);
+        if (zeroCount == row.length - 1) {
+            return index;
         }
         return -1;
     }
 
     /** Checks whether the row contains any decimals. */
-    public boolean decimalCheck(List<Double> lst) {
+    public static boolean decimalCheck(double[] lst) {
         for (double i : lst) {
             String d = Double.toString(i);
             if (d.charAt(d.length() - 1) != '0') {
@@ -255,16 +419,16 @@ class MatrixObj {
 
     /** Reorders matrix rows to agree with RREF. */
     public MatrixObj reorder() {
-        Stack<List<Double>> sorted = new Stack<>();
-        ArrayList<List<Double>> copy = new ArrayList<>();
-        for (List<Double> lst : matrix()) {
-            copy.add(new ArrayList<Double>(lst));
+        Stack<double[]> sorted = new Stack<>();
+        ArrayList<double[]> copy = new ArrayList<>();
+        for (int i = 0; i < rows(); i += 1) {
+            copy.add(row(i));
         }
         while (copy.size() != 0) {
             int max = Integer.MIN_VALUE;
             int index = 0;
             for (int i = 0; i < copy.size(); i += 1) {
-                List<Double> lst = copy.get(i);
+                double[] lst = copy.get(i);
                 if (leadIndex(lst) > max) {
                     max = leadIndex(lst);
                     index = i;
@@ -273,9 +437,11 @@ class MatrixObj {
             sorted.push(copy.get(index));
             copy.remove(index);
         }
-        ArrayList<Double> sortedMat = new ArrayList<>();
+        double[] sortedMat = new double[size()];
+        int k = 0;
         while (!sorted.isEmpty()) {
-            sortedMat.addAll(sorted.pop());
+            System.arraycopy(sorted.pop(), 0, sortedMat, k, cols());
+            k += cols();
         }
         return new MatrixObj(rows(), cols(), sortedMat);
     }
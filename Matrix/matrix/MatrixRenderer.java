@@ -0,0 +1,170 @@
+package matrix;
+
+import java.io.PrintStream;
+
+/** Renders matrices as rows of tab separated elements between bars,
+ *  each element rounded to two decimal places and written without a
+ *  fractional part when it has none. Output is built a few rows at a
+ *  time in one StringBuilder and handed straight to its stream, and
+ *  large matrices may be summarized by their corners.
+ *  @author Christian Choi */
+
+class MatrixRenderer {
+
+    /** Matrices with more elements than this are summarized when a
+     *  summary is allowed. */
+    static final int SUMMARY_LIMIT = 1 << 16;
+
+    /** Number of rows and cols shown at each edge of a summary. */
+    static final int EDGE = 3;
+
+    /** Number of characters built before they are written out. */
+    private static final int FLUSH = 1 << 13;
+
+    /** Elements rounding to fewer than this many hundredths in
+     *  magnitude are below 1E7, and so would be printed by
+     *  Double.toString without an exponent. */
+    private static final long PLAIN_LIMIT = 1_000_000_000L;
+
+    /** The full rendering of M. */
+    static String render(MatrixObj m) {
+        StringBuilder out = new StringBuilder(m.size() * 4 + 4);
+        for (int i = 0; i < m.rows(); i += 1) {
+            if (i > 0) {
+                out.append('\n');
+            }
+            appendRow(out, m, i, 0, m.cols());
+        }
+        return out.toString();
+    }
+
+    /** Prints M to OUT followed by a newline, summarizing it if it is
+     *  larger than SUMMARY_LIMIT and SUMMARIZE. */
+    static void print(MatrixObj m, PrintStream out, boolean summarize) {
+        StringBuilder buf = new StringBuilder(FLUSH + 256);
+        if (summarize && (long) m.rows() * m.cols() > SUMMARY_LIMIT) {
+            printSummary(m, out, buf);
+            return;
+        }
+        for (int i = 0; i < m.rows(); i += 1) {
+            appendRow(buf, m, i, 0, m.cols());
+            buf.append('\n');
+            if (buf.length() >= FLUSH) {
+                out.append(buf);
+                buf.setLength(0);
+            }
+        }
+        if (m.rows() == 0) {
+            buf.append('\n');
+        }
+        out.append(buf);
+    }
+
+    /** Prints the exact rows A to OUT followed by a newline, each
+     *  element written in full as an integer or a fraction. */
+    static void print(Rational[][] a, PrintStream out) {
+        StringBuilder buf = new StringBuilder(FLUSH + 256);
+        for (Rational[] row : a) {
+            buf.append("|\t");
+            for (Rational x : row) {
+                buf.append(x).append('\t');
+            }
+            buf.append("|\n");
+            if (buf.length() >= FLUSH) {
+                out.append(buf);
+                buf.setLength(0);
+            }
+        }
+        if (a.length == 0) {
+            buf.append('\n');
+        }
+        out.append(buf);
+    }
+
+    /** Prints the corners of M to OUT using BUF, followed by a line
+     *  giving its dimensions. */
+    private static void printSummary(MatrixObj m, PrintStream out,
+                                     StringBuilder buf) {
+        int rows = m.rows();
+        boolean rowGap = rows > 2 * EDGE;
+        boolean colGap = m.cols() > 2 * EDGE;
+        for (int i = 0; i < rows; i += 1) {
+            if (rowGap && i == EDGE) {
+                buf.append("|\t");
+                int shown = colGap ? 2 * EDGE + 1 : m.cols();
+                for (int k = 0; k < shown; k += 1) {
+                    buf.append("...\t");
+                }
+                buf.append("|\n");
+                i = rows - EDGE;
+            }
+            if (colGap) {
+                buf.append("|\t");
+                appendElems(buf, m, i, 0, EDGE);
+                buf.append("...\t");
+                appendElems(buf, m, i, m.cols() - EDGE, m.cols());
+                buf.append("|\n");
+            } else {
+                appendRow(buf, m, i, 0, m.cols());
+                buf.append('\n');
+            }
+        }
+        buf.append('(').append(m.dim()).append(")\n");
+        out.append(buf);
+    }
+
+    /** Appends cols [LO, HI) of row I of M to OUT between bars. */
+    private static void appendRow(StringBuilder out, MatrixObj m, int i,
+                                  int lo, int hi) {
+        out.append("|\t");
+        appendElems(out, m, i, lo, hi);
+        out.append('|');
+    }
+
+    /** Appends cols [LO, HI) of row I of M to OUT, each followed by a
+     *  tab. */
+    private static void appendElems(StringBuilder out, MatrixObj m,
+                                    int i, int lo, int hi) {
+        for (int k = lo; k < hi; k += 1) {
+            appendNumber(out, m.get(i, k));
+            out.append('\t');
+        }
+    }
+
+    /** Appends X rounded to two decimal places, without a fractional
+     *  part when it has none. Elements below 1E7 in magnitude are
+     *  written from their count of hundredths, giving the same digits
+     *  as Double.toString of the rounded element; larger ones are
+     *  left to Double.toString. */
+    static void appendNumber(StringBuilder out, double x) {
+        long hundredths = Math.round(x * 100.0);
+        if (hundredths > -PLAIN_LIMIT && hundredths < PLAIN_LIMIT) {
+            long whole = hundredths / 100;
+            int frac = (int) Math.abs(hundredths % 100);
+            if (frac == 0) {
+                out.append(whole);
+                return;
+            } else if (hundredths < 0) {
+                out.append('-');
+            }
+            out.append(Math.abs(whole)).append('.');
+            if (frac % 10 == 0) {
+                out.append(frac / 10);
+            } else {
+                if (frac < 10) {
+                    out.append('0');
+                }
+                out.append(frac);
+            }
+            return;
+        }
+        double rounded = hundredths / 100.0;
+        String d = Double.toString(rounded);
+        if (d.charAt(d.length() - 1) == '0') {
+            out.append((int) rounded);
+        } else {
+            out.append(d);
+        }
+    }
+
+}
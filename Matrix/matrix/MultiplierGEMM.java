@@ -0,0 +1,231 @@
+package matrix;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+/** Matrix multiplication engine. Products are computed with cache
+ *  blocked loops over a packed copy of the right operand, and large
+ *  products are split over blocks of rows of the left operand which
+ *  run in parallel on the common fork-join pool. Both operands may be
+ *  strided views, such as transposes: the right operand is packed
+ *  straight from its view, and blocks of a left operand whose rows
+ *  are not contiguous are packed as they are used.
+ *  @author Christian Choi */
+
+class MultiplierGEMM {
+
+    /** Depth of each block of the shared dimension, chosen so a
+     *  packed block of the right operand stays in L2. */
+    private static final int KC = 128;
+
+    /** Width of each packed panel of the right operand, chosen so a
+     *  row of the panel stays in L1. */
+    private static final int NC = 256;
+
+    /** Number of rows of the left operand below which a task is no
+     *  longer split. */
+    private static final int MC = 64;
+
+    /** Number of multiply-adds below which a product is computed on
+     *  the calling thread without packing. */
+    private static final long SERIAL_WORK = 64L * 64 * 64;
+
+    /** Number of elements scaled by each parallel task. */
+    private static final int SCALE_CHUNK = 1 << 16;
+
+    /** Returns the product of A and B, which must have agreeing
+     *  dimensions. A product of two matrices of floats is computed
+     *  in floats, and a matrix of floats times one of doubles in
+     *  doubles. Products with an operand held in tiles, and dense
+     *  products with an operand or result too large for the heap, are
+     *  computed tile by tile. */
+    static MatrixObj multiply(MatrixObj a, MatrixObj b) {
+        if (a.isTiled() || b.isTiled()) {
+            return TiledMatrixObj.multiply(a, b);
+        } else if (a.isSparse() || b.isSparse()) {
+            return SparseMatrixObj.multiply(a, b);
+        } else if (a.isFloat() && b.isFloat()) {
+            return FloatMatrixObj.multiply((FloatMatrixObj) a,
+                (FloatMatrixObj) b);
+        } else if ((long) a.rows() * b.cols() > TiledMatrixObj.MIN_TILED
+            || (long) a.rows() * a.cols() > TiledMatrixObj.MIN_TILED
+            || (long) b.rows() * b.cols() > TiledMatrixObj.MIN_TILED) {
+            return TiledMatrixObj.multiply(a, b);
+        }
+        a = a.onHeap();
+        b = b.onHeap();
+        int m = a.rows();
+        int n = a.cols();
+        int p = b.cols();
+        double[] c = new double[m * p];
+        if ((long) m * n * p <= SERIAL_WORK) {
+            multiplySmall(a.elems(), b.elems(), c, m, n, p);
+        } else {
+            double[] packed = pack(b);
+            ForkJoinPool.commonPool().invoke(
+                new RowBlock(a, packed, c, p, 0, m));
+        }
+        return new MatrixObj(m, p, c);
+    }
+
+    /** Returns M with every element multiplied by CONSTANT. */
+    static MatrixObj scale(MatrixObj m, double constant) {
+        if (m.isSparse()) {
+            return ((SparseMatrixObj) m).scale(constant);
+        } else if (m.isFloat()) {
+            return ((FloatMatrixObj) m).scale(constant);
+        } else if (m.isTiled()) {
+            return TiledMatrixObj.combine(new MatrixObj[] {m},
+                new double[] {constant});
+        } else if (m.isOffHeap()) {
+            return OffHeapMatrixObj.scale(m, constant);
+        }
+        double[] elems = m.elems();
+        double[] result = new double[elems.length];
+        int chunks = (elems.length + SCALE_CHUNK - 1) / SCALE_CHUNK;
+        IntStream.range(0, chunks).parallel().forEach(c ->
+            Kernels.INSTANCE.scale(elems, constant, result,
+                c * SCALE_CHUNK,
+                (int) Math.min(elems.length, (c + 1L) * SCALE_CHUNK)));
+        return new MatrixObj(m.rows(), m.cols(), result);
+    }
+
+    /** Unblocked product of the M x N row-major A and the N x P
+     *  row-major B into C. */
+    private static void multiplySmall(double[] a, double[] b, double[] c,
+                                      int m, int n, int p) {
+        for (int i = 0; i < m; i += 1) {
+            int cRow = i * p;
+            for (int k = 0; k < n; k += 1) {
+                double aik = a[i * n + k];
+                if (aik == 0) {
+                    continue;
+                }
+                int bRow = k * p;
+                for (int j = 0; j < p; j += 1) {
+                    c[cRow + j] += aik * b[bRow + j];
+                }
+            }
+        }
+    }
+
+    /** Copies the N x P matrix B into panels of at most NC cols. The
+     *  panel starting at col JC begins at index JC * N and holds its
+     *  rows contiguously. */
+    private static double[] pack(MatrixObj b) {
+        int n = b.rows();
+        int p = b.cols();
+        double[] data = b.data();
+        int rs = b.rowStride();
+        int cs = b.colStride();
+        double[] packed = new double[n * p];
+        for (int jc = 0; jc < p; jc += NC) {
+            int width = Math.min(NC, p - jc);
+            int base = jc * n;
+            for (int k = 0; k < n; k += 1) {
+                int index = b.offset() + k * rs + jc * cs;
+                if (cs == 1) {
+                    System.arraycopy(data, index, packed,
+                        base + k * width, width);
+                } else {
+                    for (int j = 0; j < width; j += 1) {
+                        packed[base + k * width + j] = data[index];
+                        index += cs;
+                    }
+                }
+            }
+        }
+        return packed;
+    }
+
+    /** Computes the rows [lo, hi) of the product of the M x N A and
+     *  the packed N x P B into C. When the rows of A are not
+     *  contiguous, each block of A is first copied into rows. */
+    private static void multiplyRows(MatrixObj a, double[] packed,
+                                     double[] c, int p, int lo, int hi) {
+        int n = a.cols();
+        double[] data = a.data();
+        int offset = a.offset();
+        int rs = a.rowStride();
+        int cs = a.colStride();
+        double[] block = cs == 1 ? null : new double[(hi - lo) * KC];
+        for (int kc = 0; kc < n; kc += KC) {
+            int kEnd = Math.min(n, kc + KC);
+            double[] aBlock = data;
+            int aBase = offset + kc * cs;
+            int aStride = rs;
+            if (block != null) {
+                for (int k = kc; k < kEnd; k += 1) {
+                    int index = offset + lo * rs + k * cs;
+                    for (int i = lo; i < hi; i += 1) {
+                        block[(i - lo) * KC + k - kc] = data[index];
+                        index += rs;
+                    }
+                }
+                aBlock = block;
+                aBase = -lo * KC;
+                aStride = KC;
+            }
+            for (int jc = 0; jc < p; jc += NC) {
+                int width = Math.min(NC, p - jc);
+                int base = jc * n;
+                for (int i = lo; i < hi; i += 1) {
+                    int cRow = i * p + jc;
+                    int aRow = aBase + i * aStride;
+                    for (int k = kc; k < kEnd; k += 1) {
+                        double aik = aBlock[aRow + k - kc];
+                        if (aik == 0) {
+                            continue;
+                        }
+                        int bRow = base + k * width;
+                        for (int j = 0; j < width; j += 1) {
+                            c[cRow + j] += aik * packed[bRow + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Task computing a block of rows of a product, splitting itself
+     *  in half until the block is small. */
+    @SuppressWarnings("serial")
+    private static class RowBlock extends RecursiveAction {
+
+        /** Left operand. */
+        private final MatrixObj _a;
+
+        /** Packed right operand and result. */
+        private final double[] _packed, _c;
+
+        /** Number of cols of the result. */
+        private final int _p;
+
+        /** Rows [lo, hi) of the result computed by this task. */
+        private final int _lo, _hi;
+
+        RowBlock(MatrixObj a, double[] packed, double[] c, int p,
+                 int lo, int hi) {
+            _a = a;
+            _packed = packed;
+            _c = c;
+            _p = p;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= MC
+                || (long) (_hi - _lo) * _a.cols() * _p <= SERIAL_WORK) {
+                multiplyRows(_a, _packed, _c, _p, _lo, _hi);
+            } else {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new RowBlock(_a, _packed, _c, _p, _lo, mid),
+                    new RowBlock(_a, _packed, _c, _p, mid, _hi));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package matrix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A block of doubles held off the heap, where the garbage collector
+ *  neither marks nor moves them, stored little-endian so that they can
+ *  be copied to and from matrix files as they are. These blocks are
+ *  direct buffers, whose memory is given back once they are collected.
+ *  OffHeapForeign, in the separate foreign source root, overrides them
+ *  with memory segments of the foreign memory API, each in its own
+ *  arena which is closed as soon as the block is freed, and is used in
+ *  their place whenever it is on the class path and the API is
+ *  available, which is from java 22 on, or java 21 with
+ *  --enable-preview both when compiling it and when running. Otherwise
+ *  loading it fails and these are used. Saved matrices hold a reference
+ *  to their block, which is freed once the last is released.
+ *  @author Christian Choi */
+
+class OffHeap {
+
+    /** A block of no doubles which allocates blocks of the kind in
+     *  use. */
+    static final OffHeap ALLOCATOR = load();
+
+    /** Number of doubles in each direct buffer. */
+    private static final int CHUNK = 1 << 27;
+
+    /** Returns an empty OffHeapForeign if it can be loaded, and an
+     *  empty block of direct buffers otherwise. */
+    private static OffHeap load() {
+        try {
+            return (OffHeap) Class.forName("matrix.OffHeapForeign")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new OffHeap();
+        }
+    }
+
+    /** Number of saved matrices referring to this block. */
+    private final AtomicInteger _refs = new AtomicInteger();
+
+    /** Number of doubles in this block. */
+    private final long _length;
+
+    /** Direct buffers holding the doubles, CHUNK to a buffer. */
+    private final ByteBuffer[] _chunks;
+
+    /** Views of _chunks as doubles. */
+    private final DoubleBuffer[] _doubles;
+
+    /** An empty block. */
+    OffHeap() {
+        this(0);
+    }
+
+    /** A block of LENGTH zeros in direct buffers. */
+    private OffHeap(long length) {
+        _length = length;
+        int chunks = (int) ((length + CHUNK - 1) / CHUNK);
+        _chunks = new ByteBuffer[chunks];
+        _doubles = new DoubleBuffer[chunks];
+        for (int c = 0; c < chunks; c += 1) {
+            int len = (int) Math.min(CHUNK, length - (long) c * CHUNK);
+            _chunks[c] = ByteBuffer.allocateDirect(len * Double.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            _doubles[c] = _chunks[c].asDoubleBuffer();
+        }
+    }
+
+    /** A new block of LENGTH zeros of the same kind as this one. */
+    OffHeap allocate(long length) {
+        return new OffHeap(length);
+    }
+
+    /** Name of this kind of block. */
+    String name() {
+        return "direct buffers";
+    }
+
+    /** Number of doubles in this block. */
+    long length() {
+        return _length;
+    }
+
+    /** Double K of this block. */
+    double get(long k) {
+        return _doubles[(int) (k / CHUNK)].get((int) (k % CHUNK));
+    }
+
+    /** Copies the LEN doubles from K on into DST from OFF on. */
+    void get(long k, double[] dst, int off, int len) {
+        while (len > 0) {
+            int n = (int) Math.min(len, CHUNK - k % CHUNK);
+            _doubles[(int) (k / CHUNK)].get((int) (k % CHUNK), dst, off, n);
+            k += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Copies the LEN doubles of SRC from OFF on into this block from K
+     *  on. */
+    void put(long k, double[] src, int off, int len) {
+        while (len > 0) {
+            int n = (int) Math.min(len, CHUNK - k % CHUNK);
+            _doubles[(int) (k / CHUNK)].put((int) (k % CHUNK), src, off, n);
+            k += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Copies this block to CH at POS through a mapping of the file. */
+    void write(FileChannel ch, long pos) throws IOException {
+        for (ByteBuffer chunk : _chunks) {
+            ch.map(FileChannel.MapMode.READ_WRITE, pos, chunk.capacity())
+                .put(chunk.duplicate().clear());
+            pos += chunk.capacity();
+        }
+    }
+
+    /** Fills this block from CH at POS through a mapping of the
+     *  file. */
+    void read(FileChannel ch, long pos) throws IOException {
+        for (ByteBuffer chunk : _chunks) {
+            chunk.duplicate().clear().put(ch.map(
+                FileChannel.MapMode.READ_ONLY, pos, chunk.capacity()));
+            pos += chunk.capacity();
+        }
+    }
+
+    /** Records one more saved matrix referring to this block. */
+    void retain() {
+        _refs.incrementAndGet();
+    }
+
+    /** Records one less saved matrix referring to this block, freeing
+     *  it once none do. */
+    void release() {
+        if (_refs.decrementAndGet() == 0) {
+            free();
+        }
+    }
+
+    /** Gives back the memory of this block, after which it must not be
+     *  read. Direct buffers are given back once they are collected, so
+     *  this does nothing. */
+    void free() {
+    }
+
+}
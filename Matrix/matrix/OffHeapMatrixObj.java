@@ -0,0 +1,234 @@
+package matrix;
+
+import java.util.stream.IntStream;
+
+import static matrix.MatrixException.error;
+
+/** A dense matrix of doubles held off the heap in an OffHeap block,
+ *  so that it adds nothing to the work of the garbage collector while
+ *  it is saved. Sums and scalings of such matrices are computed into a
+ *  new block in chunks read through buffers kept by each thread, and
+ *  every other operation reads their elements into arrays. Elements
+ *  are held row-major, and the transpose is the same block read
+ *  col-major, so transposing is free.
+ *  @author Christian Choi
+ */
+class OffHeapMatrixObj extends MatrixObj {
+
+    /** Number of elements added or scaled by each parallel task. */
+    private static final int CHUNK = 1 << 16;
+
+    /** Buffers for the chunks of the operands and result of a sum,
+     *  one set per thread. */
+    private static final ThreadLocal<double[][]> BUFFERS =
+        ThreadLocal.withInitial(() -> new double[3][CHUNK]);
+
+    /** Elements in row-major order, or col-major if _transposed. */
+    private final OffHeap _memory;
+
+    /** Whether _memory holds this matrix col-major. */
+    private final boolean _transposed;
+
+    /** A ROWS x COLS matrix whose elements are MEMORY in col-major
+     *  order if TRANSPOSED and row-major order otherwise. MEMORY is not
+     *  copied. */
+    OffHeapMatrixObj(int rows, int cols, OffHeap memory,
+                     boolean transposed) {
+        super(rows, cols);
+        _memory = memory;
+        _transposed = transposed;
+    }
+
+    /** A ROWS x COLS matrix of zeros. */
+    OffHeapMatrixObj(int rows, int cols) {
+        this(rows, cols, OffHeap.ALLOCATOR.allocate((long) rows * cols),
+            false);
+    }
+
+    /** M if it is sparse, stores floats or is already off the heap,
+     *  and otherwise a copy of M off the heap. */
+    static MatrixObj choose(MatrixObj m) {
+        if (m.isSparse() || m.isFloat() || m.isOffHeap()) {
+            return m;
+        }
+        return of(m);
+    }
+
+    /** A copy of M off the heap. */
+    static OffHeapMatrixObj of(MatrixObj m) {
+        OffHeapMatrixObj result = new OffHeapMatrixObj(m.rows(), m.cols());
+        if (m.isTiled()) {
+            for (int i = 0; i < m.rows(); i += 1) {
+                double[] row = m.row(i);
+                result._memory.put((long) i * m.cols(), row, 0, row.length);
+            }
+            return result;
+        }
+        chunked(result, (from, len, buf) -> {
+            read(m, from, buf[0], len);
+            result._memory.put(from, buf[0], 0, len);
+        });
+        return result;
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return true;
+    }
+
+    /** Backing storage of this matrix. */
+    OffHeap memory() {
+        return _memory;
+    }
+
+    /** Whether the backing storage holds this matrix col-major. */
+    boolean transposed() {
+        return _transposed;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        if (_transposed) {
+            return _memory.get((long) j * rows() + i);
+        }
+        return _memory.get((long) i * cols() + j);
+    }
+
+    @Override
+    public double get(int k) {
+        if (!_transposed) {
+            return _memory.get(k);
+        }
+        return get(k / cols(), k % cols());
+    }
+
+    @Override
+    public boolean isRowMajor() {
+        return false;
+    }
+
+    @Override
+    public double[] elems() {
+        return toArray();
+    }
+
+    @Override
+    public double[] toArray() {
+        long size = (long) rows() * cols();
+        if (size > SparseMatrixObj.MAX_DENSE) {
+            throw error("matrix too large to store densely");
+        }
+        double[] result = new double[(int) size];
+        if (!_transposed) {
+            _memory.get(0, result, 0, result.length);
+            return result;
+        }
+        int rows = rows();
+        int cols = cols();
+        double[] col = new double[rows];
+        for (int j = 0; j < cols; j += 1) {
+            _memory.get((long) j * rows, col, 0, rows);
+            for (int i = 0; i < rows; i += 1) {
+                result[i * cols + j] = col[i];
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public MatrixObj onHeap() {
+        return new MatrixObj(rows(), cols(), toArray());
+    }
+
+    @Override
+    public double[] row(int i) {
+        double[] result = new double[cols()];
+        if (!_transposed) {
+            _memory.get((long) i * cols(), result, 0, result.length);
+            return result;
+        }
+        for (int j = 0; j < result.length; j += 1) {
+            result[j] = get(i, j);
+        }
+        return result;
+    }
+
+    /** The transpose of this matrix, sharing its storage. */
+    @Override
+    public OffHeapMatrixObj transpose() {
+        return new OffHeapMatrixObj(cols(), rows(), _memory, !_transposed);
+    }
+
+    /** Returns M with every element multiplied by CONSTANT, off the
+     *  heap. */
+    static OffHeapMatrixObj scale(MatrixObj m, double constant) {
+        OffHeapMatrixObj result = new OffHeapMatrixObj(m.rows(), m.cols());
+        chunked(result, (from, len, buf) -> {
+            read(m, from, buf[0], len);
+            Kernels.INSTANCE.scale(buf[0], constant, buf[2], 0, len);
+            result._memory.put(from, buf[2], 0, len);
+        });
+        return result;
+    }
+
+    /** Returns A + SIGN * B, off the heap, for matrices of equal
+     *  dimensions of which at least one is off the heap. */
+    static OffHeapMatrixObj add(MatrixObj a, MatrixObj b, double sign) {
+        OffHeapMatrixObj result = new OffHeapMatrixObj(a.rows(), a.cols());
+        chunked(result, (from, len, buf) -> {
+            read(a, from, buf[0], len);
+            read(b, from, buf[1], len);
+            if (sign > 0) {
+                Kernels.INSTANCE.add(buf[0], buf[1], buf[2], 0, len);
+            } else {
+                Kernels.INSTANCE.subtract(buf[0], buf[1], buf[2], 0, len);
+            }
+            result._memory.put(from, buf[2], 0, len);
+        });
+        return result;
+    }
+
+    /** Copies the LEN elements of M from FROM on, in row-major order,
+     *  into BUF. */
+    private static void read(MatrixObj m, long from, double[] buf,
+                             int len) {
+        if (m.isOffHeap() && !((OffHeapMatrixObj) m)._transposed) {
+            ((OffHeapMatrixObj) m)._memory.get(from, buf, 0, len);
+            return;
+        } else if (m.isRowMajor()) {
+            System.arraycopy(m.data(), (int) from, buf, 0, len);
+            return;
+        }
+        int cols = m.cols();
+        int i = (int) (from / cols);
+        int j = (int) (from % cols);
+        for (int k = 0; k < len; k += 1) {
+            buf[k] = m.get(i, j);
+            j += 1;
+            if (j == cols) {
+                i += 1;
+                j = 0;
+            }
+        }
+    }
+
+    /** A loop over a chunk of the elements of a matrix. */
+    private interface Chunk {
+        /** Runs the loop over the LEN elements from FROM on, with BUF
+         *  as scratch space. */
+        void run(long from, int len, double[][] buf);
+    }
+
+    /** Runs BODY over the elements of M in chunks of CHUNK elements, in
+     *  parallel, each with the buffers of the thread running it. */
+    private static void chunked(MatrixObj m, Chunk body) {
+        long size = (long) m.rows() * m.cols();
+        long chunks = (size + CHUNK - 1) / CHUNK;
+        IntStream.range(0, (int) chunks).parallel().forEach(c -> {
+            long from = (long) c * CHUNK;
+            body.run(from, (int) Math.min(CHUNK, size - from),
+                BUFFERS.get());
+        });
+    }
+
+}
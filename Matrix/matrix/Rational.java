@@ -0,0 +1,295 @@
+package matrix;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+import static matrix.MatrixException.error;
+
+/** Exact rational numbers in lowest terms with a positive denominator.
+ *  Numerator and denominator are held in longs, and only numbers too
+ *  large for them are promoted to BigIntegers, so the small numbers
+ *  that make up most matrices cost little more than doubles. Results
+ *  small enough are demoted to longs again.
+ *  @author Christian Choi */
+
+class Rational {
+
+    /** The number 0. */
+    static final Rational ZERO = new Rational(0, 1);
+
+    /** The number 1. */
+    static final Rational ONE = new Rational(1, 1);
+
+    /** Numerator and denominator, if this number is small. */
+    private final long _num, _den;
+
+    /** Numerator and denominator, or null if this number is small. */
+    private final BigInteger _bigNum, _bigDen;
+
+    /** The small number NUM / DEN, already in lowest terms. */
+    private Rational(long num, long den) {
+        _num = num;
+        _den = den;
+        _bigNum = null;
+        _bigDen = null;
+    }
+
+    /** The large number NUM / DEN, already in lowest terms. */
+    private Rational(BigInteger num, BigInteger den) {
+        _num = 0;
+        _den = 0;
+        _bigNum = num;
+        _bigDen = den;
+    }
+
+    /** The integer N. */
+    static Rational valueOf(long n) {
+        return n == 0 ? ZERO : n == 1 ? ONE : new Rational(n, 1);
+    }
+
+    /** NUM / DEN, for nonzero DEN. */
+    static Rational valueOf(long num, long den) {
+        if (den == 0) {
+            throw error("division by zero");
+        } else if (num == Long.MIN_VALUE || den == Long.MIN_VALUE) {
+            return valueOf(BigInteger.valueOf(num), BigInteger.valueOf(den));
+        } else if (den < 0) {
+            num = -num;
+            den = -den;
+        }
+        long g = gcd(Math.abs(num), den);
+        return new Rational(num / g, den / g);
+    }
+
+    /** NUM / DEN, for nonzero DEN. */
+    static Rational valueOf(BigInteger num, BigInteger den) {
+        if (den.signum() == 0) {
+            throw error("division by zero");
+        } else if (den.signum() < 0) {
+            num = num.negate();
+            den = den.negate();
+        }
+        BigInteger g = num.gcd(den);
+        if (!g.equals(BigInteger.ONE)) {
+            num = num.divide(g);
+            den = den.divide(g);
+        }
+        return make(num, den);
+    }
+
+    /** The number written as X, so that an element entered as 0.1 is
+     *  1/10 rather than the binary fraction nearest to it. */
+    static Rational valueOf(double x) {
+        if (Double.isNaN(x) || Double.isInfinite(x)) {
+            throw error("exact mode needs finite elements");
+        } else if (x == Math.rint(x) && Math.abs(x) < 0x1p62) {
+            return valueOf((long) x);
+        }
+        BigDecimal d = BigDecimal.valueOf(x);
+        if (d.scale() <= 0) {
+            return make(d.toBigIntegerExact(), BigInteger.ONE);
+        }
+        return valueOf(d.unscaledValue(), BigInteger.TEN.pow(d.scale()));
+    }
+
+    /** NUM / DEN in lowest terms with DEN positive, held in longs if
+     *  they fit. */
+    private static Rational make(BigInteger num, BigInteger den) {
+        if (num.bitLength() < Long.SIZE && den.bitLength() < Long.SIZE) {
+            return new Rational(num.longValue(), den.longValue());
+        }
+        return new Rational(num, den);
+    }
+
+    /** Whether this number is held in longs. */
+    private boolean isSmall() {
+        return _bigNum == null;
+    }
+
+    /** The numerator. */
+    BigInteger numerator() {
+        return isSmall() ? BigInteger.valueOf(_num) : _bigNum;
+    }
+
+    /** The denominator. */
+    BigInteger denominator() {
+        return isSmall() ? BigInteger.valueOf(_den) : _bigDen;
+    }
+
+    /** Whether this number is an integer. */
+    boolean isInteger() {
+        return isSmall() ? _den == 1 : _bigDen.equals(BigInteger.ONE);
+    }
+
+    /** -1, 0 or 1 as this number is negative, zero or positive. */
+    int signum() {
+        return isSmall() ? Long.signum(_num) : _bigNum.signum();
+    }
+
+    /** Whether this number is 0. */
+    boolean isZero() {
+        return signum() == 0;
+    }
+
+    /** This number plus X. */
+    Rational add(Rational x) {
+        if (isZero()) {
+            return x;
+        } else if (x.isZero()) {
+            return this;
+        } else if (isSmall() && x.isSmall()) {
+            if (_den == 1 && x._den == 1) {
+                if (sumFits(_num, x._num)) {
+                    return valueOf(_num + x._num);
+                }
+            } else {
+                long g = gcd(_den, x._den);
+                long xScale = x._den / g;
+                long scale = _den / g;
+                if (productFits(_num, xScale) && productFits(x._num, scale)
+                    && sumFits(_num * xScale, x._num * scale)
+                    && productFits(_den, xScale)) {
+                    return valueOf(_num * xScale + x._num * scale,
+                        _den * xScale);
+                }
+            }
+        }
+        if (isInteger() && x.isInteger()) {
+            return make(numerator().add(x.numerator()), BigInteger.ONE);
+        }
+        return valueOf(numerator().multiply(x.denominator())
+            .add(x.numerator().multiply(denominator())),
+            denominator().multiply(x.denominator()));
+    }
+
+    /** This number minus X. */
+    Rational subtract(Rational x) {
+        return add(x.negate());
+    }
+
+    /** This number times X. */
+    Rational multiply(Rational x) {
+        if (isZero() || x.isZero()) {
+            return ZERO;
+        } else if (isSmall() && x.isSmall()) {
+            long g1 = gcd(Math.abs(_num), x._den);
+            long g2 = gcd(Math.abs(x._num), _den);
+            long num1 = _num / g1, num2 = x._num / g2;
+            long den1 = _den / g2, den2 = x._den / g1;
+            if (productFits(num1, num2) && productFits(den1, den2)) {
+                return new Rational(num1 * num2, den1 * den2);
+            }
+        }
+        if (isInteger() && x.isInteger()) {
+            return make(numerator().multiply(x.numerator()),
+                BigInteger.ONE);
+        }
+        return valueOf(numerator().multiply(x.numerator()),
+            denominator().multiply(x.denominator()));
+    }
+
+    /** This number divided by the nonzero X. */
+    Rational divide(Rational x) {
+        return multiply(x.reciprocal());
+    }
+
+    /** (A * B - C * D) / E for integers A to E, where E divides
+     *  A * B - C * D exactly. This is the step of fraction-free
+     *  elimination, done without making the products as Rationals. */
+    static Rational crossQuotient(Rational a, Rational b, Rational c,
+                                  Rational d, Rational e) {
+        if (a.isSmall() && b.isSmall() && c.isSmall() && d.isSmall()
+            && e.isSmall() && productFits(a._num, b._num)
+            && productFits(c._num, d._num)) {
+            long ab = a._num * b._num, cd = c._num * d._num;
+            if (sumFits(ab, -cd) && cd != Long.MIN_VALUE
+                && (e._num != -1 || ab - cd != Long.MIN_VALUE)) {
+                return valueOf((ab - cd) / e._num);
+            }
+        }
+        BigInteger x = a.numerator().multiply(b.numerator());
+        if (!c.isZero() && !d.isZero()) {
+            x = x.subtract(c.numerator().multiply(d.numerator()));
+        }
+        if (!e.equals(ONE)) {
+            x = x.divide(e.numerator());
+        }
+        return make(x, BigInteger.ONE);
+    }
+
+    /** Minus this number. */
+    Rational negate() {
+        if (isSmall() && _num != Long.MIN_VALUE) {
+            return new Rational(-_num, _den);
+        }
+        return make(numerator().negate(), denominator());
+    }
+
+    /** One over this nonzero number. */
+    Rational reciprocal() {
+        if (isSmall()) {
+            return valueOf(_den, _num);
+        }
+        return valueOf(_bigDen, _bigNum);
+    }
+
+    /** The double nearest this number. */
+    double doubleValue() {
+        if (isSmall()) {
+            return _den == 1 ? _num : (double) _num / _den;
+        }
+        return new BigDecimal(_bigNum)
+            .divide(new BigDecimal(_bigDen), MathContext.DECIMAL64)
+            .doubleValue();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Rational)) {
+            return false;
+        }
+        Rational x = (Rational) obj;
+        if (isSmall() && x.isSmall()) {
+            return _num == x._num && _den == x._den;
+        }
+        return numerator().equals(x.numerator())
+            && denominator().equals(x.denominator());
+    }
+
+    @Override
+    public int hashCode() {
+        return numerator().hashCode() * 31 + denominator().hashCode();
+    }
+
+    /** This number as an integer or as NUM/DEN. */
+    @Override
+    public String toString() {
+        if (isInteger()) {
+            return isSmall() ? Long.toString(_num) : _bigNum.toString();
+        }
+        return numerator() + "/" + denominator();
+    }
+
+    /** Whether A * B fits in a long. */
+    private static boolean productFits(long a, long b) {
+        return Math.multiplyHigh(a, b) == (a * b) >> (Long.SIZE - 1);
+    }
+
+    /** Whether A + B fits in a long. */
+    private static boolean sumFits(long a, long b) {
+        long sum = a + b;
+        return ((a ^ sum) & (b ^ sum)) >= 0;
+    }
+
+    /** Greatest common divisor of the nonnegative A and B. */
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a == 0 ? 1 : a;
+    }
+
+}
@@ -1,43 +1,102 @@
 package matrix;
 
-import java.io.BufferedReader;
 import java.io.Reader;
 import java.io.IOException;
 
-/** Provides user entered input to be parsed and interpreted.
+/** Provides user entered input to be parsed and interpreted. Input
+ *  is buffered here and handed out a character at a time, so that
+ *  long commands can be parsed as they arrive.
  *  @author Christian Choi
  */
 class ReaderSource {
 
-    /** Input source. */
-    private BufferedReader _input;
+    /** Number of characters read from the source at once. */
+    private static final int BUFFER = 1 << 16;
+
+    /** Input source, or null once it is exhausted. */
+    private Reader _input;
+
+    /** Characters read from the source but not yet consumed. */
+    private final char[] _buf = new char[BUFFER];
+
+    /** The next character to consume is _buf[_pos], and the buffer
+     *  holds valid characters up to _limit. */
+    private int _pos, _limit;
 
     ReaderSource(Reader input) {
-        _input = new BufferedReader(input);
+        _input = input;
     }
 
-    /** Reads in a line at a time from the source. */
-    public String getLine(String prompt) {
+    /** Prints PROMPT before the next command is read. */
+    void prompt(String prompt) {
+        if (!prompt.isEmpty()) {
+            System.out.print(prompt);
+            System.out.flush();
+        }
+    }
+
+    /** Returns the next character without consuming it, or -1 at the
+     *  end of input. */
+    int peek() {
+        if (_pos == _limit && !fill()) {
+            return -1;
+        }
+        return _buf[_pos];
+    }
+
+    /** Consumes and returns the next character, or -1 at the end of
+     *  input. */
+    int read() {
+        if (_pos == _limit && !fill()) {
+            return -1;
+        }
+        return _buf[_pos++];
+    }
+
+    /** Whether C ends a line. */
+    static boolean isNewline(int c) {
+        return c == '\n' || c == '\r';
+    }
+
+    /** Consumes the line terminator starting with C, which has just
+     *  been read. */
+    void endLine(int c) {
+        if (c == '\r' && peek() == '\n') {
+            _pos += 1;
+        }
+    }
+
+    /** Discards the rest of the current line and its terminator. */
+    void skipLine() {
+        int c = read();
+        while (c != -1 && !isNewline(c)) {
+            c = read();
+        }
+        endLine(c);
+    }
+
+    /** Refills the buffer, returning false at the end of input. Read
+     *  errors are treated as the end of input. */
+    private boolean fill() {
         if (_input == null) {
-            return null;
+            return false;
         }
         try {
-            System.out.print(prompt);
-            System.out.flush();
-            String result = _input.readLine();
-            if (result == null) {
-                _input.close();
+            int n = _input.read(_buf, 0, BUFFER);
+            while (n == 0) {
+                n = _input.read(_buf, 0, BUFFER);
             }
-            result = result.trim();
-            if (result.length() == 0) {
-                return getLine(prompt);
-            } else {
-                return result;
+            if (n > 0) {
+                _pos = 0;
+                _limit = n;
+                return true;
             }
+            _input.close();
         } catch (IOException excp) {
-            return null;
+            /* Treated as the end of input. */
         }
+        _input = null;
+        return false;
     }
 
-
 }
@@ -0,0 +1,179 @@
+package matrix;
+
+import java.math.BigInteger;
+
+import static matrix.MatrixException.error;
+
+/** Exact determinants, RREFs and inverses by fraction-free (Bareiss)
+ *  elimination. Each row of the matrix is first scaled by the least
+ *  common multiple of the denominators of its elements as entered, so
+ *  that every element is an integer. Elimination then replaces each
+ *  element by a 2 x 2 determinant divided exactly by the previous
+ *  pivot, which keeps every element an integer no larger than a minor
+ *  of the matrix. Only the last step, dividing rows by their pivots,
+ *  makes fractions.
+ *  @author Christian Choi */
+
+class ReducerBareiss {
+
+    /** The exact determinant of the square matrix M. */
+    static Rational determinant(MatrixObj m) {
+        int n = m.rows();
+        Rational[] scales = new Rational[n];
+        Rational[][] a = integerRows(m, scales);
+        Rational prev = Rational.ONE;
+        boolean negate = false;
+        for (int k = 0; k < n - 1; k += 1) {
+            if (a[k][k].isZero()) {
+                int p = k + 1;
+                while (p < n && a[p][k].isZero()) {
+                    p += 1;
+                }
+                if (p == n) {
+                    return Rational.ZERO;
+                }
+                Rational[] temp = a[p];
+                a[p] = a[k];
+                a[k] = temp;
+                negate = !negate;
+            }
+            Rational pivot = a[k][k];
+            for (int i = k + 1; i < n; i += 1) {
+                Rational f = a[i][k];
+                for (int j = k + 1; j < n; j += 1) {
+                    a[i][j] = Rational.crossQuotient(pivot, a[i][j], f,
+                        a[k][j], prev);
+                }
+            }
+            prev = pivot;
+        }
+        Rational det = n == 0 ? Rational.ONE : a[n - 1][n - 1];
+        for (Rational s : scales) {
+            det = det.divide(s);
+        }
+        return negate ? det.negate() : det;
+    }
+
+    /** The exact RREF of M. */
+    static Rational[][] rref(MatrixObj m) {
+        Rational[][] a = integerRows(m, new Rational[m.rows()]);
+        reduce(a, m.cols());
+        return a;
+    }
+
+    /** The exact inverse of the square matrix M, found as the right
+     *  half of the RREF of M beside the identity. */
+    static Rational[][] inverse(MatrixObj m) {
+        int n = m.rows();
+        double[] aug = new double[n * 2 * n];
+        for (int i = 0; i < n; i += 1) {
+            for (int j = 0; j < n; j += 1) {
+                aug[i * 2 * n + j] = m.get(i, j);
+            }
+            aug[i * 2 * n + n + i] = 1;
+        }
+        Rational[][] a = integerRows(new MatrixObj(n, 2 * n, aug),
+            new Rational[n]);
+        if (reduce(a, n) < n) {
+            throw error("determinant of 0 means no inverse");
+        }
+        Rational[][] inverse = new Rational[n][];
+        for (int i = 0; i < n; i += 1) {
+            inverse[i] = new Rational[n];
+            System.arraycopy(a[i], n, inverse[i], 0, n);
+        }
+        return inverse;
+    }
+
+    /** The doubles nearest the elements of the exact rows A. */
+    static MatrixObj toMatrix(Rational[][] a) {
+        int rows = a.length;
+        int cols = rows == 0 ? 0 : a[0].length;
+        double[] elems = new double[rows * cols];
+        for (int i = 0; i < rows; i += 1) {
+            for (int j = 0; j < cols; j += 1) {
+                elems[i * cols + j] = a[i][j].doubleValue();
+            }
+        }
+        return new MatrixObj(rows, cols, elems);
+    }
+
+    /** The elements of M as exact rows of integers, each row scaled by
+     *  the least common multiple of its denominators, which is put in
+     *  SCALES. */
+    private static Rational[][] integerRows(MatrixObj m,
+                                            Rational[] scales) {
+        int rows = m.rows();
+        int cols = m.cols();
+        Rational[][] a = new Rational[rows][cols];
+        for (int i = 0; i < rows; i += 1) {
+            BigInteger lcm = BigInteger.ONE;
+            for (int j = 0; j < cols; j += 1) {
+                a[i][j] = Rational.valueOf(m.get(i, j));
+                BigInteger den = a[i][j].denominator();
+                if (!den.equals(BigInteger.ONE)) {
+                    lcm = lcm.divide(lcm.gcd(den)).multiply(den);
+                }
+            }
+            scales[i] = Rational.valueOf(lcm, BigInteger.ONE);
+            if (!lcm.equals(BigInteger.ONE)) {
+                for (int j = 0; j < cols; j += 1) {
+                    a[i][j] = a[i][j].multiply(scales[i]);
+                }
+            }
+        }
+        return a;
+    }
+
+    /** Reduces the rows of integers A to RREF in place by
+     *  fraction-free Gauss-Jordan elimination, choosing pivots only
+     *  among the first PIVOTCOLS cols, and returns the rank found.
+     *  After each pivot every row but the pivot row is eliminated,
+     *  and the pivots of earlier rows all become the new pivot. */
+    private static int reduce(Rational[][] a, int pivotCols) {
+        int rows = a.length;
+        int cols = rows == 0 ? 0 : a[0].length;
+        Rational prev = Rational.ONE;
+        int r = 0;
+        int[] pivots = new int[rows];
+        for (int c = 0; c < pivotCols && r < rows; c += 1) {
+            int p = r;
+            while (p < rows && a[p][c].isZero()) {
+                p += 1;
+            }
+            if (p == rows) {
+                continue;
+            }
+            Rational[] pivotRow = a[p];
+            a[p] = a[r];
+            a[r] = pivotRow;
+            Rational pivot = pivotRow[c];
+            for (int i = 0; i < rows; i += 1) {
+                if (i == r) {
+                    continue;
+                }
+                Rational[] row = a[i];
+                Rational f = row[c];
+                for (int j = 0; j < cols; j += 1) {
+                    if (j == c || row[j].isZero() && pivotRow[j].isZero()) {
+                        continue;
+                    }
+                    row[j] = Rational.crossQuotient(pivot, row[j], f,
+                        pivotRow[j], prev);
+                }
+                row[c] = Rational.ZERO;
+            }
+            prev = pivot;
+            pivots[r] = c;
+            r += 1;
+        }
+        for (int i = 0; i < r; i += 1) {
+            Rational pivot = a[i][pivots[i]];
+            for (int j = 0; j < cols; j += 1) {
+                a[i][j] = a[i][j].divide(pivot);
+            }
+        }
+        return r;
+    }
+
+}
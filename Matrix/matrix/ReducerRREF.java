@@ -1,85 +1,211 @@
 package matrix;
 
 import java.util.ArrayList;
-import java.util.List;
 
 /** Class for RREF computation utilities
  * @author Christian Choi */
 
 class ReducerRREF {
 
-    /** Contains string representation of matrix at each step. */
-    private static ArrayList<String> rrefSteps
-        = new ArrayList<>();
-
-    /** Contains labels of calculations for each step. */
-    private static ArrayList<String> labels
-        = new ArrayList<>();
-
-    /** Prints all steps involved in reaching RREF. */
-    static MatrixObj printRREF(MatrixObj m) {
-        clearMsg();
-        MatrixObj mat = rref(m);
-        for (int i = 0; i < rrefSteps.size(); i += 1) {
-            System.out.println(labels.get(i));
-            System.out.println(rrefSteps.get(i));
-            System.out.println("");
-        }
-        clearMsg();
-        return mat;
+    /** Receives the matrix after each displayed step of the RREF
+     *  algorithm along with a label describing the step. */
+    interface StepListener {
+        /** Called with LABEL and the matrix M reached by the step. */
+        void step(String label, MatrixObj m);
     }
 
-    /** Algorithm for computing RREF. */
+    /** Computes the RREF of M along with every step involved in
+     *  reaching it. Each call records into its own Trace, so any
+     *  number of threads may call this at once. */
+    static Trace traceRREF(MatrixObj m) {
+        Trace trace = new Trace();
+        trace._result = rref(m, trace);
+        return trace;
+    }
+
+    /** An RREF together with the steps involved in reaching it. */
+    static class Trace implements StepListener {
+
+        /** Labels of calculations for each step. */
+        private final ArrayList<String> _labels = new ArrayList<>();
+
+        /** Matrix reached at each step. */
+        private final ArrayList<MatrixObj> _steps = new ArrayList<>();
+
+        /** The RREF. */
+        private MatrixObj _result;
+
+        @Override
+        public void step(String label, MatrixObj m) {
+            _labels.add(label);
+            _steps.add(m);
+        }
+
+        /** The RREF. */
+        MatrixObj result() {
+            return _result;
+        }
+
+        /** Rendering of all steps involved in reaching the RREF,
+         *  with a blank line after each. */
+        @Override
+        public String toString() {
+            StringBuilder steps = new StringBuilder();
+            for (int i = 0; i < _steps.size(); i += 1) {
+                steps.append(_labels.get(i)).append('\n');
+                steps.append(_steps.get(i)).append('\n');
+                steps.append('\n');
+            }
+            return steps.toString();
+        }
+    }
+
+    /** Candidate pivots below this times the largest element of their
+     *  col are treated as zero by the Gauss-Jordan kernel. */
+    private static final double ZERO_TOL = 1E-10;
+
+    /** Computes the RREF of M without recording any steps. A sparse
+     *  M is reduced densely, since elimination fills it in, and the
+     *  result is stored sparse again if it is still mostly zero. */
     static MatrixObj rref(MatrixObj m) {
-        rrefSteps.add(m.toString());
-        labels.add("Initial");
+        double[] a = m.toArray();
+        reduce(a, m.rows(), m.cols());
+        MatrixObj result = new MatrixObj(m.rows(), m.cols(), a);
+        if (m.isSparse()) {
+            return SparseMatrixObj.choose(result);
+        }
+        return result;
+    }
+
+    /** Reduces the ROWS x COLS row-major matrix A to RREF in place
+     *  by Gauss-Jordan elimination with partial pivoting. Whether a
+     *  col has a pivot is decided against the scale of that col alone,
+     *  so that the identity in an augmented [A | I] does not decide it
+     *  for A, and the elements left in cols without a pivot are kept
+     *  as computed. */
+    static void reduce(double[] a, int rows, int cols) {
+        double[] scale = new double[cols];
+        for (int i = 0; i < rows; i += 1) {
+            for (int j = 0; j < cols; j += 1) {
+                scale[j] = Math.max(scale[j], Math.abs(a[i * cols + j]));
+            }
+        }
+        int r = 0;
+        for (int c = 0; c < cols && r < rows; c += 1) {
+            int p = r;
+            for (int i = r + 1; i < rows; i += 1) {
+                if (Math.abs(a[i * cols + c]) > Math.abs(a[p * cols + c])) {
+                    p = i;
+                }
+            }
+            if (Math.abs(a[p * cols + c]) <= ZERO_TOL * scale[c]) {
+                continue;
+            }
+            if (p != r) {
+                for (int j = c; j < cols; j += 1) {
+                    double temp = a[p * cols + j];
+                    a[p * cols + j] = a[r * cols + j];
+                    a[r * cols + j] = temp;
+                }
+            }
+            int pivRow = r * cols;
+            double pivot = a[pivRow + c];
+            for (int j = c + 1; j < cols; j += 1) {
+                a[pivRow + j] /= pivot;
+            }
+            a[pivRow + c] = 1;
+            for (int i = 0; i < rows; i += 1) {
+                int row = i * cols;
+                double f = a[row + c];
+                if (i != r && f != 0) {
+                    for (int j = c + 1; j < cols; j += 1) {
+                        a[row + j] -= f * a[pivRow + j];
+                    }
+                    a[row + c] = 0;
+                }
+            }
+            r += 1;
+        }
+        for (int i = r * cols; i < a.length; i += 1) {
+            a[i] = 0;
+        }
+    }
+
+    /** Algorithm for computing RREF, reporting each step worth
+     *  displaying to STEPS. */
+    static MatrixObj rref(MatrixObj m, StepListener steps) {
+        steps.step("Initial", m);
         MatrixObj temp = m;
         m = m.reduced().removeRepeats();
-        if (!m.toString().equals(temp.toString())) {
-            labels.add("Reduced");
-            rrefSteps.add(m.toString());
+        if (!sameDisplay(m, temp)) {
+            steps.step("Reduced", m);
         }
-        ArrayList<List<Double>> rrefMatrix
-            = new ArrayList<>(m.matrix());
+        double[][] rrefMatrix = m.rowsCopy();
+        RowIndex index = new RowIndex(rrefMatrix);
         for (int i = 0; i < m.rows(); i += 1) {
-            List<Double> row = rrefMatrix.get(i);
+            double[] row = rrefMatrix[i];
             int leadIndex = MatrixObj.leadIndex(row);
             if (leadIndex != Integer.MAX_VALUE) {
-                double leadNum = row.get(leadIndex);
+                double leadNum = row[leadIndex];
                 for (int j = 0; j < m.rows(); j += 1) {
-                    List<Double> compRow = rrefMatrix.get(j);
+                    double[] compRow = rrefMatrix[j];
                     int compLeadIndex = MatrixObj.leadIndex(compRow);
                     if (i != j && compLeadIndex <= leadIndex) {
-                        double compLeadNum = compRow.get(leadIndex);
+                        double compLeadNum = compRow[leadIndex];
                         double scale = compLeadNum / leadNum;
-                        for (int k = 0; k < row.size(); k += 1) {
-                            double addThis = row.get(k) * scale;
-                            if (Math.abs(compRow.get(k) - addThis) < 1E-10) {
-                                compRow.set(k, (double) 0);
+                        for (int k = 0; k < row.length; k += 1) {
+                            double addThis = row[k] * scale;
+                            if (Math.abs(compRow[k] - addThis) < 1E-10) {
+                                compRow[k] = 0;
                             } else {
-                                compRow.set(k, compRow.get(k) - addThis);
+                                compRow[k] = compRow[k] - addThis;
                             }
                         }
-                        String instruction = rrefStepStr(scale, " - ", j, i);
-                        rrefMatrix.set(j, compRow);
-                        MatrixObj mRREF = stepMatrix(rrefMatrix);
-                        String str = mRREF.toString();
-                        mRREF = mRREF.reduced().removeRepeats();
-                        String rrStr = mRREF.toString();
+                        MatrixObj step = MatrixObj.fromRows(rrefMatrix);
+                        removeRepeat(index, j,
+                            MatrixObj.reducedRow(compRow));
+                        MatrixObj mRREF = MatrixObj.fromRows(rrefMatrix);
                         if (scale != 0) {
-                            rrefSteps.add(str);
-                            labels.add(instruction);
+                            steps.step(rrefStepStr(scale, " - ", j, i),
+                                step);
                         }
-                        if (!str.equals(rrStr)) {
-                            rrefSteps.add(rrStr);
-                            labels.add("Reduced");
+                        if (!sameDisplay(step, mRREF)) {
+                            steps.step("Reduced", mRREF);
                         }
-                        rrefMatrix = mRREF.matrix();
                     }
                 }
             }
         }
-        return fixUpRREF(rrefMatrix);
+        return fixUpRREF(rrefMatrix, steps);
+    }
+
+    /** Updates INDEX after row J of its rows, all reduced and none
+     *  equal to an earlier row but zero rows, is changed to the
+     *  reduced ROW. Then if row J equals another row, the later of the
+     *  two is replaced by zeros, so that the rows are as reduced and
+     *  removeRepeats would leave them, without passing over every
+     *  row. */
+    private static void removeRepeat(RowIndex index, int j, double[] row) {
+        index.update(j, row);
+        int k = index.firstEqual(j);
+        if (k >= 0) {
+            int later = Math.max(j, k);
+            index.update(later, new double[row.length]);
+        }
+    }
+
+    /** Whether A and B, which have the same dimensions, are
+     *  displayed the same way. */
+    private static boolean sameDisplay(MatrixObj a, MatrixObj b) {
+        for (int i = 0; i < a.rows(); i += 1) {
+            for (int j = 0; j < a.cols(); j += 1) {
+                if (Math.round(a.get(i, j) * 100.0)
+                    != Math.round(b.get(i, j) * 100.0)) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     /** Helper method for generating label for each calculation
@@ -107,61 +233,29 @@ class ReducerRREF {
 
     /** Helper method for final fixup before completion of
       * RREF algorithm. */
-    private static MatrixObj fixUpRREF(ArrayList<List<Double>> arr) {
-        MatrixObj mRREF = stepMatrix(arr);
-        String lastStr = mRREF.toString();
-        ArrayList<List<Double>> finalMat = mRREF.matrix();
-        for (int i = 0; i < finalMat.size(); i += 1) {
-            List<Double> lst = finalMat.get(i);
+    private static MatrixObj fixUpRREF(double[][] arr,
+                                       StepListener steps) {
+        MatrixObj last = MatrixObj.fromRows(arr);
+        for (double[] lst : arr) {
             int lead = MatrixObj.leadIndex(lst);
             if (lead != Integer.MAX_VALUE) {
-                double num = lst.get(lead);
-                for (int j = 0; j < lst.size(); j += 1) {
-                    if (lst.get(j) != 0) {
-                        lst.set(j, lst.get(j) / num);
+                double num = lst[lead];
+                for (int j = 0; j < lst.length; j += 1) {
+                    if (lst[j] != 0) {
+                        lst[j] = lst[j] / num;
                     }
                 }
             }
-            finalMat.set(i, lst);
         }
-        MatrixObj mat = stepMatrix(finalMat);
-        if (!mat.toString().equals(lastStr)) {
-            rrefSteps.add(mat.toString());
-            labels.add("Reduced");
+        MatrixObj mat = MatrixObj.fromRows(arr);
+        if (!sameDisplay(mat, last)) {
+            steps.step("Reduced", mat);
         }
         MatrixObj rMat = mat.reorder();
-        if (!mat.toString().equals(rMat.toString())) {
-            rrefSteps.add(rMat.toString());
-            labels.add("Reordered");
+        if (!sameDisplay(mat, rMat)) {
+            steps.step("Reordered", rMat);
         }
         return rMat;
     }
 
-    /** Helper method for determining if two numbers have
-     * the same sign. */
-    private static boolean sameSign(double x, double y) {
-        return (x >= 0 && y >= 0)
-            || (x < 0 && y < 0);
-    }
-
-    /** Helper method for generating a matrix at each
-     * step along the RREF algorithm. */
-    private static MatrixObj stepMatrix(ArrayList<List<Double>> arr) {
-        ArrayList<Double> rrefElems = new ArrayList<>();
-        for (List<Double> lst : arr) {
-            rrefElems.addAll(lst);
-        }
-        int r = arr.size();
-        int c = arr.get(0).size();
-        return new MatrixObj(r, c, rrefElems);
-    }
-
-    /** Clears arraylists containing matrix string representations
-     * and labels of calculations for each step. */
-    private static void clearMsg() {
-        rrefSteps.clear();
-        labels.clear();
-    }
-
 }
-
@@ -0,0 +1,110 @@
+package matrix;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/** Index of the rows of a matrix by a fingerprint of their contents,
+ *  so that the rows equal to a given row are found in time linear in
+ *  its length rather than in the size of the matrix. Rows are equal
+ *  if their elements all are, with 0 and -0 taken as equal, since
+ *  they are displayed alike, and NaN as equal to itself. Rows may be
+ *  changed and updated in the index one at a time, so that it can be
+ *  kept across steps which change only a few rows.
+ *  @author Christian Choi */
+
+class RowIndex {
+
+    /** The rows indexed. */
+    private final double[][] _rows;
+
+    /** Fingerprint of each row. */
+    private final long[] _prints;
+
+    /** Indices of the rows with each fingerprint, in increasing
+     *  order. */
+    private final HashMap<Long, ArrayList<Integer>> _buckets;
+
+    /** An index of ROWS, which must all be the same length. Changes
+     *  to ROWS must be reported with update. */
+    RowIndex(double[][] rows) {
+        _rows = rows;
+        _prints = new long[rows.length];
+        _buckets = new HashMap<>();
+        for (int i = 0; i < rows.length; i += 1) {
+            _prints[i] = fingerprint(rows[i]);
+            bucket(_prints[i]).add(i);
+        }
+    }
+
+    /** Updates this index after row I is changed or replaced by
+     *  ROW. */
+    void update(int i, double[] row) {
+        _rows[i] = row;
+        ArrayList<Integer> old = _buckets.get(_prints[i]);
+        old.remove(Integer.valueOf(i));
+        if (old.isEmpty()) {
+            _buckets.remove(_prints[i]);
+        }
+        _prints[i] = fingerprint(row);
+        ArrayList<Integer> bucket = bucket(_prints[i]);
+        int k = bucket.size();
+        while (k > 0 && bucket.get(k - 1) > i) {
+            k -= 1;
+        }
+        bucket.add(k, i);
+    }
+
+    /** Index of the first row other than row I which equals it, or -1
+     *  if there is none. */
+    int firstEqual(int i) {
+        for (int k : _buckets.get(_prints[i])) {
+            if (k != i && equal(_rows[k], _rows[i])) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /** Indices, in increasing order, of the rows which equal some
+     *  other row if ALL, and otherwise of only those which equal an
+     *  earlier row. */
+    ArrayList<Integer> repeats(boolean all) {
+        ArrayList<Integer> reps = new ArrayList<>();
+        for (int i = 0; i < _rows.length; i += 1) {
+            int k = firstEqual(i);
+            if (k >= 0 && (all || k < i)) {
+                reps.add(i);
+            }
+        }
+        return reps;
+    }
+
+    /** The indices of the rows with fingerprint PRINT, added if there
+     *  are none yet. */
+    private ArrayList<Integer> bucket(long print) {
+        return _buckets.computeIfAbsent(print, p -> new ArrayList<>());
+    }
+
+    /** Fingerprint of ROW, the same for all equal rows. */
+    private static long fingerprint(double[] row) {
+        long h = row.length;
+        for (double d : row) {
+            h = (h ^ Double.doubleToLongBits(d + 0.0))
+                * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        return h;
+    }
+
+    /** Whether rows A and B are equal. */
+    private static boolean equal(double[] a, double[] b) {
+        for (int j = 0; j < a.length; j += 1) {
+            if (Double.doubleToLongBits(a[j] + 0.0)
+                != Double.doubleToLongBits(b[j] + 0.0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
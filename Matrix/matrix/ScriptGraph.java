@@ -0,0 +1,94 @@
+package matrix;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/** The order that must be kept between the commands of a script. A
+ *  command depends on the last command before it that wrote a matrix
+ *  it reads or writes, and on every command that read a matrix it
+ *  writes since that matrix was last written. A barrier depends on
+ *  every command before it, and every command after it on the
+ *  barrier. Commands with no path between them may run in any order,
+ *  or at once, and leave the same matrices saved as running them in
+ *  order would.
+ *  @author Christian Choi */
+
+class ScriptGraph {
+
+    /** Adds CMND as the next command of the script. */
+    void add(Command cmnd) {
+        int step = _deps.size();
+        TreeSet<Integer> deps = new TreeSet<>();
+        if (cmnd.isBarrier()) {
+            deps.addAll(_sinceBarrier);
+            if (_barrier >= 0) {
+                deps.add(_barrier);
+            }
+            _barrier = step;
+            _sinceBarrier.clear();
+            _lastWriter.clear();
+            _readers.clear();
+        } else {
+            if (_barrier >= 0) {
+                deps.add(_barrier);
+            }
+            for (String name : cmnd.reads()) {
+                Integer writer = _lastWriter.get(name);
+                if (writer != null) {
+                    deps.add(writer);
+                }
+                _readers.computeIfAbsent(name, k -> new ArrayList<>())
+                    .add(step);
+            }
+            for (String name : cmnd.writes()) {
+                Integer writer = _lastWriter.get(name);
+                if (writer != null) {
+                    deps.add(writer);
+                }
+                ArrayList<Integer> readers = _readers.remove(name);
+                if (readers != null) {
+                    deps.addAll(readers);
+                }
+                _lastWriter.put(name, step);
+            }
+            deps.remove(step);
+            _sinceBarrier.add(step);
+        }
+        int[] result = new int[deps.size()];
+        int i = 0;
+        for (int dep : deps) {
+            result[i] = dep;
+            i += 1;
+        }
+        _deps.add(result);
+    }
+
+    /** Number of commands added. */
+    int size() {
+        return _deps.size();
+    }
+
+    /** Indices of the earlier commands that command STEP must wait
+     *  for. */
+    int[] dependencies(int step) {
+        return _deps.get(step);
+    }
+
+    /** Dependencies of each command. */
+    private final ArrayList<int[]> _deps = new ArrayList<>();
+
+    /** Last command to write each matrix since the last barrier. */
+    private final HashMap<String, Integer> _lastWriter = new HashMap<>();
+
+    /** Commands that read each matrix since it was last written. */
+    private final HashMap<String, ArrayList<Integer>> _readers =
+        new HashMap<>();
+
+    /** Commands since the last barrier. */
+    private final ArrayList<Integer> _sinceBarrier = new ArrayList<>();
+
+    /** Index of the last barrier, or -1. */
+    private int _barrier = -1;
+
+}
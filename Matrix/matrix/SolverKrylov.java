@@ -0,0 +1,210 @@
+package matrix;
+
+import java.util.Arrays;
+
+import static matrix.MatrixException.error;
+
+/** Iterative solvers of A * X = B for large sparse square matrices A,
+ *  which only ever multiply A by vectors and so never fill it in.
+ *  Symmetric matrices are solved by the conjugate gradient method,
+ *  preconditioned by the diagonal of A, and any that turn out not to
+ *  be positive definite, like all other matrices, by restarted
+ *  GMRES. Each col of B is solved separately, until its residual is
+ *  within a relative tolerance of it or an iteration cap is reached.
+ *  @author Christian Choi */
+
+class SolverKrylov {
+
+    /** Default relative residual at which a solve stops. */
+    static final double DEFAULT_TOL = 1E-10;
+
+    /** Default largest number of iterations for each col of B. */
+    static final int DEFAULT_MAX_ITER = 10000;
+
+    /** Number of iterations of GMRES between restarts. */
+    private static final int RESTART = 50;
+
+    /** Solves A * X = B by iteration, for the sparse N x N matrix A,
+     *  stopping each col once its residual is at most TOL times its
+     *  norm and failing if that takes over MAXITER iterations. */
+    static MatrixObj solve(SparseMatrixObj a, MatrixObj b, double tol,
+                           int maxIter) {
+        int n = a.rows();
+        if (b.rows() != n) {
+            throw error("bad dimensions for solve");
+        }
+        int k = b.cols();
+        boolean symmetric = a.isSymmetric();
+        double[] x = new double[n * k];
+        double[] col = new double[n];
+        double[] result = new double[n];
+        for (int j = 0; j < k; j += 1) {
+            for (int i = 0; i < n; i += 1) {
+                col[i] = b.get(i, j);
+            }
+            if (!symmetric || !conjugateGradient(a, col, result, tol,
+                                                 maxIter)) {
+                gmres(a, col, result, tol, maxIter);
+            }
+            for (int i = 0; i < n; i += 1) {
+                x[i * k + j] = result[i];
+            }
+        }
+        return new MatrixObj(n, k, x);
+    }
+
+    /** Sets X to the solution of A * X = B for the vector B by the
+     *  conjugate gradient method, returning false if A turns out not
+     *  to be positive definite. */
+    private static boolean conjugateGradient(SparseMatrixObj a,
+                                             double[] b, double[] x,
+                                             double tol, int maxIter) {
+        int n = b.length;
+        double[] inverseDiag = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            double d = a.get(i, i);
+            if (!(d > 0)) {
+                return false;
+            }
+            inverseDiag[i] = 1 / d;
+        }
+        Arrays.fill(x, 0);
+        double[] r = b.clone();
+        double[] z = new double[n];
+        double[] p = new double[n];
+        double[] ap = new double[n];
+        double limit = tol * norm(b);
+        double rz = 0;
+        for (int i = 0; i < n; i += 1) {
+            z[i] = inverseDiag[i] * r[i];
+            p[i] = z[i];
+            rz += r[i] * z[i];
+        }
+        for (int iter = 0; norm(r) > limit; iter += 1) {
+            if (iter == maxIter) {
+                throw notConverged(maxIter);
+            }
+            a.apply(p, ap);
+            double pap = dot(p, ap);
+            if (!(pap > 0)) {
+                return false;
+            }
+            double alpha = rz / pap;
+            double rzNext = 0;
+            for (int i = 0; i < n; i += 1) {
+                x[i] += alpha * p[i];
+                r[i] -= alpha * ap[i];
+                z[i] = inverseDiag[i] * r[i];
+                rzNext += r[i] * z[i];
+            }
+            double beta = rzNext / rz;
+            rz = rzNext;
+            for (int i = 0; i < n; i += 1) {
+                p[i] = z[i] + beta * p[i];
+            }
+        }
+        return true;
+    }
+
+    /** Sets X to the solution of A * X = B for the vector B by GMRES,
+     *  restarted every RESTART iterations. */
+    private static void gmres(SparseMatrixObj a, double[] b, double[] x,
+                              double tol, int maxIter) {
+        int n = b.length;
+        int m = Math.min(RESTART, n);
+        double[][] v = new double[m + 1][n];
+        double[][] h = new double[m + 1][m];
+        double[] cs = new double[m];
+        double[] sn = new double[m];
+        double[] g = new double[m + 1];
+        double[] y = new double[m];
+        double limit = tol * norm(b);
+        Arrays.fill(x, 0);
+        int iter = 0;
+        while (true) {
+            a.apply(x, v[0]);
+            for (int i = 0; i < n; i += 1) {
+                v[0][i] = b[i] - v[0][i];
+            }
+            double beta = norm(v[0]);
+            if (beta <= limit) {
+                return;
+            } else if (iter >= maxIter) {
+                throw notConverged(maxIter);
+            }
+            scale(v[0], 1 / beta);
+            Arrays.fill(g, 0);
+            g[0] = beta;
+            int steps = 0;
+            while (steps < m && iter < maxIter) {
+                int j = steps;
+                double[] w = v[j + 1];
+                a.apply(v[j], w);
+                for (int i = 0; i <= j; i += 1) {
+                    double hij = dot(w, v[i]);
+                    h[i][j] = hij;
+                    axpy(-hij, v[i], w);
+                }
+                double next = norm(w);
+                for (int i = 0; i < j; i += 1) {
+                    double t = cs[i] * h[i][j] + sn[i] * h[i + 1][j];
+                    h[i + 1][j] = -sn[i] * h[i][j] + cs[i] * h[i + 1][j];
+                    h[i][j] = t;
+                }
+                double r = Math.hypot(h[j][j], next);
+                cs[j] = r == 0 ? 1 : h[j][j] / r;
+                sn[j] = r == 0 ? 0 : next / r;
+                h[j][j] = r;
+                g[j + 1] = -sn[j] * g[j];
+                g[j] = cs[j] * g[j];
+                steps += 1;
+                iter += 1;
+                if (next == 0 || Math.abs(g[j + 1]) <= limit) {
+                    break;
+                }
+                scale(w, 1 / next);
+            }
+            for (int i = steps - 1; i >= 0; i -= 1) {
+                if (h[i][i] == 0) {
+                    throw error("matrix is singular");
+                }
+                double total = g[i];
+                for (int p = i + 1; p < steps; p += 1) {
+                    total -= h[i][p] * y[p];
+                }
+                y[i] = total / h[i][i];
+            }
+            for (int i = 0; i < steps; i += 1) {
+                axpy(y[i], v[i], x);
+            }
+        }
+    }
+
+    /** The error for a solve which took more than MAXITER
+     *  iterations. */
+    private static MatrixException notConverged(int maxIter) {
+        return error("solve did not converge in " + maxIter
+            + " iterations");
+    }
+
+    /** Dot product of X and Y. */
+    private static double dot(double[] x, double[] y) {
+        return Kernels.INSTANCE.dot(x, y, 0, x.length);
+    }
+
+    /** Euclidean norm of X. */
+    private static double norm(double[] x) {
+        return Math.sqrt(dot(x, x));
+    }
+
+    /** Adds ALPHA times X to Y. */
+    private static void axpy(double alpha, double[] x, double[] y) {
+        Kernels.INSTANCE.axpy(alpha, x, 0, y, 0, x.length);
+    }
+
+    /** Multiplies X by ALPHA. */
+    private static void scale(double[] x, double alpha) {
+        Kernels.INSTANCE.scale(x, alpha, x, 0, x.length);
+    }
+
+}
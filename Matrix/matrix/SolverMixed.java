@@ -0,0 +1,254 @@
+package matrix;
+
+import java.util.stream.IntStream;
+
+import static matrix.MatrixException.error;
+
+/** Solves A * X = B for a square matrix A of floats by mixed
+ *  precision iterative refinement. A is decomposed with partial
+ *  pivoting in floats, which moves half the bytes of a decomposition
+ *  in doubles, and each solution found from it is improved by solving
+ *  again for its residual, which is computed in doubles. This reaches
+ *  the accuracy of a decomposition in doubles within a few steps
+ *  unless A is too ill-conditioned for floats, in which case A is
+ *  decomposed in doubles instead, as are matrices with pivots too
+ *  small to trust in floats. Since each refinement step takes time in
+ *  proportion to the number of right-hand sides, solves for more than
+ *  one per RHS_RATIO rows of A use a decomposition in doubles too.
+ *  @author Christian Choi */
+
+class SolverMixed {
+
+    /** Pivots no larger than this times the largest element of A are
+     *  too small to trust in floats. */
+    private static final double FLOAT_TOL = 1E-5;
+
+    /** Largest number of refinement steps taken before giving up on
+     *  the decomposition in floats. */
+    static final int MAX_REFINE = 30;
+
+    /** Solves for more than one right-hand side per this many rows
+     *  of A are not refined. */
+    static final int RHS_RATIO = 32;
+
+    /** Number of multiply-adds of a residual below which it is
+     *  computed on the calling thread. */
+    private static final long SERIAL_WORK = 64L * 64 * 64;
+
+    /** Order of A. */
+    private final int _n;
+
+    /** The matrix A. */
+    private final MatrixObj _a;
+
+    /** Elements of A in row-major order. */
+    private final float[] _elems;
+
+    /** Largest sum of the magnitudes of a row of A. */
+    private final double _norm;
+
+    /** L below the diagonal and U on and above it, row-major, in
+     *  floats. */
+    private final float[] _lu;
+
+    /** Row I of P * A is row _piv[I] of A. */
+    private final int[] _piv;
+
+    /** Decomposition of A in doubles, once one is needed. */
+    private volatile DecompositionLU _fallback;
+
+    /** Decomposes the square matrix of floats M in floats, or in
+     *  doubles if a pivot is too small. */
+    SolverMixed(MatrixObj m) {
+        FloatMatrixObj a = (FloatMatrixObj) m;
+        int n = a.rows();
+        _n = n;
+        _a = a;
+        _elems = a.floats();
+        _lu = _elems.clone();
+        _piv = new int[n];
+        double norm = 0;
+        double largest = 0;
+        for (int i = 0; i < n; i += 1) {
+            _piv[i] = i;
+            double total = 0;
+            for (int j = 0; j < n; j += 1) {
+                double d = Math.abs(_elems[i * n + j]);
+                total += d;
+                largest = Math.max(largest, d);
+            }
+            norm = Math.max(norm, total);
+        }
+        _norm = norm;
+        if (!decompose(FLOAT_TOL * largest)) {
+            _fallback = new DecompositionLU(a);
+        }
+    }
+
+    /** Decomposes _lu in place, returning false as soon as a pivot
+     *  is no larger than TOL. */
+    private boolean decompose(double tol) {
+        int n = _n;
+        float[] lu = _lu;
+        for (int k = 0; k < n; k += 1) {
+            int p = k;
+            for (int i = k + 1; i < n; i += 1) {
+                if (Math.abs(lu[i * n + k]) > Math.abs(lu[p * n + k])) {
+                    p = i;
+                }
+            }
+            if (Math.abs(lu[p * n + k]) <= tol) {
+                return false;
+            } else if (p != k) {
+                for (int j = 0; j < n; j += 1) {
+                    float temp = lu[p * n + j];
+                    lu[p * n + j] = lu[k * n + j];
+                    lu[k * n + j] = temp;
+                }
+                int temp = _piv[p];
+                _piv[p] = _piv[k];
+                _piv[k] = temp;
+            }
+            int pivRow = k * n;
+            float pivot = lu[pivRow + k];
+            for (int i = k + 1; i < n; i += 1) {
+                int row = i * n;
+                float f = lu[row + k] / pivot;
+                lu[row + k] = f;
+                if (f != 0) {
+                    for (int j = k + 1; j < n; j += 1) {
+                        lu[row + j] -= f * lu[pivRow + j];
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /** The decomposition of A in doubles, made the first time it is
+     *  needed. */
+    private DecompositionLU fallback() {
+        DecompositionLU fallback = _fallback;
+        if (fallback == null) {
+            fallback = new DecompositionLU(_a);
+            _fallback = fallback;
+        }
+        return fallback;
+    }
+
+    /** Returns X solving A * X = B for the N x K matrix B. */
+    MatrixObj solve(MatrixObj b) {
+        if (b.rows() != _n) {
+            throw error("bad dimensions for solve");
+        }
+        int n = _n;
+        int k = b.cols();
+        if (_fallback != null || k > Math.max(1, n / RHS_RATIO)) {
+            return fallback().solve(b);
+        }
+        double[] x = new double[n * k];
+        double[] rhs = new double[n];
+        for (int c = 0; c < k; c += 1) {
+            for (int i = 0; i < n; i += 1) {
+                rhs[i] = b.get(i, c);
+            }
+            double[] col = refine(rhs);
+            if (col == null) {
+                return fallback().solve(b);
+            }
+            for (int i = 0; i < n; i += 1) {
+                x[i * k + c] = col[i];
+            }
+        }
+        return new MatrixObj(n, k, x);
+    }
+
+    /** Returns the solution of A * x = RHS, refined until it is as
+     *  accurate as one from a decomposition in doubles, or null if it
+     *  is not within MAX_REFINE steps. Each correction is solved for
+     *  with the residual scaled to at most 1, so that residuals
+     *  outside the range of floats lose nothing. */
+    private double[] refine(double[] rhs) {
+        int n = _n;
+        double[] x = new double[n];
+        double[] r = rhs.clone();
+        float[] d = new float[n];
+        for (int step = 0; step <= MAX_REFINE; step += 1) {
+            if (step > 0) {
+                residual(rhs, x, r);
+                if (converged(r, x)) {
+                    return x;
+                }
+            }
+            double scale = 0;
+            for (int i = 0; i < n; i += 1) {
+                scale = Math.max(scale, Math.abs(r[i]));
+            }
+            if (scale == 0) {
+                return x;
+            }
+            for (int i = 0; i < n; i += 1) {
+                d[i] = (float) (r[_piv[i]] / scale);
+            }
+            substitute(d);
+            for (int i = 0; i < n; i += 1) {
+                x[i] += scale * d[i];
+            }
+        }
+        return null;
+    }
+
+    /** Overwrites the permuted right-hand side D with the solution of
+     *  L * U * y = D, in floats. */
+    private void substitute(float[] d) {
+        int n = _n;
+        float[] lu = _lu;
+        for (int i = 0; i < n; i += 1) {
+            int row = i * n;
+            float total = d[i];
+            for (int p = 0; p < i; p += 1) {
+                total -= lu[row + p] * d[p];
+            }
+            d[i] = total;
+        }
+        for (int i = n - 1; i >= 0; i -= 1) {
+            int row = i * n;
+            float total = d[i];
+            for (int p = i + 1; p < n; p += 1) {
+                total -= lu[row + p] * d[p];
+            }
+            d[i] = total / lu[row + i];
+        }
+    }
+
+    /** Sets R to RHS - A * X, in doubles. */
+    private void residual(double[] rhs, double[] x, double[] r) {
+        int n = _n;
+        IntStream rows = IntStream.range(0, n);
+        if ((long) n * n > SERIAL_WORK) {
+            rows = rows.parallel();
+        }
+        rows.forEach(i -> {
+            int row = i * n;
+            double total = rhs[i];
+            for (int j = 0; j < n; j += 1) {
+                total -= _elems[row + j] * x[j];
+            }
+            r[i] = total;
+        });
+    }
+
+    /** Whether the residual R is small enough relative to X that X is
+     *  as accurate as a solution from a decomposition in doubles, as
+     *  judged by LAPACK's dsgesv. */
+    private boolean converged(double[] r, double[] x) {
+        double rNorm = 0;
+        double xNorm = 0;
+        for (int i = 0; i < _n; i += 1) {
+            rNorm = Math.max(rNorm, Math.abs(r[i]));
+            xNorm = Math.max(xNorm, Math.abs(x[i]));
+        }
+        return rNorm <= xNorm * _norm * Math.ulp(1.0) / 2 * Math.sqrt(_n);
+    }
+
+}
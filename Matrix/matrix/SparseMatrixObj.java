@@ -0,0 +1,486 @@
+package matrix;
+
+import java.util.Arrays;
+
+import static matrix.MatrixException.error;
+
+/** A matrix which only stores its non-zero elements, in compressed
+ *  sparse row (CSR) or compressed sparse column (CSC) form. The
+ *  transpose of a CSR matrix is the same arrays read as CSC, so
+ *  transposing is free.
+ *  @author Christian Choi
+ */
+class SparseMatrixObj extends MatrixObj {
+
+    /** Matrices with fewer elements than this are always dense. */
+    static final long MIN_SPARSE = 4096;
+
+    /** Matrices with at most this fraction of non-zero elements are
+     *  stored sparse. */
+    static final double SPARSE_FILL = 0.1;
+
+    /** Largest number of elements of a dense matrix. */
+    static final long MAX_DENSE = Integer.MAX_VALUE - 8;
+
+    /** Non-zero elements of major line K are at indices
+     *  [_ptr[K], _ptr[K + 1]) of _idx and _vals. Major lines are rows
+     *  in CSR form and cols in CSC form. */
+    private final int[] _ptr;
+
+    /** Minor index of each non-zero element, increasing within each
+     *  major line. */
+    private final int[] _idx;
+
+    /** Value of each non-zero element. */
+    private final double[] _vals;
+
+    /** Whether major lines are cols rather than rows. */
+    private final boolean _byCols;
+
+    /** A ROWS x COLS matrix in CSC form if BYCOLS and CSR form
+     *  otherwise, with non-zero elements given by PTR, IDX and VALS,
+     *  which are not copied. */
+    SparseMatrixObj(int rows, int cols, int[] ptr, int[] idx,
+                    double[] vals, boolean byCols) {
+        super(rows, cols);
+        _ptr = ptr;
+        _idx = idx;
+        _vals = vals;
+        _byCols = byCols;
+    }
+
+    /** A ROWS x COLS matrix of zeroes. */
+    static SparseMatrixObj zero(int rows, int cols) {
+        return new SparseMatrixObj(rows, cols, new int[rows + 1],
+            new int[0], new double[0], false);
+    }
+
+    /** The N x N identity matrix. */
+    static SparseMatrixObj identity(int n) {
+        int[] ptr = new int[n + 1];
+        int[] idx = new int[n];
+        double[] vals = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            ptr[i + 1] = i + 1;
+            idx[i] = i;
+            vals[i] = 1;
+        }
+        return new SparseMatrixObj(n, n, ptr, idx, vals, false);
+    }
+
+    /** M in CSR form. */
+    static SparseMatrixObj fromDense(MatrixObj m) {
+        if (m.isSparse()) {
+            return ((SparseMatrixObj) m).toCSR();
+        }
+        int rows = m.rows();
+        int cols = m.cols();
+        int nnz = 0;
+        for (int i = 0; i < rows; i += 1) {
+            for (int j = 0; j < cols; j += 1) {
+                if (m.get(i, j) != 0) {
+                    nnz += 1;
+                }
+            }
+        }
+        int[] ptr = new int[rows + 1];
+        int[] idx = new int[nnz];
+        double[] vals = new double[nnz];
+        int k = 0;
+        for (int i = 0; i < rows; i += 1) {
+            for (int j = 0; j < cols; j += 1) {
+                double d = m.get(i, j);
+                if (d != 0) {
+                    idx[k] = j;
+                    vals[k] = d;
+                    k += 1;
+                }
+            }
+            ptr[i + 1] = k;
+        }
+        return new SparseMatrixObj(rows, cols, ptr, idx, vals, false);
+    }
+
+    /** M stored dense or sparse according to the fraction of its
+     *  elements which are non-zero. Matrices of floats, and matrices
+     *  held in tiles or off the heap, are kept as they are. */
+    static MatrixObj choose(MatrixObj m) {
+        if (m.isFloat() || m.isTiled() || m.isOffHeap()) {
+            return m;
+        }
+        long size = (long) m.rows() * m.cols();
+        long nnz;
+        if (m.isSparse()) {
+            nnz = ((SparseMatrixObj) m).nnz();
+        } else {
+            nnz = 0;
+            for (double d : m.elems()) {
+                if (d != 0) {
+                    nnz += 1;
+                }
+            }
+        }
+        boolean sparse = size >= MIN_SPARSE && nnz <= SPARSE_FILL * size;
+        if (sparse == m.isSparse() || (!sparse && size > MAX_DENSE)) {
+            return m;
+        } else if (sparse) {
+            return fromDense(m);
+        }
+        return new MatrixObj(m.rows(), m.cols(), m.toArray());
+    }
+
+    @Override
+    public boolean isSparse() {
+        return true;
+    }
+
+    /** Start of each major line in the stored elements. */
+    int[] ptr() {
+        return _ptr;
+    }
+
+    /** Minor index of each stored element. */
+    int[] idx() {
+        return _idx;
+    }
+
+    /** Value of each stored element. */
+    double[] vals() {
+        return _vals;
+    }
+
+    /** Whether major lines are cols rather than rows. */
+    boolean byCols() {
+        return _byCols;
+    }
+
+    /** Number of stored non-zero elements. */
+    int nnz() {
+        return _vals.length;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        int major = _byCols ? j : i;
+        int minor = _byCols ? i : j;
+        int k = Arrays.binarySearch(_idx, _ptr[major], _ptr[major + 1],
+            minor);
+        return k >= 0 ? _vals[k] : 0;
+    }
+
+    @Override
+    public double get(int k) {
+        return get(k / cols(), k % cols());
+    }
+
+    @Override
+    public boolean isRowMajor() {
+        return false;
+    }
+
+    @Override
+    public double[] elems() {
+        return toArray();
+    }
+
+    /** Total number of elements, which is only defined for a matrix
+     *  small enough to store densely. */
+    @Override
+    public int size() {
+        long size = (long) rows() * cols();
+        if (size > MAX_DENSE) {
+            throw error("matrix too large to store densely");
+        }
+        return (int) size;
+    }
+
+    @Override
+    public double[] toArray() {
+        double[] result = new double[size()];
+        int majors = _ptr.length - 1;
+        for (int major = 0; major < majors; major += 1) {
+            for (int k = _ptr[major]; k < _ptr[major + 1]; k += 1) {
+                if (_byCols) {
+                    result[_idx[k] * cols() + major] = _vals[k];
+                } else {
+                    result[major * cols() + _idx[k]] = _vals[k];
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public double[] row(int i) {
+        double[] result = new double[cols()];
+        if (_byCols) {
+            for (int j = 0; j < cols(); j += 1) {
+                result[j] = get(i, j);
+            }
+        } else {
+            for (int k = _ptr[i]; k < _ptr[i + 1]; k += 1) {
+                result[_idx[k]] = _vals[k];
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isIntegral() {
+        for (double d : _vals) {
+            if (d != Math.rint(d)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The transpose of this matrix, sharing its storage. */
+    @Override
+    public SparseMatrixObj transpose() {
+        return new SparseMatrixObj(cols(), rows(), _ptr, _idx, _vals,
+            !_byCols);
+    }
+
+    /** This matrix in CSR form. */
+    SparseMatrixObj toCSR() {
+        if (!_byCols) {
+            return this;
+        }
+        int rows = rows();
+        int cols = cols();
+        int[] ptr = new int[rows + 1];
+        for (int k = 0; k < _idx.length; k += 1) {
+            ptr[_idx[k] + 1] += 1;
+        }
+        for (int i = 0; i < rows; i += 1) {
+            ptr[i + 1] += ptr[i];
+        }
+        int[] next = Arrays.copyOf(ptr, rows);
+        int[] idx = new int[_idx.length];
+        double[] vals = new double[_vals.length];
+        for (int j = 0; j < cols; j += 1) {
+            for (int k = _ptr[j]; k < _ptr[j + 1]; k += 1) {
+                int dest = next[_idx[k]];
+                idx[dest] = j;
+                vals[dest] = _vals[k];
+                next[_idx[k]] += 1;
+            }
+        }
+        return new SparseMatrixObj(rows, cols, ptr, idx, vals, false);
+    }
+
+    /** Returns this matrix with every element multiplied by
+     *  CONSTANT. */
+    SparseMatrixObj scale(double constant) {
+        double[] vals = new double[_vals.length];
+        Kernels.INSTANCE.scale(_vals, constant, vals, 0, vals.length);
+        return new SparseMatrixObj(rows(), cols(), _ptr, _idx, vals,
+            _byCols);
+    }
+
+    /** Sets Y to this matrix times the vector X. */
+    void apply(double[] x, double[] y) {
+        int majors = _ptr.length - 1;
+        if (_byCols) {
+            Arrays.fill(y, 0);
+            for (int j = 0; j < majors; j += 1) {
+                double xj = x[j];
+                if (xj != 0) {
+                    for (int k = _ptr[j]; k < _ptr[j + 1]; k += 1) {
+                        y[_idx[k]] += _vals[k] * xj;
+                    }
+                }
+            }
+        } else {
+            for (int i = 0; i < majors; i += 1) {
+                double total = 0;
+                for (int k = _ptr[i]; k < _ptr[i + 1]; k += 1) {
+                    total += _vals[k] * x[_idx[k]];
+                }
+                y[i] = total;
+            }
+        }
+    }
+
+    @Override
+    public boolean isSymmetric() {
+        if (rows() != cols()) {
+            return false;
+        }
+        SparseMatrixObj csr = toCSR();
+        SparseMatrixObj other = transpose().toCSR();
+        return Arrays.equals(csr._ptr, other._ptr)
+            && Arrays.equals(csr._idx, other._idx)
+            && Arrays.equals(csr._vals, other._vals);
+    }
+
+    /** Returns A + SIGN * B for matrices of equal dimensions of which
+     *  at least one is sparse. */
+    static MatrixObj add(MatrixObj a, MatrixObj b, double sign) {
+        if (!a.isSparse()) {
+            return addDense(a.toArray(), 1, fromDense(b), sign, a);
+        } else if (!b.isSparse()) {
+            return addDense(b.toArray(), sign, fromDense(a), 1, a);
+        }
+        SparseMatrixObj x = fromDense(a);
+        SparseMatrixObj y = fromDense(b);
+        int rows = a.rows();
+        int[] ptr = new int[rows + 1];
+        int[] idx = new int[x.nnz() + y.nnz()];
+        double[] vals = new double[idx.length];
+        int n = 0;
+        for (int i = 0; i < rows; i += 1) {
+            int p = x._ptr[i];
+            int q = y._ptr[i];
+            while (p < x._ptr[i + 1] || q < y._ptr[i + 1]) {
+                int col;
+                double val;
+                if (q == y._ptr[i + 1]
+                    || (p < x._ptr[i + 1] && x._idx[p] < y._idx[q])) {
+                    col = x._idx[p];
+                    val = x._vals[p];
+                    p += 1;
+                } else if (p == x._ptr[i + 1] || y._idx[q] < x._idx[p]) {
+                    col = y._idx[q];
+                    val = sign * y._vals[q];
+                    q += 1;
+                } else {
+                    col = x._idx[p];
+                    val = x._vals[p] + sign * y._vals[q];
+                    p += 1;
+                    q += 1;
+                }
+                if (val != 0) {
+                    idx[n] = col;
+                    vals[n] = val;
+                    n += 1;
+                }
+            }
+            ptr[i + 1] = n;
+        }
+        return new SparseMatrixObj(rows, a.cols(), ptr,
+            Arrays.copyOf(idx, n), Arrays.copyOf(vals, n), false);
+    }
+
+    /** Returns the dense matrix SCALE * DENSE + SIGN * SPARSE, with
+     *  the dimensions of SHAPE. DENSE is overwritten. */
+    private static MatrixObj addDense(double[] dense, double scale,
+                                      SparseMatrixObj sparse,
+                                      double sign, MatrixObj shape) {
+        int cols = shape.cols();
+        if (scale != 1) {
+            for (int k = 0; k < dense.length; k += 1) {
+                dense[k] *= scale;
+            }
+        }
+        for (int i = 0; i < shape.rows(); i += 1) {
+            for (int k = sparse._ptr[i]; k < sparse._ptr[i + 1]; k += 1) {
+                dense[i * cols + sparse._idx[k]] += sign * sparse._vals[k];
+            }
+        }
+        return new MatrixObj(shape.rows(), cols, dense);
+    }
+
+    /** Returns A * B for matrices with agreeing dimensions of which
+     *  at least one is sparse. */
+    static MatrixObj multiply(MatrixObj a, MatrixObj b) {
+        int m = a.rows();
+        int n = a.cols();
+        int p = b.cols();
+        if (!b.isSparse()) {
+            SparseMatrixObj x = fromDense(a);
+            double[] y = b.elems();
+            double[] c = new double[m * p];
+            for (int i = 0; i < m; i += 1) {
+                for (int k = x._ptr[i]; k < x._ptr[i + 1]; k += 1) {
+                    double aik = x._vals[k];
+                    int bRow = x._idx[k] * p;
+                    for (int j = 0; j < p; j += 1) {
+                        c[i * p + j] += aik * y[bRow + j];
+                    }
+                }
+            }
+            return new MatrixObj(m, p, c);
+        }
+        SparseMatrixObj y = fromDense(b);
+        if (!a.isSparse()) {
+            double[] x = a.elems();
+            double[] c = new double[m * p];
+            for (int i = 0; i < m; i += 1) {
+                for (int k = 0; k < n; k += 1) {
+                    double aik = x[i * n + k];
+                    if (aik != 0) {
+                        for (int q = y._ptr[k]; q < y._ptr[k + 1]; q += 1) {
+                            c[i * p + y._idx[q]] += aik * y._vals[q];
+                        }
+                    }
+                }
+            }
+            return new MatrixObj(m, p, c);
+        }
+        SparseMatrixObj x = fromDense(a);
+        int[] ptr = new int[m + 1];
+        int[] idx = new int[Math.max(16, x.nnz() + y.nnz())];
+        double[] vals = new double[idx.length];
+        double[] work = new double[p];
+        int[] marker = new int[p];
+        Arrays.fill(marker, -1);
+        int nnz = 0;
+        for (int i = 0; i < m; i += 1) {
+            int start = nnz;
+            for (int k = x._ptr[i]; k < x._ptr[i + 1]; k += 1) {
+                double aik = x._vals[k];
+                int row = x._idx[k];
+                for (int q = y._ptr[row]; q < y._ptr[row + 1]; q += 1) {
+                    int j = y._idx[q];
+                    if (marker[j] != i) {
+                        marker[j] = i;
+                        work[j] = 0;
+                        if (nnz == idx.length) {
+                            idx = Arrays.copyOf(idx, 2 * nnz);
+                            vals = Arrays.copyOf(vals, 2 * nnz);
+                        }
+                        idx[nnz] = j;
+                        nnz += 1;
+                    }
+                    work[j] += aik * y._vals[q];
+                }
+            }
+            Arrays.sort(idx, start, nnz);
+            int kept = start;
+            for (int k = start; k < nnz; k += 1) {
+                double val = work[idx[k]];
+                if (val != 0) {
+                    idx[kept] = idx[k];
+                    vals[kept] = val;
+                    kept += 1;
+                }
+            }
+            nnz = kept;
+            ptr[i + 1] = nnz;
+        }
+        return new SparseMatrixObj(m, p, ptr, Arrays.copyOf(idx, nnz),
+            Arrays.copyOf(vals, nnz), false);
+    }
+
+    /** Dot product of the vectors A and B, of equal size, of which at
+     *  least one is sparse. */
+    static double dot(MatrixObj a, MatrixObj b) {
+        if (!a.isSparse()) {
+            return dot(b, a);
+        }
+        SparseMatrixObj x = (SparseMatrixObj) a;
+        double total = 0;
+        int majors = x._ptr.length - 1;
+        for (int major = 0; major < majors; major += 1) {
+            for (int k = x._ptr[major]; k < x._ptr[major + 1]; k += 1) {
+                int i = x._byCols ? x._idx[k] : major;
+                int j = x._byCols ? major : x._idx[k];
+                total += x._vals[k] * b.get(i * x.cols() + j);
+            }
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,226 @@
+package matrix;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static matrix.MatrixException.error;
+
+/** Storage on disk for the tiles of a matrix too large for the heap.
+ *  Tiles are TILE x TILE, row-major and padded with zeros past the
+ *  edges of the matrix, and live in a memory mapped scratch file,
+ *  which starts out holding zeros. The file is unlinked as soon as
+ *  it is opened, so its space is given back once the store is no
+ *  longer reachable. Tiles are read through a cache of copies on the
+ *  heap shared by every store and bounded to a quarter of the largest
+ *  heap, which drops the least recently used tile first. Tiles are
+ *  written straight to the file, replacing any cached copy.
+ *  @author Christian Choi */
+
+class TileStore {
+
+    /** Number of rows and cols of each tile. */
+    static final int TILE = 256;
+
+    /** Number of bytes of each tile. */
+    private static final int TILE_BYTES = TILE * TILE * Double.BYTES;
+
+    /** Number of tiles in each mapped region of a scratch file. */
+    private static final int TILES_PER_MAP = (1 << 30) / TILE_BYTES;
+
+    /** Largest number of tiles held by the cache. */
+    static final int CAPACITY = (int) Math.max(16,
+        Runtime.getRuntime().maxMemory() / 4 / TILE_BYTES);
+
+    /** Closes the scratch files of unreachable stores. */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /** Source of the numbers identifying stores in the cache. */
+    private static final AtomicLong IDS = new AtomicLong();
+
+    /** Cached tiles of every store, least recently used first. */
+    private static final Map<Key, double[]> CACHE =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<Key, double[]> eldest) {
+                return size() > CAPACITY;
+            }
+        };
+
+    /** Number identifying this store in the cache. */
+    private final long _id;
+
+    /** Number of rows and cols of tiles. */
+    private final int _tileRows, _tileCols;
+
+    /** Scratch file holding the tiles. */
+    private final FileChannel _channel;
+
+    /** Views of each region of the scratch file, mapped on first
+     *  use. */
+    private final DoubleBuffer[] _maps;
+
+    /** A store of TILEROWS x TILECOLS tiles, all zero. */
+    TileStore(int tileRows, int tileCols) {
+        _id = IDS.incrementAndGet();
+        _tileRows = tileRows;
+        _tileCols = tileCols;
+        long tiles = (long) tileRows * tileCols;
+        _maps = new DoubleBuffer[(int) ((tiles + TILES_PER_MAP - 1)
+            / TILES_PER_MAP)];
+        try {
+            Path path = Files.createTempFile("matrix", ".tiles");
+            _channel = FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+            Files.deleteIfExists(path);
+        } catch (IOException excp) {
+            throw error("cannot create scratch file");
+        }
+        CLEANER.register(this, new Release(_id, _channel));
+    }
+
+    /** Number of rows of tiles. */
+    int tileRows() {
+        return _tileRows;
+    }
+
+    /** Number of cols of tiles. */
+    int tileCols() {
+        return _tileCols;
+    }
+
+    /** Tile (TI, TJ), which is shared with the cache and must not be
+     *  modified. */
+    double[] get(int ti, int tj) {
+        Key key = new Key(_id, index(ti, tj));
+        double[] tile;
+        synchronized (CACHE) {
+            tile = CACHE.get(key);
+        }
+        if (tile == null) {
+            tile = new double[TILE * TILE];
+            region(key._index).get(offset(key._index), tile);
+            synchronized (CACHE) {
+                CACHE.put(key, tile);
+            }
+        }
+        return tile;
+    }
+
+    /** Replaces tile (TI, TJ) with TILE, which is kept by the cache
+     *  and must not be modified afterwards. */
+    void put(int ti, int tj, double[] tile) {
+        long index = index(ti, tj);
+        region(index).put(offset(index), tile);
+        synchronized (CACHE) {
+            CACHE.put(new Key(_id, index), tile);
+        }
+    }
+
+    /** Index of tile (TI, TJ) in the scratch file. */
+    private long index(int ti, int tj) {
+        return (long) ti * _tileCols + tj;
+    }
+
+    /** Offset in doubles of the tile at INDEX within its region. */
+    private static int offset(long index) {
+        return (int) (index % TILES_PER_MAP) * TILE * TILE;
+    }
+
+    /** The region of the scratch file holding the tile at INDEX,
+     *  mapping it if it is not yet mapped. Mapping a region past the
+     *  end of the file extends the file with zeros. */
+    private DoubleBuffer region(long index) {
+        int r = (int) (index / TILES_PER_MAP);
+        DoubleBuffer map = _maps[r];
+        if (map == null) {
+            synchronized (_maps) {
+                map = _maps[r];
+                if (map == null) {
+                    long tiles = Math.min(TILES_PER_MAP,
+                        (long) _tileRows * _tileCols
+                        - (long) r * TILES_PER_MAP);
+                    try {
+                        map = _channel.map(FileChannel.MapMode.READ_WRITE,
+                            (long) r * TILES_PER_MAP * TILE_BYTES,
+                            tiles * TILE_BYTES)
+                            .order(ByteOrder.nativeOrder())
+                            .asDoubleBuffer();
+                    } catch (IOException excp) {
+                        throw error("cannot map scratch file");
+                    }
+                    _maps[r] = map;
+                }
+            }
+        }
+        return map;
+    }
+
+    /** A tile of a store in the cache. */
+    private static class Key {
+
+        /** Number identifying the store. */
+        private final long _store;
+
+        /** Index of the tile in the store. */
+        private final long _index;
+
+        Key(long store, long index) {
+            _store = store;
+            _index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return _store == k._store && _index == k._index;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(_store * 31 + _index);
+        }
+    }
+
+    /** Drops the cached tiles of an unreachable store and closes its
+     *  scratch file. */
+    private static class Release implements Runnable {
+
+        /** Number identifying the store. */
+        private final long _id;
+
+        /** Scratch file of the store. */
+        private final FileChannel _channel;
+
+        Release(long id, FileChannel channel) {
+            _id = id;
+            _channel = channel;
+        }
+
+        @Override
+        public void run() {
+            synchronized (CACHE) {
+                CACHE.keySet().removeIf(k -> k._store == _id);
+            }
+            try {
+                _channel.close();
+            } catch (IOException excp) {
+                return;
+            }
+        }
+    }
+
+}
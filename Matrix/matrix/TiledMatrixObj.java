@@ -0,0 +1,317 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static matrix.MatrixException.error;
+
+/** A dense matrix too large to keep on the heap, held in square tiles
+ *  in a TileStore on disk. Sums and products read their operands one
+ *  tile at a time and write their results a tile at a time, so only
+ *  the tiles in use and those in the bounded tile cache are on the
+ *  heap. The transpose reads the same tiles transposed, so
+ *  transposing is free.
+ *  @author Christian Choi
+ */
+class TiledMatrixObj extends MatrixObj {
+
+    /** Number of rows and cols of each tile. */
+    static final int TILE = TileStore.TILE;
+
+    /** Dense matrices with more elements than this are held in tiles:
+     *  those taking more than an eighth of the largest heap, and those
+     *  too large for an array. */
+    static final long MIN_TILED = Math.min(SparseMatrixObj.MAX_DENSE,
+        Runtime.getRuntime().maxMemory() / 8 / Double.BYTES);
+
+    /** Tiles of this matrix, or of its transpose if _transposed. */
+    private final TileStore _store;
+
+    /** Whether _store holds the transpose of this matrix. */
+    private final boolean _transposed;
+
+    /** A ROWS x COLS matrix of zeros, held in a new scratch file. */
+    TiledMatrixObj(int rows, int cols) {
+        this(rows, cols, new TileStore(tiles(rows), tiles(cols)), false);
+    }
+
+    /** A ROWS x COLS matrix whose elements are in STORE, transposed
+     *  if TRANSPOSED. */
+    private TiledMatrixObj(int rows, int cols, TileStore store,
+                           boolean transposed) {
+        super(rows, cols);
+        _store = store;
+        _transposed = transposed;
+    }
+
+    /** Number of tiles spanning N rows or cols. */
+    static int tiles(int n) {
+        return (n + TILE - 1) / TILE;
+    }
+
+    /** M held in tiles if it is dense, stores doubles on the heap and
+     *  has more than MIN_TILED elements, and M otherwise. */
+    static MatrixObj choose(MatrixObj m) {
+        if (m.isSparse() || m.isFloat() || m.isTiled() || m.isOffHeap()
+            || (long) m.rows() * m.cols() <= MIN_TILED) {
+            return m;
+        }
+        return of(m);
+    }
+
+    /** A copy of M held in tiles. */
+    static TiledMatrixObj of(MatrixObj m) {
+        return combine(new MatrixObj[] {m}, new double[] {1});
+    }
+
+    @Override
+    public boolean isTiled() {
+        return true;
+    }
+
+    /** Tile (TI, TJ) of this matrix, which must not be modified. */
+    double[] tile(int ti, int tj) {
+        if (!_transposed) {
+            return _store.get(ti, tj);
+        }
+        double[] stored = _store.get(tj, ti);
+        double[] tile = new double[TILE * TILE];
+        for (int i = 0; i < TILE; i += 1) {
+            for (int j = 0; j < TILE; j += 1) {
+                tile[i * TILE + j] = stored[j * TILE + i];
+            }
+        }
+        return tile;
+    }
+
+    /** Replaces tile (TI, TJ) of this matrix, which must not be a
+     *  transpose, with TILE, which must not be modified afterwards. */
+    void put(int ti, int tj, double[] tile) {
+        _store.put(ti, tj, tile);
+    }
+
+    /** Tile (TI, TJ) of M, padded with zeros past its edges, which
+     *  must not be modified. The tiles of a sparse matrix are filled
+     *  from its stored elements alone. */
+    static double[] tile(MatrixObj m, int ti, int tj) {
+        if (m.isTiled()) {
+            return ((TiledMatrixObj) m).tile(ti, tj);
+        }
+        double[] tile = new double[TILE * TILE];
+        int i0 = ti * TILE;
+        int j0 = tj * TILE;
+        int height = Math.min(TILE, m.rows() - i0);
+        int width = Math.min(TILE, m.cols() - j0);
+        if (m.isSparse()) {
+            scatter((SparseMatrixObj) m, i0, j0, height, width, tile);
+            return tile;
+        }
+        for (int i = 0; i < height; i += 1) {
+            for (int j = 0; j < width; j += 1) {
+                tile[i * TILE + j] = m.get(i0 + i, j0 + j);
+            }
+        }
+        return tile;
+    }
+
+    /** Copies the elements of S in the HEIGHT x WIDTH block at (I0, J0)
+     *  into TILE, finding those in each major line by binary
+     *  search. */
+    private static void scatter(SparseMatrixObj s, int i0, int j0,
+                                int height, int width, double[] tile) {
+        int[] ptr = s.ptr();
+        int[] idx = s.idx();
+        double[] vals = s.vals();
+        boolean byCols = s.byCols();
+        int lo = byCols ? j0 : i0;
+        int hi = lo + (byCols ? width : height);
+        int minorLo = byCols ? i0 : j0;
+        int minorHi = minorLo + (byCols ? height : width);
+        for (int major = lo; major < hi; major += 1) {
+            int k = Arrays.binarySearch(idx, ptr[major], ptr[major + 1],
+                minorLo);
+            for (k = k < 0 ? -k - 1 : k;
+                 k < ptr[major + 1] && idx[k] < minorHi; k += 1) {
+                int i = byCols ? idx[k] - i0 : major - i0;
+                int j = byCols ? major - j0 : idx[k] - j0;
+                tile[i * TILE + j] = vals[k];
+            }
+        }
+    }
+
+    @Override
+    public double get(int i, int j) {
+        if (_transposed) {
+            return _store.get(j / TILE, i / TILE)[
+                (j % TILE) * TILE + i % TILE];
+        }
+        return _store.get(i / TILE, j / TILE)[
+            (i % TILE) * TILE + j % TILE];
+    }
+
+    @Override
+    public double get(int k) {
+        return get(k / cols(), k % cols());
+    }
+
+    @Override
+    public boolean isRowMajor() {
+        return false;
+    }
+
+    @Override
+    public double[] elems() {
+        return toArray();
+    }
+
+    @Override
+    public double[] toArray() {
+        long size = (long) rows() * cols();
+        if (size > SparseMatrixObj.MAX_DENSE) {
+            throw error("matrix too large to store densely");
+        }
+        int cols = cols();
+        double[] result = new double[(int) size];
+        for (int ti = 0; ti < tiles(rows()); ti += 1) {
+            int height = Math.min(TILE, rows() - ti * TILE);
+            for (int tj = 0; tj < tiles(cols); tj += 1) {
+                int width = Math.min(TILE, cols - tj * TILE);
+                double[] tile = tile(ti, tj);
+                for (int i = 0; i < height; i += 1) {
+                    System.arraycopy(tile, i * TILE, result,
+                        (ti * TILE + i) * cols + tj * TILE, width);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public MatrixObj onHeap() {
+        return new MatrixObj(rows(), cols(), toArray());
+    }
+
+    @Override
+    public double[] row(int i) {
+        double[] result = new double[cols()];
+        for (int tj = 0; tj < tiles(cols()); tj += 1) {
+            System.arraycopy(tile(i / TILE, tj), (i % TILE) * TILE, result,
+                tj * TILE, Math.min(TILE, cols() - tj * TILE));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isIntegral() {
+        for (int ti = 0; ti < tiles(rows()); ti += 1) {
+            for (int tj = 0; tj < tiles(cols()); tj += 1) {
+                for (double d : tile(ti, tj)) {
+                    if (d != Math.rint(d)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /** The transpose of this matrix, sharing its tiles. */
+    @Override
+    public TiledMatrixObj transpose() {
+        return new TiledMatrixObj(cols(), rows(), _store, !_transposed);
+    }
+
+    /** Returns the sum of COEFS[K] times TERMS[K] over every K, for
+     *  matrices of equal dimensions, computing each tile of the result
+     *  in one pass over the same tile of every term. Tiles are
+     *  computed in parallel. */
+    static TiledMatrixObj combine(MatrixObj[] terms, double[] coefs) {
+        TiledMatrixObj result = new TiledMatrixObj(terms[0].rows(),
+            terms[0].cols());
+        int tileCols = tiles(result.cols());
+        IntStream.range(0, tiles(result.rows()) * tileCols).parallel()
+            .forEach(t -> {
+                int ti = t / tileCols;
+                int tj = t % tileCols;
+                double[] tile = new double[TILE * TILE];
+                for (int k = 0; k < terms.length; k += 1) {
+                    if (coefs[k] != 0) {
+                        Kernels.INSTANCE.axpy(coefs[k],
+                            tile(terms[k], ti, tj), 0, tile, 0,
+                            tile.length);
+                    }
+                }
+                result.put(ti, tj, tile);
+            });
+        return result;
+    }
+
+    /** Returns the product of A and B, which have agreeing dimensions
+     *  and of which at least one is held in tiles or has a product
+     *  too large for the heap. The result is computed in blocks of
+     *  tiles kept on the heap, each as wide and tall as lets a block
+     *  together with a row of tiles of B and a col of tiles of A fit
+     *  in the tile cache, so each tile of A and B is read once per
+     *  block. Tiles of a block are computed in parallel. Products
+     *  with at most MIN_TILED elements are returned on the heap. */
+    static MatrixObj multiply(MatrixObj a, MatrixObj b) {
+        int m = a.rows();
+        int p = b.cols();
+        int tileRows = tiles(m);
+        int tileCols = tiles(p);
+        int depth = tiles(a.cols());
+        int block = Math.max(1,
+            (int) Math.sqrt(TileStore.CAPACITY / 4.0));
+        TiledMatrixObj tiled = null;
+        double[] dense = null;
+        if ((long) m * p > MIN_TILED) {
+            tiled = new TiledMatrixObj(m, p);
+        } else {
+            dense = new double[m * p];
+        }
+        for (int ib = 0; ib < tileRows; ib += block) {
+            int height = Math.min(block, tileRows - ib);
+            for (int jb = 0; jb < tileCols; jb += block) {
+                int width = Math.min(block, tileCols - jb);
+                double[][] c = new double[height * width][TILE * TILE];
+                for (int tk = 0; tk < depth; tk += 1) {
+                    int k = tk;
+                    int i0 = ib;
+                    int j0 = jb;
+                    IntStream.range(0, c.length).parallel().forEach(t ->
+                        multiplyTile(tile(a, i0 + t / width, k),
+                            tile(b, k, j0 + t % width), c[t]));
+                }
+                for (int t = 0; t < c.length; t += 1) {
+                    int ti = ib + t / width;
+                    int tj = jb + t % width;
+                    if (tiled != null) {
+                        tiled.put(ti, tj, c[t]);
+                        continue;
+                    }
+                    int rows = Math.min(TILE, m - ti * TILE);
+                    int cols = Math.min(TILE, p - tj * TILE);
+                    for (int i = 0; i < rows; i += 1) {
+                        System.arraycopy(c[t], i * TILE, dense,
+                            (ti * TILE + i) * p + tj * TILE, cols);
+                    }
+                }
+            }
+        }
+        return tiled != null ? tiled : new MatrixObj(m, p, dense);
+    }
+
+    /** Adds the product of the tiles A and B to the tile C. */
+    static void multiplyTile(double[] a, double[] b, double[] c) {
+        for (int i = 0; i < TILE; i += 1) {
+            int row = i * TILE;
+            for (int k = 0; k < TILE; k += 1) {
+                double aik = a[row + k];
+                if (aik != 0) {
+                    Kernels.INSTANCE.axpy(aik, b, k * TILE, c, row, TILE);
+                }
+            }
+        }
+    }
+
+}
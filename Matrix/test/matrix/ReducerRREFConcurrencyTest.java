@@ -0,0 +1,130 @@
+package matrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Stress test of RREF and inverse computations running on many
+ *  threads at once, each of which must give exactly the result and
+ *  steps it gives when run alone.
+ *  @author Christian Choi */
+
+class ReducerRREFConcurrencyTest {
+
+    /** Number of distinct matrices reduced. */
+    private static final int MATRICES = 64;
+
+    /** Number of computations run in parallel. */
+    private static final int TASKS = 2000;
+
+    /** Number of threads running them. */
+    private static final int THREADS = 16;
+
+    /** What one computation on a matrix gives. */
+    private static final class Outcome {
+
+        /** Rendered steps of the traced RREF. */
+        private final String _steps;
+
+        /** Elements of the traced RREF, the RREF computed without
+         *  steps and the inverse, which is null for singular
+         *  matrices. */
+        private final double[] _traced, _rref, _inverse;
+
+        /** The outcome of every computation on M. */
+        Outcome(MatrixObj m) {
+            ReducerRREF.Trace trace = ReducerRREF.traceRREF(m);
+            _steps = trace.toString();
+            _traced = trace.result().toArray();
+            _rref = ReducerRREF.rref(m).toArray();
+            Calculator calc = new Calculator(null);
+            _inverse = new DecompositionLU(m).isSingular() ? null
+                : calc.inverse(m).toArray();
+        }
+
+        /** Asserts that this is the outcome EXPECTED, for matrix K. */
+        void check(Outcome expected, int k) {
+            assertEquals(expected._steps, _steps, "steps of matrix " + k);
+            assertArrayEquals(expected._traced, _traced,
+                "traced rref of matrix " + k);
+            assertArrayEquals(expected._rref, _rref, "rref of matrix " + k);
+            assertArrayEquals(expected._inverse, _inverse,
+                "inverse of matrix " + k);
+        }
+    }
+
+    /** A random square matrix of order 2 to 8, of small whole numbers
+     *  or of tenths, drawn from RANDOM. Some are singular, having a
+     *  row that is a multiple of another. */
+    private static MatrixObj randomMatrix(Random random) {
+        int n = 2 + random.nextInt(7);
+        boolean tenths = random.nextBoolean();
+        double[] data = new double[n * n];
+        for (int i = 0; i < data.length; i += 1) {
+            data[i] = random.nextInt(19) - 9;
+            if (tenths) {
+                data[i] /= 10;
+            }
+        }
+        if (random.nextInt(4) == 0) {
+            for (int j = 0; j < n; j += 1) {
+                data[(n - 1) * n + j] = 2 * data[j];
+            }
+        }
+        return new MatrixObj(n, n, data);
+    }
+
+    @Test
+    void parallelResultsMatchSequential() throws Exception {
+        Random random = new Random(7);
+        MatrixObj[] matrices = new MatrixObj[MATRICES];
+        Outcome[] expected = new Outcome[MATRICES];
+        for (int k = 0; k < MATRICES; k += 1) {
+            matrices[k] = randomMatrix(random);
+            expected[k] = new Outcome(matrices[k]);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Outcome>> outcomes = new ArrayList<>();
+            for (int t = 0; t < TASKS; t += 1) {
+                MatrixObj m = matrices[t % MATRICES];
+                outcomes.add(pool.submit(() -> {
+                    start.await();
+                    return new Outcome(m);
+                }));
+            }
+            start.countDown();
+            for (int t = 0; t < TASKS; t += 1) {
+                outcomes.get(t).get(1, TimeUnit.MINUTES)
+                    .check(expected[t % MATRICES], t % MATRICES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void someMatricesAreSingularAndSomeNot() {
+        Random random = new Random(7);
+        boolean[] seen = new boolean[2];
+        for (int k = 0; k < MATRICES; k += 1) {
+            seen[new DecompositionLU(randomMatrix(random)).isSingular()
+                ? 1 : 0] = true;
+        }
+        assertTrue(seen[0] && seen[1], Arrays.toString(seen));
+    }
+
+}
@@ -0,0 +1,136 @@
+package matrix;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** Kernels whose loops run a full SIMD register of doubles or floats
+ *  at a time, in the widest shape the processor supports, leaving the
+ *  elements past the last whole register to the scalar loops.
+ *  Compiled and run with --add-modules jdk.incubator.vector.
+ *  @author Christian Choi */
+
+class KernelsVector extends Kernels {
+
+    /** Shape of the vectors used. */
+    private static final VectorSpecies<Double> SPECIES =
+        DoubleVector.SPECIES_PREFERRED;
+
+    /** Number of doubles in each vector. */
+    private static final int LANES = SPECIES.length();
+
+    /** Shape of the vectors of floats used. */
+    private static final VectorSpecies<Float> FLOATS =
+        FloatVector.SPECIES_PREFERRED;
+
+    /** Number of floats in each vector. */
+    private static final int FLOAT_LANES = FLOATS.length();
+
+    @Override
+    String name() {
+        return "vector (" + LANES + " lanes)";
+    }
+
+    @Override
+    void add(double[] a, double[] b, double[] c, int from, int to) {
+        int i = from;
+        for (int end = from + SPECIES.loopBound(to - from); i < end;
+             i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i)
+                .add(DoubleVector.fromArray(SPECIES, b, i))
+                .intoArray(c, i);
+        }
+        super.add(a, b, c, i, to);
+    }
+
+    @Override
+    void subtract(double[] a, double[] b, double[] c, int from, int to) {
+        int i = from;
+        for (int end = from + SPECIES.loopBound(to - from); i < end;
+             i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i)
+                .sub(DoubleVector.fromArray(SPECIES, b, i))
+                .intoArray(c, i);
+        }
+        super.subtract(a, b, c, i, to);
+    }
+
+    @Override
+    void scale(double[] a, double alpha, double[] c, int from, int to) {
+        int i = from;
+        for (int end = from + SPECIES.loopBound(to - from); i < end;
+             i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).mul(alpha)
+                .intoArray(c, i);
+        }
+        super.scale(a, alpha, c, i, to);
+    }
+
+    @Override
+    void add(float[] a, float[] b, float[] c, int from, int to) {
+        int i = from;
+        for (int end = from + FLOATS.loopBound(to - from); i < end;
+             i += FLOAT_LANES) {
+            FloatVector.fromArray(FLOATS, a, i)
+                .add(FloatVector.fromArray(FLOATS, b, i))
+                .intoArray(c, i);
+        }
+        super.add(a, b, c, i, to);
+    }
+
+    @Override
+    void subtract(float[] a, float[] b, float[] c, int from, int to) {
+        int i = from;
+        for (int end = from + FLOATS.loopBound(to - from); i < end;
+             i += FLOAT_LANES) {
+            FloatVector.fromArray(FLOATS, a, i)
+                .sub(FloatVector.fromArray(FLOATS, b, i))
+                .intoArray(c, i);
+        }
+        super.subtract(a, b, c, i, to);
+    }
+
+    @Override
+    void scale(float[] a, float alpha, float[] c, int from, int to) {
+        int i = from;
+        for (int end = from + FLOATS.loopBound(to - from); i < end;
+             i += FLOAT_LANES) {
+            FloatVector.fromArray(FLOATS, a, i).mul(alpha)
+                .intoArray(c, i);
+        }
+        super.scale(a, alpha, c, i, to);
+    }
+
+    @Override
+    void axpy(double alpha, double[] x, int xFrom, double[] y, int yFrom,
+              int n) {
+        int i = 0;
+        for (int end = SPECIES.loopBound(n); i < end; i += LANES) {
+            DoubleVector.fromArray(SPECIES, x, xFrom + i).mul(alpha)
+                .add(DoubleVector.fromArray(SPECIES, y, yFrom + i))
+                .intoArray(y, yFrom + i);
+        }
+        super.axpy(alpha, x, xFrom + i, y, yFrom + i, n - i);
+    }
+
+    /** Accumulates into two vectors, so that consecutive additions do
+     *  not wait on each other. */
+    @Override
+    double dot(double[] x, double[] y, int from, int to) {
+        DoubleVector even = DoubleVector.zero(SPECIES);
+        DoubleVector odd = DoubleVector.zero(SPECIES);
+        int i = from;
+        for (int end = from + (to - from) / (2 * LANES) * (2 * LANES);
+             i < end; i += 2 * LANES) {
+            even = DoubleVector.fromArray(SPECIES, x, i)
+                .mul(DoubleVector.fromArray(SPECIES, y, i)).add(even);
+            odd = DoubleVector.fromArray(SPECIES, x, i + LANES)
+                .mul(DoubleVector.fromArray(SPECIES, y, i + LANES))
+                .add(odd);
+        }
+        return even.add(odd).reduceLanes(VectorOperators.ADD)
+            + super.dot(x, y, i, to);
+    }
+
+}